@@ -44,12 +44,20 @@ public class KryoClientSceneSystem extends NetworkingSceneSystem {
     @Override
     public void componentDetached(Component c) {
         componentMap.remove(c.getNetworkID());
+        snapshotReceiver.forget(c.getNetworkID());
     }
 
     private final List<Object> objectsFromServer = new ArrayList<>();
 
+    // Snapshot frames arrive unreliably, separately from the tick they belong to, and are applied as they come.
+    private final List<TickFrame> snapshotFrames = new ArrayList<>();
+    private final SnapshotReceiver snapshotReceiver = new SnapshotReceiver();
+    private int lastSnapshotAck = SnapshotReceiver.NO_TICK;
+
     private List<RPCMessage> rpcsToSend = new ArrayList<>();
     private boolean newTickAvailable = false;
+    // The ID of the tick in objectsFromServer.
+    private int availableTickID;
 
     private Map<Integer, Node> nodeMap = new TreeMap<>();
     private Map<Integer, Component> componentMap = new TreeMap<>();
@@ -87,6 +95,7 @@ public class KryoClientSceneSystem extends NetworkingSceneSystem {
 
     class ClientListener extends Listener {
 
+        // The tick whose frames are being received, and their messages so far.
         int currentTick = 0;
         boolean processingTick = false;
 
@@ -106,57 +115,51 @@ public class KryoClientSceneSystem extends NetworkingSceneSystem {
 
         @Override
         public void received(Connection connection, Object o) {
-            if (o instanceof BeginTick) {
-                while (newTickAvailable) {
-                    synchronized (tickLock) {
-                        try {
-                            tickLock.wait();
-                        } catch (InterruptedException ex) {
-                            ex.getCause();
-                        }
-                    }
-                }
-                if (processingTick) {
-                    Log.error(getClass().getSimpleName(), "The server sent a BeginTick before ending the last tick.");
-                    return;
+            if (!(o instanceof TickFrame)) {
+                return;
+            }
+            TickFrame frame = (TickFrame) o;
+            if (frame.snapshot) {
+                synchronized (snapshotFrames) {
+                    snapshotFrames.add(frame);
                 }
-                BeginTick t = (BeginTick) o;
-                processingTick = true;
-                currentTick = t.tickID;
+                return;
+            }
+            if (processingTick && frame.tickID != currentTick) {
+                Log.error(getClass().getSimpleName(), "The server started a tick before finishing the last one.");
                 tickObjectBuffer.clear();
+            }
+            processingTick = true;
+            currentTick = frame.tickID;
+            tickObjectBuffer.addAll(frame.messages);
+            if (!frame.last) {
                 return;
             }
-            if (o instanceof EndTick) {
-                EndTick t = (EndTick) o;
-                if (!processingTick) {
-                    Log.error(getClass().getSimpleName(), "The server sent an EndTick before starting a tick.");
-                    return;
-                }
 
-                if (currentTick != t.tickID) {
-                    Log.error(getClass().getSimpleName(), "The server sent an EndTick not corresponding to the last tick started.");
-                    processingTick = false;
-                    tickObjectBuffer.clear();
-                    return;
-                }
-                synchronized (objectsFromServer) {
-                    objectsFromServer.clear();
-                    objectsFromServer.addAll(tickObjectBuffer);
-                    newTickAvailable = true;
+            while (newTickAvailable) {
+                synchronized (tickLock) {
+                    try {
+                        tickLock.wait();
+                    } catch (InterruptedException ex) {
+                        ex.getCause();
+                    }
                 }
-                processingTick = false;
-                connectionState = IN_PLAY;
-                return;
             }
-
-            if (processingTick) {
-                tickObjectBuffer.add(o);
+            synchronized (objectsFromServer) {
+                objectsFromServer.clear();
+                objectsFromServer.addAll(tickObjectBuffer);
+                availableTickID = currentTick;
+                newTickAvailable = true;
             }
+            tickObjectBuffer.clear();
+            processingTick = false;
+            connectionState = IN_PLAY;
         }
     }
 
     public KryoClientSceneSystem() throws IOException {
-        client = new Client();
+        // Big enough for the largest frame a tick is sent in.
+        client = new Client(8192, 4 * TickFrameWriter.MAX_FRAME_BYTES);
         KryoClassRegisterUtil.registerAll(client.getKryo());
         client.addListener(new ClientListener());
 
@@ -213,8 +216,10 @@ public class KryoClientSceneSystem extends NetworkingSceneSystem {
                 List<ComponentReattach> componentReattachList = new ArrayList<>();
                 List<FieldReplicateMessage> fieldReplicateMessageList = new ArrayList<>();
                 List<RPCMessage> rpcMessageList = new ArrayList<>();
+                int tickID;
 
                 synchronized (objectsFromServer) {
+                    tickID = availableTickID;
                     objectsFromServer.stream().filter(o -> o instanceof NodeAttach).forEach(o -> nodeAttachList.add((NodeAttach) o));
                     objectsFromServer.stream().filter(o -> o instanceof NodeDetach).forEach(o -> nodeDetachList.add((NodeDetach) o));
                     objectsFromServer.stream().filter(o -> o instanceof NodeReattach).forEach(o -> nodeReattachList.add((NodeReattach) o));
@@ -356,6 +361,7 @@ public class KryoClientSceneSystem extends NetworkingSceneSystem {
                             return;
                         }
                         RepTable.getTableForType(c.getClass()).applyReplicationData(m.fieldReplicationData, c);
+                        snapshotReceiver.markApplied(m.componentID, tickID);
                     });
                 }
 
@@ -398,6 +404,26 @@ public class KryoClientSceneSystem extends NetworkingSceneSystem {
                         c.getParent().removeComponent(c);
                     });
                 }
+
+                // Let the server know it can send field changes relative to this tick.
+                client.sendTCP(new TickAck(tickID));
+            }
+
+            // Apply the snapshots that arrived since, after the tick so that the components they're for exist.
+            List<TickFrame> frames;
+            synchronized (snapshotFrames) {
+                frames = new ArrayList<>(snapshotFrames);
+                snapshotFrames.clear();
+            }
+            for (TickFrame frame : frames) {
+                for (FieldReplicateMessage m : snapshotReceiver.receive(frame, componentMap::containsKey)) {
+                    Component c = componentMap.get(m.componentID);
+                    RepTable.getTableForType(c.getClass()).applyReplicationData(m.fieldReplicationData, c);
+                }
+            }
+            if (snapshotReceiver.getLatestCompleteTick() > lastSnapshotAck) {
+                lastSnapshotAck = snapshotReceiver.getLatestCompleteTick();
+                client.sendUDP(new SnapshotAck(lastSnapshotAck));
             }
 
             // Send RPC messages
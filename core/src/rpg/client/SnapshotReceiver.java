@@ -0,0 +1,112 @@
+package rpg.client;
+
+import rpg.scene.kryo.FieldReplicateMessage;
+import rpg.scene.kryo.TickFrame;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Sorts out the snapshot frames from the server, which may be lost, duplicated or arrive out of order. Fields older
+ * than the ones a component already has are dropped. A tick counts as received once every one of its frames arrived
+ * and was applied, as the server sends later snapshots relative to the last tick the client acknowledges.
+ */
+public class SnapshotReceiver {
+    public static final int NO_TICK = -1;
+
+    // How far behind the latest tick to keep waiting for the rest of a tick's frames.
+    private static final int MAX_PENDING_TICKS = 64;
+
+    // The tick of the fields each component has, by network ID.
+    private final Map<Integer, Integer> appliedTicks = new HashMap<>();
+    // The ticks that some, but not all, frames have been received for.
+    private final Map<Integer, PendingTick> pendingTicks = new HashMap<>();
+    private int latestCompleteTick = NO_TICK;
+
+    private static class PendingTick {
+        final BitSet frames = new BitSet();
+        // Known once the last frame arrives.
+        int frameCount = -1;
+        // Set if some fields couldn't be applied, in which case the tick never counts as received.
+        boolean missedFields = false;
+    }
+
+    /**
+     * Take in a snapshot frame.
+     *
+     * @param frame  the frame
+     * @param exists whether there is a component with a network ID. The fields of one that doesn't exist yet, because
+     *               its attachment hasn't been applied, can't be applied either.
+     * @return the messages to apply, which have fields newer than the components have
+     */
+    public List<FieldReplicateMessage> receive(TickFrame frame, IntPredicate exists) {
+        PendingTick pending = null;
+        if (frame.tickID > latestCompleteTick) {
+            pending = pendingTicks.computeIfAbsent(frame.tickID, t -> new PendingTick());
+        }
+
+        List<FieldReplicateMessage> fresh = new ArrayList<>(frame.messages.size());
+        for (Object o : frame.messages) {
+            if (!(o instanceof FieldReplicateMessage)) {
+                continue;
+            }
+            FieldReplicateMessage m = (FieldReplicateMessage) o;
+            if (!exists.test(m.componentID)) {
+                if (pending != null) {
+                    pending.missedFields = true;
+                }
+                continue;
+            }
+            Integer appliedTick = appliedTicks.get(m.componentID);
+            if (appliedTick != null && appliedTick >= frame.tickID) {
+                continue;
+            }
+            appliedTicks.put(m.componentID, frame.tickID);
+            fresh.add(m);
+        }
+
+        if (pending != null) {
+            pending.frames.set(frame.index);
+            if (frame.last) {
+                pending.frameCount = frame.index + 1;
+            }
+            if (pending.frameCount == pending.frames.cardinality() && !pending.missedFields) {
+                latestCompleteTick = frame.tickID;
+            }
+        }
+        int newest = Math.max(frame.tickID, latestCompleteTick);
+        pendingTicks.keySet().removeIf(t -> t <= latestCompleteTick || t < newest - MAX_PENDING_TICKS);
+        return fresh;
+    }
+
+    /**
+     * Note that a component was given its fields as of a tick some other way, such as whole when it was attached, so
+     * that older fields from snapshots aren't applied over them.
+     *
+     * @param componentID the component's network ID
+     * @param tick        the tick
+     */
+    public void markApplied(int componentID, int tick) {
+        appliedTicks.merge(componentID, tick, Math::max);
+    }
+
+    /**
+     * Forget about a component, once it is detached.
+     *
+     * @param componentID the component's network ID
+     */
+    public void forget(int componentID) {
+        appliedTicks.remove(componentID);
+    }
+
+    /**
+     * @return the latest tick whose snapshot was received and applied in full, or {@link #NO_TICK}
+     */
+    public int getLatestCompleteTick() {
+        return latestCompleteTick;
+    }
+}
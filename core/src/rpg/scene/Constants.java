@@ -5,5 +5,5 @@ public final class Constants {
 
     }
 
-    public static final int GAME_VERSION = 0;
+    public static final int GAME_VERSION = 4;
 }
@@ -0,0 +1,150 @@
+package rpg.scene;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hands out network IDs for one scene, recycling the IDs of nodes and components that have left it.
+ * <p>
+ * An ID is a slot index in the low {@link #INDEX_BITS} bits and the slot's generation above it. Freeing an ID bumps
+ * its slot's generation, so an ID held on to after its owner left the scene (say, in an RPC that was in flight) never
+ * matches whatever reuses the slot, until the generation wraps around.
+ * <p>
+ * Freed slots are reused in the order they were freed, and only once more than {@link #MIN_FREE_SLOTS} are waiting,
+ * so a slot goes through its generations no faster than one per {@link #MIN_FREE_SLOTS} frees, however hot it is.
+ * Otherwise slots are reused before new ones are opened, so the indices stay dense and can be used to index arrays.
+ * <p>
+ * Allocating and freeing are lock-free, so nodes can be spawned from several threads at once.
+ */
+public final class NetworkIDAllocator {
+    // Together no more than 30 bits, so that IDs never reach Node.UNASSIGNED_NETWORK_ID, and the scene's local IDs,
+    // which count down from -2, never reach Node.UNASSIGNED_LOCAL_NETWORK_ID.
+    public static final int INDEX_BITS = 21;
+    public static final int GENERATION_BITS = 9;
+    public static final int MIN_FREE_SLOTS = 1024;
+
+    public static final int MAX_INDEX = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // Per slot: the generation shifted left by one, with the low bit set while the ID is in use.
+    private final AtomicReferenceArray<AtomicIntegerArray> states =
+            new AtomicReferenceArray<>((MAX_INDEX + 1) / CHUNK_SIZE);
+    // Freed slots, oldest first. numFree may count a slot for a moment after it was taken off.
+    private final Queue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numFree = new AtomicInteger();
+
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger numAllocated = new AtomicInteger();
+
+    /**
+     * Allocate an ID.
+     *
+     * @return a non-negative ID that isn't in use
+     * @throws IllegalStateException if every slot is in use
+     */
+    public int allocate() {
+        if (numFree.get() > MIN_FREE_SLOTS) {
+            Integer free = freeSlots.poll();
+            if (free != null) {
+                numFree.decrementAndGet();
+                return claim(free);
+            }
+        }
+
+        int index = nextIndex.getAndIncrement();
+        if (index > MAX_INDEX) {
+            nextIndex.decrementAndGet();
+            throw new IllegalStateException("Out of network IDs: " + (MAX_INDEX + 1) + " are in use.");
+        }
+        return claim(index);
+    }
+
+    /**
+     * Free an ID, so that its slot can be reused by a later {@link #allocate()}.
+     *
+     * @param id an ID returned by {@link #allocate()}
+     * @throws IllegalArgumentException if the ID isn't in use, e.g. because it was freed already
+     */
+    public void free(int id) {
+        int index = indexOf(id);
+        if (id < 0 || index >= nextIndex.get()) {
+            throw new IllegalArgumentException("Network ID " + id + " was not allocated here.");
+        }
+        AtomicIntegerArray stateChunk = chunk(states, index);
+        int inUse = (generationOf(id) << 1) | 1;
+        int freed = ((generationOf(id) + 1) & GENERATION_MASK) << 1;
+        if (!stateChunk.compareAndSet(index & (CHUNK_SIZE - 1), inUse, freed)) {
+            throw new IllegalArgumentException("Network ID " + id + " is not in use.");
+        }
+        numAllocated.decrementAndGet();
+        freeSlots.offer(index);
+        numFree.incrementAndGet();
+    }
+
+    /**
+     * Whether an ID is currently allocated. False for an ID whose slot has since been reused.
+     *
+     * @param id the ID
+     * @return true if the ID is in use
+     */
+    public boolean isAllocated(int id) {
+        int index = indexOf(id);
+        if (id < 0 || index >= nextIndex.get()) {
+            return false;
+        }
+        return chunk(states, index).get(index & (CHUNK_SIZE - 1)) == ((generationOf(id) << 1) | 1);
+    }
+
+    /**
+     * Get the number of IDs in use.
+     *
+     * @return the number of allocated IDs
+     */
+    public int getNumAllocated() {
+        return numAllocated.get();
+    }
+
+    /**
+     * Get one past the highest slot index handed out so far. Every allocated ID's index is below this, so it is the
+     * size an array indexed by {@link #indexOf(int)} needs to be.
+     *
+     * @return the number of slots in use or waiting to be reused
+     */
+    public int getCapacity() {
+        return Math.min(nextIndex.get(), MAX_INDEX + 1);
+    }
+
+    public static int indexOf(int id) {
+        return id & MAX_INDEX;
+    }
+
+    public static int generationOf(int id) {
+        return (id >>> INDEX_BITS) & GENERATION_MASK;
+    }
+
+    private int claim(int index) {
+        AtomicIntegerArray stateChunk = chunk(states, index);
+        int i = index & (CHUNK_SIZE - 1);
+        // Nobody else can be touching the slot: it was just taken off the queue of free slots, or is brand new.
+        int generation = stateChunk.get(i) >>> 1;
+        stateChunk.set(i, (generation << 1) | 1);
+        numAllocated.incrementAndGet();
+        return (generation << INDEX_BITS) | index;
+    }
+
+    private static AtomicIntegerArray chunk(AtomicReferenceArray<AtomicIntegerArray> chunks, int index) {
+        int c = index >>> CHUNK_BITS;
+        AtomicIntegerArray chunk = chunks.get(c);
+        if (chunk == null) {
+            chunks.compareAndSet(c, null, new AtomicIntegerArray(CHUNK_SIZE));
+            chunk = chunks.get(c);
+        }
+        return chunk;
+    }
+}
@@ -5,31 +5,76 @@ import rpg.scene.components.Transform;
 import rpg.scene.systems.SceneSystem;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class Node {
-    private Set<Node> children = new TreeSet<>(Comparator.comparingInt(Node::getNetworkID));
-    private int networkID = 0;
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    // In the order they were added. Network IDs are only assigned on attach, so they can't be used to order them.
+    private Set<Node> children = new LinkedHashSet<>();
+
+    /**
+     * Copy-on-write array of the children, used by {@link #process(SceneSystem, float)}. It is only rebuilt after the
+     * child set has changed, and an array handed out is never mutated, so a traversal can keep iterating it while
+     * children are added or removed underneath it.
+     */
+    private Node[] childSnapshot = NO_CHILDREN;
+    private boolean childSnapshotStale = false;
+    private int networkID = UNASSIGNED_NETWORK_ID;
+
+    // Whether the scene hands out this node's network ID, as opposed to it being set explicitly.
+    private boolean networkIDAllocated = true;
 
     private List<Component> components = new ArrayList<>();
 
-    private static int networkIDCounter = 0;
-    private static int localNetworkIDCounter = Integer.MIN_VALUE;
+    /**
+     * Memo for {@link #findComponent(Class)}, indexed by {@link #typeID(Class)}. A null slot hasn't been looked up
+     * since the components last changed, and {@link #NO_COMPONENT} marks a type this node doesn't have. It is
+     * allocated on the first lookup and cleared whenever a component is added or removed.
+     * <p>
+     * Nodes are looked up from several threads during parallel stepping, so the array is only ever grown or cleared
+     * under the node's lock, and published through a volatile field. Filling in a slot needs no lock: every thread
+     * works out the same value, and one that is lost to a concurrent grow is just looked up again.
+     */
+    private volatile Object[] componentsByType;
+
+    private static final Object NO_COMPONENT = new Object();
+
+    private static final AtomicInteger typeIDCounter = new AtomicInteger();
+    private static final ClassValue<Integer> typeIDs = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return typeIDCounter.getAndIncrement();
+        }
+    };
 
     public static final int ROOT_NODE_NETWORK_ID = -1;
 
+    /**
+     * The network ID of a node or component that will be given a replicated ID when it is attached to a scene.
+     */
+    public static final int UNASSIGNED_NETWORK_ID = Integer.MAX_VALUE;
+
+    /**
+     * The network ID of a node or component that will be given a local (negative) ID when it is attached to a scene.
+     */
+    public static final int UNASSIGNED_LOCAL_NETWORK_ID = Integer.MIN_VALUE;
+
     private Node parent;
     private Scene scene;
 
     private Transform myTransform;
 
-    private boolean defaultComponentsAttached = false;
-
     private boolean staticReplicant = false;
 
     private boolean possessed = false;
 
+    private boolean queuedForQuery = false;
+
+    private boolean stationary = false;
+
     /**
      * Used by Scene when creating the root node.
      *
@@ -39,6 +84,7 @@ public class Node {
         this.scene = scene;
 
         networkID = ROOT_NODE_NETWORK_ID;
+        networkIDAllocated = false;
 
         addDefaultComponents();
     }
@@ -57,9 +103,13 @@ public class Node {
 
     /**
      * Creates a node without attaching the node to a parent.
+     * <p>
+     * A detached node can be fully built up (components, children) before it is attached. No scene events are fired
+     * until the subtree is attached to a node in a scene, which is also when the node and its components are given
+     * network IDs.
      */
     public Node() {
-        networkID = networkIDCounter++;
+        addDefaultComponents();
     }
 
     /**
@@ -79,12 +129,15 @@ public class Node {
      * If you don't, <b>bad things will happen.</b>
      *
      * @param networkID      the network ID to use.
-     * @param createDefaults true to create default components when attached to a parent.
+     * @param createDefaults true to create default components.
      */
     public Node(int networkID, boolean createDefaults) {
         this.networkID = networkID;
+        this.networkIDAllocated = false;
 
-        defaultComponentsAttached = !createDefaults;
+        if (createDefaults) {
+            addDefaultComponents();
+        }
     }
 
     public static Node createLocalNode() {
@@ -92,7 +145,9 @@ public class Node {
     }
 
     public static Node createLocalNode(boolean createDefaults) {
-        return new Node(localNetworkIDCounter++, createDefaults);
+        Node n = new Node(UNASSIGNED_LOCAL_NETWORK_ID, createDefaults);
+        n.networkIDAllocated = true;
+        return n;
     }
 
     private void addDefaultComponents() {
@@ -103,7 +158,6 @@ public class Node {
         }
 
         addComponent(myTransform);
-        defaultComponentsAttached = true;
     }
 
     /**
@@ -115,6 +169,16 @@ public class Node {
         return Collections.unmodifiableSet(children);
     }
 
+    /**
+     * Get the children as an array, without copying. The array is replaced rather than changed when children are
+     * added or removed, so it is safe to iterate while that happens. DO NOT MODIFY!
+     *
+     * @return the children
+     */
+    public Node[] getChildArray() {
+        return getChildSnapshot();
+    }
+
     /**
      * Get an unmodifiable list of the components.
      *
@@ -125,19 +189,55 @@ public class Node {
     }
 
     /**
-     * Finds the first component with the type given.
+     * Finds the first component with the type given. The result is memoized per type until this node's components
+     * change, so repeated lookups are constant time.
      *
      * @param type class instance of component you want
      * @param <T>
      * @return a component of type T, or null.
      */
     public <T> T findComponent(Class<T> type) {
-        for (Component c : components) {
-            if (type.isInstance(c)) {
-                return (T) c;
+        int id = typeID(type);
+        Object[] cache = componentsByType;
+        if (cache == null || id >= cache.length) {
+            cache = growComponentsByType(id);
+        }
+
+        Object found = cache[id];
+        if (found == null) {
+            found = NO_COMPONENT;
+            for (Component c : components) {
+                if (type.isInstance(c)) {
+                    found = c;
+                    break;
+                }
             }
+            cache[id] = found;
+        }
+        return found == NO_COMPONENT ? null : (T) found;
+    }
+
+    private static int typeID(Class<?> type) {
+        return typeIDs.get(type);
+    }
+
+    private synchronized Object[] growComponentsByType(int id) {
+        Object[] cache = componentsByType;
+        if (cache == null || id >= cache.length) {
+            Object[] grown = new Object[Math.max(id + 1, typeIDCounter.get())];
+            if (cache != null) {
+                System.arraycopy(cache, 0, grown, 0, cache.length);
+            }
+            componentsByType = grown;
+            cache = grown;
+        }
+        return cache;
+    }
+
+    private synchronized void invalidateComponentsByType() {
+        if (componentsByType != null) {
+            Arrays.fill(componentsByType, null);
         }
-        return null;
     }
 
     public Component findComponent(Predicate<Component> predicate) {
@@ -163,49 +263,106 @@ public class Node {
         return children.stream().mapToInt(Node::getNumChildren).sum() + children.size();
     }
 
+    /**
+     * Attaches a node as a child of this one. If the node already has a parent, it is moved. If this node is in a
+     * scene, attach events are fired for the whole subtree being attached.
+     * <p>
+     * Don't call this while a system is processing the scene; use {@link Scene#getCommandBuffer()} instead.
+     *
+     * @param n the node to attach
+     */
     public void addChild(Node n) {
         Objects.requireNonNull(n);
+        Scene s = getScene();
         if (n.getParent() != null) {
             n.getParent().children.remove(n);
+            n.getParent().childSnapshotStale = true;
             n.setParent(this);
             children.add(n);
-            getScene().nodeReattached(n);
+            childSnapshotStale = true;
+            if (s != null) {
+                s.nodeReattached(n);
+            }
         } else {
             n.setParent(this);
             children.add(n);
-            getScene().nodeAttached(n);
-
-            n.getComponents().forEach(c -> getScene().componentAttached(c));
+            childSnapshotStale = true;
+            if (s != null) {
+                n.fireAttached(s);
+            }
         }
     }
 
     public void addComponent(Component c) {
         Objects.requireNonNull(c);
+        Scene s = getScene();
         if (c.getParent() != null) {
             c.getParent().components.remove(c);
+            c.getParent().invalidateComponentsByType();
             c.setParent(this);
             components.add(c);
-            getScene().componentReattached(c);
+            invalidateComponentsByType();
+            if (s != null) {
+                s.componentReattached(c);
+            }
         } else {
             c.setParent(this);
             components.add(c);
-            getScene().componentAttached(c);
+            invalidateComponentsByType();
+            if (s != null) {
+                s.componentAttached(c);
+            }
         }
     }
 
+    /**
+     * Detaches a child node. If this node is in a scene, detach events are fired for the whole subtree.
+     * <p>
+     * Don't call this while a system is processing the scene; use {@link Scene#getCommandBuffer()} instead.
+     *
+     * @param n the node to detach
+     */
     public void removeChild(Node n) {
         Objects.requireNonNull(n);
         if (children.remove(n)) {
+            childSnapshotStale = true;
+            Scene s = getScene();
             n.setParent(null);
-            getScene().nodeDetached(n);
+            if (s != null) {
+                n.fireDetached(s);
+            }
         }
     }
 
     public void removeComponent(Component c) {
         Objects.requireNonNull(c);
         if (components.remove(c)) {
+            invalidateComponentsByType();
             c.setParent(null);
-            getScene().componentDetached(c);
+            Scene s = getScene();
+            if (s != null) {
+                s.componentDetached(c, this);
+            }
+        }
+    }
+
+    private void fireAttached(Scene s) {
+        s.nodeAttached(this);
+        for (Component c : components.toArray(new Component[components.size()])) {
+            s.componentAttached(c);
+        }
+        for (Node n : getChildSnapshot()) {
+            n.fireAttached(s);
+        }
+    }
+
+    private void fireDetached(Scene s) {
+        s.nodeDetached(this);
+        for (Component c : components.toArray(new Component[components.size()])) {
+            s.componentDetached(c, this);
+        }
+        for (Node n : getChildSnapshot()) {
+            n.fireDetached(s);
         }
     }
 
@@ -226,21 +383,44 @@ public class Node {
         return current;
     }
 
+    /**
+     * Get the network ID of this node. Unless it was set explicitly, this is {@link #UNASSIGNED_NETWORK_ID} or
+     * {@link #UNASSIGNED_LOCAL_NETWORK_ID} until the node is attached to a scene. After the node is detached, it keeps
+     * its old ID until it is attached again, but the scene may already have given that ID to another node by then.
+     *
+     * @return the network ID
+     */
     public int getNetworkID() {
         return networkID;
     }
 
+    boolean isNetworkIDAllocated() {
+        return networkIDAllocated;
+    }
+
+    void assignNetworkID(int networkID) {
+        this.networkID = networkID;
+    }
+
     public Node getParent() {
         return parent;
     }
 
     public void setParent(Node parent) {
         this.parent = parent;
-        if (parent != null) {
-            scene = null;
-            if (!defaultComponentsAttached) {
-                addDefaultComponents();
-            }
+        forgetScene();
+        if (myTransform != null) {
+            myTransform.markWorldTransformDirty();
+        }
+    }
+
+    /**
+     * Invalidates the memoized scene of this subtree.
+     */
+    private void forgetScene() {
+        scene = null;
+        for (Node n : children) {
+            n.forgetScene();
         }
     }
 
@@ -268,7 +448,7 @@ public class Node {
      * but the result will be memoized, so future calls will be faster. The memo will be
      * invalidated if the containment of this node changes.
      *
-     * @return the Scene this node belongs to
+     * @return the Scene this node belongs to, or null if the node isn't attached to a scene
      */
     public Scene getScene() {
         if (scene != null) {
@@ -293,26 +473,25 @@ public class Node {
 
         system.processNode(this, deltaTime);
 
-        Set<Node> childrenCopy = new TreeSet<>(Comparator.comparingInt(Node::getNetworkID));
-        childrenCopy.addAll(children);
-
-        Iterator<Node> itr = childrenCopy.iterator();
-        while (itr.hasNext()) {
-            Node n = itr.next();
-            if (!children.contains(n)) {
-                itr.remove();
+        // Children added during the traversal aren't in this snapshot, and children removed during it are skipped.
+        for (Node n : getChildSnapshot()) {
+            if (n.parent != this) {
                 continue;
             }
             n.process(system, deltaTime);
-            if (!children.contains(n)) {
-                itr.remove();
-                continue;
-            }
         }
 
         system.exitNode(this, deltaTime);
     }
 
+    private Node[] getChildSnapshot() {
+        if (childSnapshotStale) {
+            childSnapshot = children.isEmpty() ? NO_CHILDREN : children.toArray(new Node[children.size()]);
+            childSnapshotStale = false;
+        }
+        return childSnapshot;
+    }
+
     public Transform getTransform() {
         return myTransform;
     }
@@ -334,20 +513,32 @@ public class Node {
         this.possessed = possessed;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        Node node = (Node) o;
+    /**
+     * Whether this node is waiting in {@link rpg.scene.systems.Node2DQuerySystem}'s list of nodes to reindex. The
+     * query system sets and clears this under its own lock, so that a node is only queued once however often it moves.
+     *
+     * @return true if the node is queued
+     */
+    public boolean isQueuedForQuery() {
+        return queuedForQuery;
+    }
 
-        return networkID == node.networkID;
+    public void setQueuedForQuery(boolean queuedForQuery) {
+        this.queuedForQuery = queuedForQuery;
+    }
 
+    /**
+     * Whether this node is known never to move, like a tilemap chunk. {@link rpg.scene.systems.Node2DQuerySystem}
+     * keeps stationary nodes in its static index from the start, instead of waiting for them to stay still.
+     *
+     * @return true if the node never moves
+     */
+    public boolean isStationary() {
+        return stationary;
     }
 
-    @Override
-    public int hashCode() {
-        return networkID;
+    public void setStationary(boolean stationary) {
+        this.stationary = stationary;
     }
 
     /**
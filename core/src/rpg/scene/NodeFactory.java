@@ -73,6 +73,7 @@ public final class NodeFactory {
         n.getTransform().setScale(new Vector3(0.5f, 0.5f, 1));
 
         n.addComponent(spriteRenderer);
+        n.setStationary(true);
 
         return n;
     }
@@ -1,18 +1,72 @@
 package rpg.scene;
 
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntMap;
 import rpg.scene.components.Component;
+import rpg.scene.components.Transform;
+import rpg.scene.systems.EventInterest;
 import rpg.scene.systems.SceneSystem;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 
 public class Scene {
     private Node root;
 
-    private Set<Node> nodes = new HashSet<>(1024);
-    private Set<Component> components = new HashSet<>(1024);
+    // Network ID indexes, kept in sync by the attach/detach callbacks. IntMap is open-addressed on primitive
+    // keys, so lookups by ID are constant time and never box.
+    private IntMap<Node> nodes = new IntMap<>(1024);
+    private IntMap<Component> components = new IntMap<>(1024);
+
+    // Network IDs for nodes and components attached to this scene, replicated and local. Local IDs are stored as
+    // -2 - id, so they are negative and never collide with the root's.
+    private final NetworkIDAllocator nodeIDs = new NetworkIDAllocator();
+    private final NetworkIDAllocator localNodeIDs = new NetworkIDAllocator();
+    private final NetworkIDAllocator componentIDs = new NetworkIDAllocator();
+    private final NetworkIDAllocator localComponentIDs = new NetworkIDAllocator();
 
     private List<SceneSystem> systems = new ArrayList<>();
 
+    // Copy-on-write array of the systems for update(), rebuilt only when a system is added or removed.
+    private SceneSystem[] systemSnapshot = new SceneSystem[0];
+    private boolean systemSnapshotStale = true;
+
+    // Event routing, rebuilt with the snapshot: for each event kind, the snapshot positions of the systems interested
+    // in it. Component events are routed per component class, since interest can be in particular types.
+    private EventInterest[] interests = new EventInterest[0];
+    private final int[][] kindRoutes = new int[SceneEvent.Kind.values().length][];
+    private final Map<Class<?>, int[][]> componentRoutes = new HashMap<>();
+
+    // Per snapshot position, the events of the current round of a sync point that the system gets.
+    private IntArray[] batchIndices = new IntArray[0];
+    private final SceneEventBatch batch = new SceneEventBatch();
+
+    // findSystem results by type, with NO_SYSTEM for types that aren't present. Cleared whenever the systems change.
+    private Map<Class<?>, Object> systemCache = new ConcurrentHashMap<>();
+    private Map<Class<?>, SystemHandle<?>> systemHandles = new ConcurrentHashMap<>();
+    private volatile int systemsVersion = 0;
+
+    private static final Object NO_SYSTEM = new Object();
+
+    private final SystemScheduler scheduler = new SystemScheduler();
+    private boolean parallelSystems = true;
+    // The waves the systems run in, planned whenever they change.
+    private SystemScheduler.Wave[] schedule = SystemScheduler.schedule(new SceneSystem[0]);
+    private final Predicate<SceneSystem> isLiveSystem = s -> systems.contains(s);
+    private float systemDeltaTime;
+    private final SystemScheduler.SystemBody processBody = s -> processSystem(s, systemDeltaTime);
+
+    private TransformStore transformStore;
+
+    private final SceneCommandBuffer commandBuffer = new SceneCommandBuffer(this);
+    private boolean processing = false;
+
+    // While the command buffer is played back, events are queued here and delivered in bulk afterwards.
+    private boolean batchingEvents = false;
+    private List<SceneEvent> pendingEvents = new ArrayList<>();
+
     public Scene() {
         root = new Node(this);
     }
@@ -29,100 +83,422 @@ public class Scene {
         Objects.requireNonNull(s);
 
         systems.add(s);
+        systemsChanged();
         s.setParent(this);
     }
 
     public void removeSystem(SceneSystem s) {
         Objects.requireNonNull(s);
 
-        systems.remove(s);
+        if (systems.remove(s)) {
+            systemsChanged();
+        }
     }
 
     public <T extends SceneSystem> void removeSystem(Class<T> type) {
         Objects.requireNonNull(type);
-        systems.removeIf(type::isInstance);
+        if (systems.removeIf(type::isInstance)) {
+            systemsChanged();
+        }
+    }
+
+    private void systemsChanged() {
+        systemSnapshotStale = true;
+        systemCache.clear();
+        schedule = SystemScheduler.schedule(systems.toArray(new SceneSystem[systems.size()]));
+        systemsVersion++;
     }
 
+    /**
+     * Finds the first system of the given type. Results are cached until a system is added or removed.
+     *
+     * @param type the type of system to find
+     * @param <T>
+     * @return the system, or null if the scene has none of that type
+     */
     public <T extends SceneSystem> T findSystem(Class<T> type) {
         Objects.requireNonNull(type);
-        Optional<SceneSystem> o = systems.stream().filter(type::isInstance).findFirst();
-        if (o.isPresent()) {
-            return (T) o.get();
+        Object found = systemCache.get(type);
+        if (found == null) {
+            found = NO_SYSTEM;
+            for (SceneSystem s : systems) {
+                if (type.isInstance(s)) {
+                    found = s;
+                    break;
+                }
+            }
+            systemCache.put(type, found);
         }
-        return null;
+        return found == NO_SYSTEM ? null : type.cast(found);
+    }
+
+    /**
+     * Gets a handle to the first system of the given type, which can be kept and resolved cheaply every frame. Handles
+     * are shared, so asking twice for the same type returns the same handle.
+     *
+     * @param type the type of system to find
+     * @param <T>
+     * @return a handle for that type of system in this scene
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends SceneSystem> SystemHandle<T> getSystemHandle(Class<T> type) {
+        Objects.requireNonNull(type);
+        return (SystemHandle<T>) systemHandles.computeIfAbsent(type, t -> new SystemHandle<>(this, type));
+    }
+
+    /**
+     * A counter that changes every time a system is added or removed.
+     *
+     * @return the current version of the system list
+     */
+    public int getSystemsVersion() {
+        return systemsVersion;
     }
 
     public void update(float deltaTime) {
-        List<SceneSystem> systemsCopy = new ArrayList<>(systems);
-        Iterator<SceneSystem> itr = systemsCopy.iterator();
-        while (itr.hasNext()) {
-            SceneSystem s = itr.next();
-            if (!systems.contains(s)) {
-                itr.remove();
+        if (transformStore != null) {
+            transformStore.updateWorldTransforms();
+        }
+
+        if (!parallelSystems) {
+            for (SceneSystem s : getSystemSnapshot()) {
+                runSerially(s, deltaTime);
+            }
+            return;
+        }
+
+        systemDeltaTime = deltaTime;
+        for (SystemScheduler.Wave wave : schedule) {
+            if (wave.size() == 1) {
+                runSerially(wave.get(0), deltaTime);
                 continue;
             }
 
-            s.beginProcessing();
+            processing = true;
+            try {
+                scheduler.runConcurrently(wave, isLiveSystem, commandBuffer, processBody);
+            } finally {
+                processing = false;
+            }
+
+            flushCommands();
+        }
+    }
+
+    private void runSerially(SceneSystem s, float deltaTime) {
+        // Skip systems removed earlier in this update.
+        if (!systems.contains(s)) {
+            return;
+        }
+
+        processing = true;
+        try {
+            processSystem(s, deltaTime);
+        } finally {
+            processing = false;
+        }
+
+        flushCommands();
+    }
+
+    private void processSystem(SceneSystem s, float deltaTime) {
+        s.beginProcessing(deltaTime);
+
+        if (s.doesProcessNodes()) {
+            root.process(s, deltaTime);
+        }
+
+        s.endProcessing();
+    }
+
+    /**
+     * Whether systems that don't conflict are processed concurrently. See
+     * {@link rpg.scene.systems.SceneSystem#getAccess()}.
+     *
+     * @return true if systems may run in parallel
+     */
+    public boolean isParallelSystems() {
+        return parallelSystems;
+    }
+
+    /**
+     * Turn concurrent processing of systems on or off. With it off, every system runs on the calling thread in the
+     * order it was added, which is handy for debugging.
+     *
+     * @param parallelSystems true to let non-conflicting systems run in parallel
+     */
+    public void setParallelSystems(boolean parallelSystems) {
+        this.parallelSystems = parallelSystems;
+    }
+
+    /**
+     * Set the pool that systems are run on when processed concurrently. Defaults to the common pool.
+     *
+     * @param pool the pool to use
+     */
+    public void setSystemPool(ForkJoinPool pool) {
+        scheduler.setPool(Objects.requireNonNull(pool));
+    }
+
+    public ForkJoinPool getSystemPool() {
+        return scheduler.getPool();
+    }
+
+    /**
+     * Turn the {@link TransformStore} on or off. With it on, the transforms of every node in the scene keep their state
+     * in the store's arrays, and the world transforms that went out of date during the last frame are all brought up to
+     * date in one pass at the start of {@link #update(float)}.
+     *
+     * @param enabled true to keep transforms in a store
+     */
+    public void setTransformStoreEnabled(boolean enabled) {
+        if (enabled == (transformStore != null)) {
+            return;
+        }
+        if (enabled) {
+            transformStore = new TransformStore();
+            bindTransforms(root, transformStore);
+        } else {
+            bindTransforms(root, null);
+            transformStore = null;
+        }
+    }
+
+    /**
+     * Gets the transform store, if {@link #setTransformStoreEnabled(boolean)} turned it on.
+     *
+     * @return the store, or null
+     */
+    public TransformStore getTransformStore() {
+        return transformStore;
+    }
+
+    // Parents first, so that the store can link each slot to its parent's as it goes.
+    private static void bindTransforms(Node n, TransformStore store) {
+        Transform t = n.getTransform();
+        if (t != null) {
+            if (store != null) {
+                t.bindToStore(store);
+            } else {
+                t.unbindFromStore();
+            }
+        }
+        for (Node child : n.getChildArray()) {
+            bindTransforms(child, store);
+        }
+    }
+
+    /**
+     * Gets the command buffer for structural changes made while systems are processing.
+     *
+     * @return this scene's command buffer
+     */
+    public SceneCommandBuffer getCommandBuffer() {
+        return commandBuffer;
+    }
+
+    /**
+     * Whether a system is currently processing the scene. Structural changes made through the command buffer are
+     * deferred until the next sync point while this is true.
+     *
+     * @return true during system processing
+     */
+    public boolean isProcessing() {
+        return processing;
+    }
+
+    /**
+     * Sync point: plays back the command buffer, then delivers the events it produced one system at a time.
+     */
+    private void flushCommands() {
+        if (commandBuffer.isEmpty()) {
+            return;
+        }
+
+        batchingEvents = true;
+        try {
+            commandBuffer.playback();
+
+            // Handlers may cause more events; those are appended and delivered after the ones already queued.
+            int delivered = 0;
+            while (delivered < pendingEvents.size()) {
+                int end = pendingEvents.size();
+                SceneSystem[] snapshot = getSystemSnapshot();
+                IntArray[] perSystem = batchIndices;
+                for (int i = delivered; i < end; i++) {
+                    SceneEvent e = pendingEvents.get(i);
+                    for (int pos : route(e.getKind(), e.getComponent())) {
+                        perSystem[pos].add(i);
+                    }
+                }
+                try {
+                    for (int pos = 0; pos < snapshot.length; pos++) {
+                        IntArray indices = perSystem[pos];
+                        if (indices.size == 0) {
+                            continue;
+                        }
+                        batch.reset(pendingEvents, indices);
+                        snapshot[pos].processEvents(batch);
+                    }
+                } finally {
+                    for (IntArray indices : perSystem) {
+                        indices.clear();
+                    }
+                }
+                delivered = end;
+            }
+        } finally {
+            pendingEvents.clear();
+            batchingEvents = false;
+        }
+    }
+
+    // Events are only built to be queued while batching; otherwise they go straight to the interested systems.
+    private void dispatch(SceneEvent.Kind kind, Node n, Component c) {
+        if (batchingEvents) {
+            pendingEvents.add(new SceneEvent(kind, n, c));
+        } else {
+            SceneSystem[] snapshot = getSystemSnapshot();
+            for (int pos : route(kind, c)) {
+                SceneEvent.deliver(snapshot[pos], kind, n, c);
+            }
+        }
+    }
+
+    /**
+     * Get the systems interested in an event.
+     *
+     * @return the positions in the system snapshot of the interested systems, in order
+     */
+    private int[] route(SceneEvent.Kind kind, Component c) {
+        if (!kind.isComponentEvent()) {
+            return kindRoutes[kind.ordinal()];
+        }
+        int[][] routes = componentRoutes.get(c.getClass());
+        if (routes == null) {
+            routes = new int[SceneEvent.Kind.values().length][];
+            for (SceneEvent.Kind k : SceneEvent.Kind.values()) {
+                if (k.isComponentEvent()) {
+                    routes[k.ordinal()] = interested(k, c.getClass());
+                }
+            }
+            componentRoutes.put(c.getClass(), routes);
+        }
+        return routes[kind.ordinal()];
+    }
 
-            if (s.doesProcessNodes()) {
-                root.process(s, deltaTime);
+    private int[] interested(SceneEvent.Kind kind, Class<? extends Component> componentType) {
+        IntArray positions = new IntArray();
+        for (int pos = 0; pos < interests.length; pos++) {
+            if (interests[pos].accepts(kind, componentType)) {
+                positions.add(pos);
             }
+        }
+        return positions.toArray();
+    }
 
-            s.endProcessing();
+    private SceneSystem[] getSystemSnapshot() {
+        if (systemSnapshotStale) {
+            systemSnapshot = systems.toArray(new SceneSystem[systems.size()]);
+            systemSnapshotStale = false;
 
-            if (!systems.contains(s)) {
-                itr.remove();
+            interests = new EventInterest[systemSnapshot.length];
+            batchIndices = new IntArray[systemSnapshot.length];
+            for (int pos = 0; pos < systemSnapshot.length; pos++) {
+                interests[pos] = systemSnapshot[pos].getEventInterest();
+                batchIndices[pos] = new IntArray();
+            }
+            for (SceneEvent.Kind k : SceneEvent.Kind.values()) {
+                kindRoutes[k.ordinal()] = k.isComponentEvent() ? null : interested(k, null);
             }
+            componentRoutes.clear();
         }
+        return systemSnapshot;
     }
 
     public void nodeAttached(Node n) {
-        nodes.add(n);
-        systems.forEach(s -> s.nodeAttached(n));
+        if (n.isNetworkIDAllocated()) {
+            n.assignNetworkID(allocateID(n.getNetworkID(), nodeIDs, localNodeIDs));
+        }
+        nodes.put(n.getNetworkID(), n);
+        dispatch(SceneEvent.Kind.NodeAttached, n, null);
     }
 
     public void nodeDetached(Node n) {
-        nodes.remove(n);
-        systems.forEach(s -> s.nodeDetached(n));
+        nodes.remove(n.getNetworkID());
+        // The node keeps the ID until it is attached again, so the systems can still see it in the detach event.
+        if (n.isNetworkIDAllocated()) {
+            freeID(n.getNetworkID(), nodeIDs, localNodeIDs);
+        }
+        dispatch(SceneEvent.Kind.NodeDetached, n, null);
     }
 
     public void nodeReattached(Node n) {
-        systems.forEach(s -> s.nodeReattached(n));
-
+        dispatch(SceneEvent.Kind.NodeReattached, n, null);
     }
 
     public void componentAttached(Component c) {
-        components.add(c);
-        systems.forEach(s -> s.componentAttached(c));
-
+        if (c.isNetworkIDAllocated()) {
+            c.assignNetworkID(allocateID(c.getNetworkID(), componentIDs, localComponentIDs));
+        }
+        components.put(c.getNetworkID(), c);
+        if (transformStore != null && c instanceof Transform) {
+            ((Transform) c).bindToStore(transformStore);
+        }
+        dispatch(SceneEvent.Kind.ComponentAttached, null, c);
     }
 
     public void componentReattached(Component c) {
-        systems.forEach(s -> s.componentReattached(c));
-
+        dispatch(SceneEvent.Kind.ComponentReattached, null, c);
     }
 
-    public void componentDetached(Component c) {
-        components.remove(c);
-        systems.forEach(s -> s.componentDetached(c));
+    public void componentDetached(Component c, Node from) {
+        components.remove(c.getNetworkID());
+        if (transformStore != null && c instanceof Transform) {
+            ((Transform) c).unbindFromStore();
+        }
+        if (c.isNetworkIDAllocated()) {
+            freeID(c.getNetworkID(), componentIDs, localComponentIDs);
+        }
+        dispatch(SceneEvent.Kind.ComponentDetached, from, c);
+    }
 
+    // Negative IDs (whether unassigned or left over from an earlier attach) are local.
+    private static int allocateID(int oldID, NetworkIDAllocator ids, NetworkIDAllocator localIDs) {
+        return oldID >= 0 ? ids.allocate() : -2 - localIDs.allocate();
     }
 
-    public Node findNode(int nodeID) {
-        Optional<Node> nn = nodes.stream().filter(n -> n.getNetworkID() == nodeID).findFirst();
-        if (nn.isPresent()) {
-            return nn.get();
+    private static void freeID(int id, NetworkIDAllocator ids, NetworkIDAllocator localIDs) {
+        if (id >= 0) {
+            ids.free(id);
         } else {
-            return null;
+            localIDs.free(-2 - id);
         }
     }
 
+    /**
+     * Get the allocator for the replicated network IDs of the nodes in this scene.
+     *
+     * @return the node ID allocator
+     */
+    public NetworkIDAllocator getNodeIDs() {
+        return nodeIDs;
+    }
+
+    /**
+     * Get the allocator for the replicated network IDs of the components in this scene.
+     *
+     * @return the component ID allocator
+     */
+    public NetworkIDAllocator getComponentIDs() {
+        return componentIDs;
+    }
+
+    public Node findNode(int nodeID) {
+        return nodes.get(nodeID);
+    }
+
     public Component findComponent(int componentID) {
-        Optional<Component> cc = components.stream().filter(c -> c.getNetworkID() == componentID).findFirst();
-        if (cc.isPresent()) {
-            return cc.get();
-        } else {
-            return null;
-        }
+        return components.get(componentID);
     }
 }
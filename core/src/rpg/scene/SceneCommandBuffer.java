@@ -0,0 +1,158 @@
+package rpg.scene;
+
+import rpg.scene.components.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Records structural changes to a scene (attaching and detaching nodes and components) while its systems are
+ * processing, so the graph stays stable for the rest of the traversal. The scene plays the buffer back at the sync
+ * point after each system finishes, in the order the commands were recorded, and delivers the resulting events to
+ * the systems in bulk.
+ * <p>
+ * When the scene isn't processing, commands are applied immediately.
+ * <p>
+ * Nodes that aren't attached yet can be built up freely before being handed to {@link #addChild(Node, Node)}; the
+ * attach events for the whole subtree are fired when the command is played back.
+ */
+public class SceneCommandBuffer {
+    private final Scene scene;
+
+    private List<Runnable> commands = new ArrayList<>();
+    private List<Runnable> playing = new ArrayList<>();
+
+    // Set on worker threads while systems are processed concurrently, so each one records into its own list.
+    private final ThreadLocal<List<Runnable>> recording = new ThreadLocal<>();
+
+    SceneCommandBuffer(Scene scene) {
+        this.scene = scene;
+    }
+
+    /**
+     * Attach a node to a parent, or move it there if it already has one.
+     *
+     * @param parent the new parent
+     * @param child  the node to attach
+     */
+    public void addChild(Node parent, Node child) {
+        Objects.requireNonNull(parent);
+        Objects.requireNonNull(child);
+        submit(() -> parent.addChild(child));
+    }
+
+    /**
+     * Detach a node from its parent. Nothing happens if the node has been detached by the time the command runs, so
+     * it is safe for several components to ask for the same node to be removed in one frame.
+     *
+     * @param n the node to detach
+     */
+    public void removeFromParent(Node n) {
+        Objects.requireNonNull(n);
+        submit(() -> {
+            if (n.getParent() != null) {
+                n.removeFromParent();
+            }
+        });
+    }
+
+    /**
+     * Attach a component to a node, or move it there if it is already attached elsewhere.
+     *
+     * @param n the node to attach to
+     * @param c the component to attach
+     */
+    public void addComponent(Node n, Component c) {
+        Objects.requireNonNull(n);
+        Objects.requireNonNull(c);
+        submit(() -> n.addComponent(c));
+    }
+
+    /**
+     * Detach a component from whatever node it is attached to when the command runs.
+     *
+     * @param c the component to detach
+     */
+    public void removeComponent(Component c) {
+        Objects.requireNonNull(c);
+        submit(() -> {
+            if (c.getParent() != null) {
+                c.getParent().removeComponent(c);
+            }
+        });
+    }
+
+    /**
+     * Run arbitrary code at the next sync point, in order with the structural commands around it. Use this for
+     * anything that may detach nodes itself, such as hurting or killing a unit.
+     *
+     * @param r the code to run
+     */
+    public void invoke(Runnable r) {
+        Objects.requireNonNull(r);
+        submit(r);
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    private void submit(Runnable command) {
+        if (scene.isProcessing()) {
+            List<Runnable> target = recording.get();
+            (target != null ? target : commands).add(command);
+        } else {
+            command.run();
+        }
+    }
+
+    /**
+     * Record commands submitted from the current thread into the given list instead of the shared one, until
+     * {@link #stopRecording()}. Systems that process on several threads use this to keep each thread's commands apart,
+     * then {@link #append(List)} them in a fixed order so the outcome doesn't depend on thread timing.
+     *
+     * @param into the list to record into
+     */
+    public void startRecording(List<Runnable> into) {
+        recording.set(into);
+    }
+
+    public void stopRecording() {
+        recording.remove();
+    }
+
+    /**
+     * Whether commands submitted from the current thread are being recorded into a list of their own.
+     *
+     * @return true between {@link #startRecording(List)} and {@link #stopRecording()}
+     */
+    public boolean isRecording() {
+        return recording.get() != null;
+    }
+
+    /**
+     * Append commands recorded separately, e.g. by {@link #startRecording(List)}, to the shared list. Only call this
+     * from the thread updating the scene.
+     *
+     * @param recorded the commands to append, in order
+     */
+    public void append(List<Runnable> recorded) {
+        commands.addAll(recorded);
+    }
+
+    /**
+     * Run all of the recorded commands. Called by the scene at its sync points, while it is batching events.
+     */
+    void playback() {
+        // Swap the lists so the recorded commands can be walked while anything they submit lands in the other one.
+        List<Runnable> round = commands;
+        commands = playing;
+        playing = round;
+
+        for (Runnable command : round) {
+            command.run();
+        }
+        round.clear();
+    }
+}
@@ -0,0 +1,78 @@
+package rpg.scene;
+
+import rpg.scene.components.Component;
+import rpg.scene.systems.SceneSystem;
+
+/**
+ * A structural change to a scene, as delivered to its systems.
+ */
+public final class SceneEvent {
+    public enum Kind {
+        NodeAttached, NodeReattached, NodeDetached, ComponentAttached, ComponentReattached, ComponentDetached;
+
+        public boolean isComponentEvent() {
+            return this == ComponentAttached || this == ComponentReattached || this == ComponentDetached;
+        }
+    }
+
+    private final Kind kind;
+    private final Node node;
+    private final Component component;
+
+    SceneEvent(Kind kind, Node node, Component component) {
+        this.kind = kind;
+        this.node = node;
+        this.component = component;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the node, for node events, or the node a component was detached from; null otherwise
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * @return the component, for component events; null otherwise
+     */
+    public Component getComponent() {
+        return component;
+    }
+
+    /**
+     * Call the matching handler of a system, e.g. {@link SceneSystem#nodeAttached(Node)}.
+     *
+     * @param s the system to deliver to
+     */
+    public void deliver(SceneSystem s) {
+        deliver(s, kind, node, component);
+    }
+
+    // Lets the scene deliver an event it doesn't need to queue without building one.
+    static void deliver(SceneSystem s, Kind kind, Node node, Component component) {
+        switch (kind) {
+            case NodeAttached:
+                s.nodeAttached(node);
+                break;
+            case NodeReattached:
+                s.nodeReattached(node);
+                break;
+            case NodeDetached:
+                s.nodeDetached(node);
+                break;
+            case ComponentAttached:
+                s.componentAttached(component);
+                break;
+            case ComponentReattached:
+                s.componentReattached(component);
+                break;
+            case ComponentDetached:
+                s.componentDetached(component, node);
+                break;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package rpg.scene;
+
+import com.badlogic.gdx.utils.IntArray;
+import rpg.scene.systems.SceneSystem;
+
+import java.util.List;
+
+/**
+ * The events from one sync point that a system is interested in, in the order they happened. Handed to
+ * {@link SceneSystem#processEvents(SceneEventBatch)}; it is reused by the scene, so don't hold on to it.
+ */
+public final class SceneEventBatch {
+    private List<SceneEvent> events;
+    private IntArray indices;
+
+    SceneEventBatch() {
+    }
+
+    void reset(List<SceneEvent> events, IntArray indices) {
+        this.events = events;
+        this.indices = indices;
+    }
+
+    public int size() {
+        return indices.size;
+    }
+
+    public SceneEvent get(int i) {
+        return events.get(indices.get(i));
+    }
+
+    /**
+     * Deliver the events one at a time to the system's event handlers.
+     *
+     * @param s the system
+     */
+    public void deliverEach(SceneSystem s) {
+        for (int i = 0; i < indices.size; i++) {
+            events.get(indices.get(i)).deliver(s);
+        }
+    }
+}
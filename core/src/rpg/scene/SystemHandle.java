@@ -0,0 +1,59 @@
+package rpg.scene;
+
+import rpg.scene.systems.SceneSystem;
+
+/**
+ * A typed reference to a scene system that can be held onto, e.g. as a field of a component. Resolving it is a field
+ * read; it only goes back to {@link Scene#findSystem(Class)} after systems have been added to or removed from the
+ * scene.
+ * <p>
+ * Systems may not be added or removed while the scene is processing, so concurrent callers of {@link #get()} will
+ * always resolve to the same system. The system is published together with the version it was looked up at, so a
+ * thread never sees one without the other.
+ *
+ * @param <T> the system type
+ */
+public final class SystemHandle<T extends SceneSystem> {
+    private final Scene scene;
+    private final Class<T> type;
+
+    private volatile Resolved<T> resolved = new Resolved<>(-1, null);
+
+    private static final class Resolved<T> {
+        final int version;
+        final T system;
+
+        Resolved(int version, T system) {
+            this.version = version;
+            this.system = system;
+        }
+    }
+
+    SystemHandle(Scene scene, Class<T> type) {
+        this.scene = scene;
+        this.type = type;
+    }
+
+    /**
+     * Get the system this handle refers to.
+     *
+     * @return the first system in the scene of this handle's type, or null if there is none.
+     */
+    public T get() {
+        Resolved<T> r = resolved;
+        int currentVersion = scene.getSystemsVersion();
+        if (r.version != currentVersion) {
+            r = new Resolved<>(currentVersion, scene.findSystem(type));
+            resolved = r;
+        }
+        return r.system;
+    }
+
+    public Scene getScene() {
+        return scene;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+}
@@ -0,0 +1,192 @@
+package rpg.scene;
+
+import rpg.scene.systems.SceneSystem;
+import rpg.scene.systems.SystemAccess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+/**
+ * Groups a scene's systems into waves of systems that don't conflict with each other (see {@link SystemAccess}), and
+ * runs the systems of a wave concurrently.
+ * <p>
+ * A system's wave is one past the latest wave of any earlier-registered system it conflicts with, so conflicting
+ * systems always run in registration order, and an exclusive system is a barrier that runs alone. Within a wave,
+ * systems are kept in registration order, which is also the order their deferred commands are applied in.
+ */
+final class SystemScheduler {
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Plan the waves for the given systems.
+     *
+     * @param systems the systems, in registration order
+     * @return the waves, in the order they should run
+     */
+    static List<SceneSystem[]> plan(SceneSystem[] systems) {
+        SystemAccess[] access = new SystemAccess[systems.length];
+        int[] wave = new int[systems.length];
+        int numWaves = 0;
+        for (int j = 0; j < systems.length; j++) {
+            access[j] = systems[j].getAccess();
+            for (int i = 0; i < j; i++) {
+                if (wave[i] >= wave[j] && access[i].conflictsWith(access[j])) {
+                    wave[j] = wave[i] + 1;
+                }
+            }
+            numWaves = Math.max(numWaves, wave[j] + 1);
+        }
+
+        List<SceneSystem[]> waves = new ArrayList<>(numWaves);
+        for (int w = 0; w < numWaves; w++) {
+            int size = 0;
+            for (int j = 0; j < systems.length; j++) {
+                if (wave[j] == w) size++;
+            }
+            SceneSystem[] members = new SceneSystem[size];
+            int k = 0;
+            for (int j = 0; j < systems.length; j++) {
+                if (wave[j] == w) members[k++] = systems[j];
+            }
+            waves.add(members);
+        }
+        return waves;
+    }
+
+    /**
+     * Plan the waves for the given systems, with what it takes to run each wave, so that running them doesn't
+     * allocate.
+     *
+     * @param systems the systems, in registration order
+     * @return the waves, in the order they should run
+     */
+    static Wave[] schedule(SceneSystem[] systems) {
+        List<SceneSystem[]> planned = plan(systems);
+        Wave[] waves = new Wave[planned.size()];
+        for (int w = 0; w < waves.length; w++) {
+            waves[w] = new Wave(planned.get(w));
+        }
+        return waves;
+    }
+
+    /**
+     * Run the systems of one wave concurrently and wait for all of them. The first system runs on the calling thread
+     * and the rest on the pool. Each system's deferred commands are recorded separately and appended to the command
+     * buffer in the order of the wave.
+     *
+     * @param wave          the systems to run
+     * @param isLive        whether a system is still in the scene; systems removed earlier in the update are skipped
+     * @param commandBuffer the scene's command buffer
+     * @param body          processes a single system
+     */
+    void runConcurrently(Wave wave, Predicate<SceneSystem> isLive, SceneCommandBuffer commandBuffer,
+                         SystemBody body) {
+        SystemTask first = null;
+        for (SystemTask t : wave.tasks) {
+            t.live = isLive.test(t.system);
+            if (!t.live) continue;
+            t.reinitialize();
+            t.commandBuffer = commandBuffer;
+            t.body = body;
+            if (first == null) {
+                first = t;
+            } else {
+                pool.execute(t);
+            }
+        }
+        if (first == null) {
+            return;
+        }
+
+        RuntimeException failure = null;
+        try {
+            first.invoke();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        // Wait for every system before reporting a failure, so that none is still running when update() returns.
+        for (SystemTask t : wave.tasks) {
+            if (!t.live || t == first) continue;
+            try {
+                t.join();
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+        }
+
+        for (SystemTask t : wave.tasks) {
+            if (failure == null && t.live) commandBuffer.append(t.commands);
+            t.commands.clear();
+            t.commandBuffer = null;
+            t.body = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Systems that may run at the same time, with a task for each that is reused every update.
+     */
+    static final class Wave {
+        private final SceneSystem[] systems;
+        private final SystemTask[] tasks;
+
+        Wave(SceneSystem[] systems) {
+            this.systems = systems;
+            tasks = new SystemTask[systems.length];
+            for (int i = 0; i < systems.length; i++) {
+                tasks[i] = new SystemTask(systems[i]);
+            }
+        }
+
+        int size() {
+            return systems.length;
+        }
+
+        SceneSystem get(int i) {
+            return systems[i];
+        }
+    }
+
+    // Processes one system, recording its deferred commands.
+    private static final class SystemTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final SceneSystem system;
+        final List<Runnable> commands = new ArrayList<>();
+        SceneCommandBuffer commandBuffer;
+        SystemBody body;
+        boolean live;
+
+        SystemTask(SceneSystem system) {
+            this.system = system;
+        }
+
+        @Override
+        protected void compute() {
+            commandBuffer.startRecording(commands);
+            try {
+                body.run(system);
+            } finally {
+                commandBuffer.stopRecording();
+            }
+        }
+    }
+
+    interface SystemBody {
+        void run(SceneSystem s);
+    }
+}
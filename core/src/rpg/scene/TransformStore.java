@@ -0,0 +1,321 @@
+package rpg.scene;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Quaternion;
+import com.badlogic.gdx.math.Vector3;
+import rpg.scene.components.Transform;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the transforms of a scene in flat float arrays, one slot per transform, so that bulk passes over them are
+ * tight loops over primitives instead of a walk over scattered objects. A {@link Transform} bound to a store writes its
+ * local position, scale and rotation through to its slot, and its world transform is read back out of the store.
+ * <p>
+ * The world transform of a slot is its parent's world matrix times its own rotation, scale and translation, in that
+ * order, which is the same thing {@link Transform} computes on its own. A dirty slot's ancestors are brought up to date
+ * before it is, so slots can be updated in any order.
+ * <p>
+ * All methods are synchronized, as transforms are read and moved from several threads at once during parallel
+ * stepping.
+ *
+ * @see Scene#setTransformStoreEnabled(boolean)
+ */
+public final class TransformStore {
+    public static final int NO_SLOT = -1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int capacity = INITIAL_CAPACITY;
+    // One past the highest slot handed out so far.
+    private int numSlots = 0;
+    private int numInUse = 0;
+
+    private int[] freeSlots = new int[16];
+    private int numFree = 0;
+
+    private boolean[] inUse = new boolean[capacity];
+    private boolean[] dirty = new boolean[capacity];
+    private int[] parent = new int[capacity];
+
+    // Local state: position and scale are x, y, z; rotation is x, y, z, w.
+    private float[] position = new float[capacity * 3];
+    private float[] scale = new float[capacity * 3];
+    private float[] rotation = new float[capacity * 4];
+
+    // World state. The matrix is column major, like Matrix4.val, and always affine.
+    private float[] worldMatrix = new float[capacity * 16];
+    private float[] worldScale = new float[capacity * 3];
+    private float[] worldRotation = new float[capacity * 4];
+
+    // Ancestors waiting to be updated before a slot, reused between updates.
+    private int[] chain = new int[16];
+
+    /**
+     * Allocate a slot holding the identity transform, with no parent. The slot starts out dirty.
+     *
+     * @return the slot
+     */
+    public synchronized int allocate() {
+        int slot;
+        if (numFree > 0) {
+            slot = freeSlots[--numFree];
+        } else {
+            if (numSlots == capacity) {
+                grow();
+            }
+            slot = numSlots++;
+        }
+        inUse[slot] = true;
+        dirty[slot] = true;
+        parent[slot] = NO_SLOT;
+        set3(position, slot, 0, 0, 0);
+        set3(scale, slot, 1, 1, 1);
+        set4(rotation, slot, 0, 0, 0, 1);
+        numInUse++;
+        return slot;
+    }
+
+    /**
+     * Free a slot, so that it can be reused by a later {@link #allocate()}.
+     *
+     * @param slot a slot in use
+     * @throws IllegalArgumentException if the slot isn't in use
+     */
+    public synchronized void free(int slot) {
+        checkSlot(slot);
+        inUse[slot] = false;
+        if (numFree == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, numFree * 2);
+        }
+        freeSlots[numFree++] = slot;
+        numInUse--;
+    }
+
+    public synchronized boolean isInUse(int slot) {
+        return slot >= 0 && slot < numSlots && inUse[slot];
+    }
+
+    public synchronized int getNumInUse() {
+        return numInUse;
+    }
+
+    /**
+     * Get one past the highest slot handed out so far, which is how far a pass over the store has to look.
+     *
+     * @return the number of slots in use or free
+     */
+    public synchronized int getNumSlots() {
+        return numSlots;
+    }
+
+    public synchronized void setParent(int slot, int parentSlot) {
+        checkSlot(slot);
+        parent[slot] = parentSlot;
+        dirty[slot] = true;
+    }
+
+    public synchronized int getParent(int slot) {
+        checkSlot(slot);
+        return parent[slot];
+    }
+
+    public synchronized void setPosition(int slot, Vector3 v) {
+        checkSlot(slot);
+        set3(position, slot, v.x, v.y, v.z);
+        dirty[slot] = true;
+    }
+
+    public synchronized void setScale(int slot, Vector3 v) {
+        checkSlot(slot);
+        set3(scale, slot, v.x, v.y, v.z);
+        dirty[slot] = true;
+    }
+
+    public synchronized void setRotation(int slot, Quaternion q) {
+        checkSlot(slot);
+        set4(rotation, slot, q.x, q.y, q.z, q.w);
+        dirty[slot] = true;
+    }
+
+    public synchronized void setLocal(int slot, Vector3 position, Vector3 scale, Quaternion rotation) {
+        checkSlot(slot);
+        set3(this.position, slot, position.x, position.y, position.z);
+        set3(this.scale, slot, scale.x, scale.y, scale.z);
+        set4(this.rotation, slot, rotation.x, rotation.y, rotation.z, rotation.w);
+        dirty[slot] = true;
+    }
+
+    /**
+     * Whether a slot's world transform is out of date. Marking a slot dirty doesn't mark its descendants; that is up to
+     * the caller (see {@link Transform}).
+     */
+    public synchronized boolean isDirty(int slot) {
+        checkSlot(slot);
+        return dirty[slot];
+    }
+
+    public synchronized void markDirty(int slot) {
+        checkSlot(slot);
+        dirty[slot] = true;
+    }
+
+    public synchronized Vector3 getWorldPosition(int slot, Vector3 out) {
+        update(slot);
+        int m = slot * 16;
+        return out.set(worldMatrix[m + 12], worldMatrix[m + 13], worldMatrix[m + 14]);
+    }
+
+    public synchronized Vector3 getWorldScale(int slot, Vector3 out) {
+        update(slot);
+        int i = slot * 3;
+        return out.set(worldScale[i], worldScale[i + 1], worldScale[i + 2]);
+    }
+
+    public synchronized Quaternion getWorldRotation(int slot, Quaternion out) {
+        update(slot);
+        int i = slot * 4;
+        return out.set(worldRotation[i], worldRotation[i + 1], worldRotation[i + 2], worldRotation[i + 3]);
+    }
+
+    public synchronized Matrix4 getWorldMatrix(int slot, Matrix4 out) {
+        update(slot);
+        System.arraycopy(worldMatrix, slot * 16, out.val, 0, 16);
+        return out;
+    }
+
+    /**
+     * Bring every dirty slot's world transform up to date in one pass.
+     *
+     * @return the number of slots that were updated
+     */
+    public synchronized int updateWorldTransforms() {
+        int updated = 0;
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (inUse[slot] && dirty[slot]) {
+                updated += updateChain(slot);
+            }
+        }
+        return updated;
+    }
+
+    private void update(int slot) {
+        checkSlot(slot);
+        if (dirty[slot]) {
+            updateChain(slot);
+        }
+    }
+
+    // Update a dirty slot, after its dirty ancestors.
+    private int updateChain(int slot) {
+        int length = 0;
+        for (int s = slot; s != NO_SLOT && dirty[s]; s = parent[s]) {
+            if (length == chain.length) {
+                chain = Arrays.copyOf(chain, length * 2);
+            }
+            chain[length++] = s;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            computeWorld(chain[i]);
+        }
+        return length;
+    }
+
+    private void computeWorld(int slot) {
+        int p = parent[slot];
+        int i3 = slot * 3;
+        int i4 = slot * 4;
+        int m = slot * 16;
+
+        float qx = rotation[i4], qy = rotation[i4 + 1], qz = rotation[i4 + 2], qw = rotation[i4 + 3];
+        float sx = scale[i3], sy = scale[i3 + 1], sz = scale[i3 + 2];
+        float px = position[i3], py = position[i3 + 1], pz = position[i3 + 2];
+
+        // Local matrix: rotate, then scale, then translate, as in Matrix4.rotate(q).scale(s).translate(p). The
+        // rotation part is Quaternion.toMatrix, which doesn't normalize either.
+        float xx = qx * qx, xy = qx * qy, xz = qx * qz, xw = qx * qw;
+        float yy = qy * qy, yz = qy * qz, yw = qy * qw;
+        float zz = qz * qz, zw = qz * qw;
+        float l00 = (1 - 2 * (yy + zz)) * sx, l01 = 2 * (xy - zw) * sy, l02 = 2 * (xz + yw) * sz;
+        float l10 = 2 * (xy + zw) * sx, l11 = (1 - 2 * (xx + zz)) * sy, l12 = 2 * (yz - xw) * sz;
+        float l20 = 2 * (xz - yw) * sx, l21 = 2 * (yz + xw) * sy, l22 = (1 - 2 * (xx + yy)) * sz;
+        float l03 = l00 * px + l01 * py + l02 * pz;
+        float l13 = l10 * px + l11 * py + l12 * pz;
+        float l23 = l20 * px + l21 * py + l22 * pz;
+
+        float[] w = worldMatrix;
+        if (p == NO_SLOT) {
+            w[m] = l00; w[m + 4] = l01; w[m + 8] = l02; w[m + 12] = l03;
+            w[m + 1] = l10; w[m + 5] = l11; w[m + 9] = l12; w[m + 13] = l13;
+            w[m + 2] = l20; w[m + 6] = l21; w[m + 10] = l22; w[m + 14] = l23;
+            set3(worldScale, slot, sx, sy, sz);
+            set4(worldRotation, slot, qx, qy, qz, qw);
+        } else {
+            int pm = p * 16;
+            float p00 = w[pm], p01 = w[pm + 4], p02 = w[pm + 8], p03 = w[pm + 12];
+            float p10 = w[pm + 1], p11 = w[pm + 5], p12 = w[pm + 9], p13 = w[pm + 13];
+            float p20 = w[pm + 2], p21 = w[pm + 6], p22 = w[pm + 10], p23 = w[pm + 14];
+            w[m] = p00 * l00 + p01 * l10 + p02 * l20;
+            w[m + 4] = p00 * l01 + p01 * l11 + p02 * l21;
+            w[m + 8] = p00 * l02 + p01 * l12 + p02 * l22;
+            w[m + 12] = p00 * l03 + p01 * l13 + p02 * l23 + p03;
+            w[m + 1] = p10 * l00 + p11 * l10 + p12 * l20;
+            w[m + 5] = p10 * l01 + p11 * l11 + p12 * l21;
+            w[m + 9] = p10 * l02 + p11 * l12 + p12 * l22;
+            w[m + 13] = p10 * l03 + p11 * l13 + p12 * l23 + p13;
+            w[m + 2] = p20 * l00 + p21 * l10 + p22 * l20;
+            w[m + 6] = p20 * l01 + p21 * l11 + p22 * l21;
+            w[m + 10] = p20 * l02 + p21 * l12 + p22 * l22;
+            w[m + 14] = p20 * l03 + p21 * l13 + p22 * l23 + p23;
+
+            int p3 = p * 3;
+            set3(worldScale, slot, worldScale[p3] * sx, worldScale[p3 + 1] * sy, worldScale[p3 + 2] * sz);
+
+            // Parent's world rotation times ours, as in Quaternion.mul.
+            int p4 = p * 4;
+            float rx = worldRotation[p4], ry = worldRotation[p4 + 1], rz = worldRotation[p4 + 2],
+                    rw = worldRotation[p4 + 3];
+            set4(worldRotation, slot,
+                    rw * qx + rx * qw + ry * qz - rz * qy,
+                    rw * qy + ry * qw + rz * qx - rx * qz,
+                    rw * qz + rz * qw + rx * qy - ry * qx,
+                    rw * qw - rx * qx - ry * qy - rz * qz);
+        }
+        w[m + 3] = 0; w[m + 7] = 0; w[m + 11] = 0; w[m + 15] = 1;
+        dirty[slot] = false;
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= numSlots || !inUse[slot]) {
+            throw new IllegalArgumentException("Transform slot " + slot + " is not in use.");
+        }
+    }
+
+    private void grow() {
+        capacity *= 2;
+        inUse = Arrays.copyOf(inUse, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        position = Arrays.copyOf(position, capacity * 3);
+        scale = Arrays.copyOf(scale, capacity * 3);
+        rotation = Arrays.copyOf(rotation, capacity * 4);
+        worldMatrix = Arrays.copyOf(worldMatrix, capacity * 16);
+        worldScale = Arrays.copyOf(worldScale, capacity * 3);
+        worldRotation = Arrays.copyOf(worldRotation, capacity * 4);
+    }
+
+    private static void set3(float[] a, int slot, float x, float y, float z) {
+        int i = slot * 3;
+        a[i] = x;
+        a[i + 1] = y;
+        a[i + 2] = z;
+    }
+
+    private static void set4(float[] a, int slot, float x, float y, float z, float w) {
+        int i = slot * 4;
+        a[i] = x;
+        a[i + 1] = y;
+        a[i + 2] = z;
+        a[i + 3] = w;
+    }
+}
@@ -20,7 +20,7 @@ public class ArcToGroundComponent extends Component implements Steppable {
     public static float ACCELERATION = 15;
 
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         Transform t = getParent().getTransform();
 
         if (t.getPosition().z > 0.001f) {
@@ -34,7 +34,7 @@ public class ArcToGroundComponent extends Component implements Steppable {
             t.translate(0, 0, 0.3f);
 
             if (nss.getContext() == Context.Server) {
-                getParent().removeComponent(this);
+                getCommandBuffer().removeComponent(this);
             }
         }
 
@@ -1,30 +1,37 @@
 package rpg.scene.components;
 
 import rpg.scene.Node;
+import rpg.scene.Scene;
+import rpg.scene.SceneCommandBuffer;
+import rpg.scene.SystemHandle;
 import rpg.scene.replication.Context;
 import rpg.scene.replication.RPC;
 import rpg.scene.replication.RPCMessage;
 import rpg.scene.replication.RepTable;
 import rpg.scene.systems.NetworkingSceneSystem;
+import rpg.scene.systems.Node2DQuerySystem;
 
 import java.util.Objects;
 
 public abstract class Component {
     private Node parent;
-    private int networkID = 0;
+    private int networkID = Node.UNASSIGNED_NETWORK_ID;
 
-    private static int networkIDCounter = 0;
-    private static int localNetworkIDCounter = Integer.MIN_VALUE;
+    // Whether the scene hands out this component's network ID, as opposed to it being set explicitly.
+    private boolean networkIDAllocated = true;
 
-    public Component() {
-        networkID = networkIDCounter++;
-    }
+    // Set when a replicated field may have changed since the server last captured the fields. New components start
+    // out dirty, so they are captured once.
+    private volatile boolean replicationDirty = true;
+
+    // Handles for the systems nearly every component looks up each step.
+    private SystemHandle<NetworkingSceneSystem> networkingSystemHandle;
+    private SystemHandle<Node2DQuerySystem> querySystemHandle;
 
     public static <T extends Component> T createLocalComponent(Class<T> type) {
         try {
             T ret = type.newInstance();
-            ret.setNetworkID(localNetworkIDCounter++);
-            networkIDCounter--;
+            ((Component) ret).networkID = Node.UNASSIGNED_LOCAL_NETWORK_ID;
             return ret;
         } catch (Exception e) {
             throw new RuntimeException("Exception when instantiating via createLocalComponent: " + e.getMessage(), e);
@@ -43,7 +50,7 @@ public abstract class Component {
     public void sendRPC(String rpcName, Object... arguments) {
         Objects.requireNonNull(rpcName);
         Objects.requireNonNull(arguments);
-        NetworkingSceneSystem net = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem net = getNetworkingSystem();
         RepTable repTable = RepTable.getTableForType(getClass());
         RPC.Target target = repTable.getRPCTarget(rpcName);
         Class<?> actualClassOfThis = getClass();
@@ -59,9 +66,11 @@ public abstract class Component {
         if (context == Context.Server) {
             if (target == RPC.Target.Multicast) {
                 repTable.invokeMethod(actualClassOfThis.cast(this), rpcName, arguments);
-                net.addMulticastRPCMessage(new RPCMessage(networkID, repTable.getRPCInvocation(rpcName, arguments)));
+                RPCMessage m = new RPCMessage(networkID, repTable.getRPCInvocation(rpcName, arguments));
+                queueRPC(() -> net.addMulticastRPCMessage(m));
             } else if (target == RPC.Target.Client) {
-                net.addRPCMessage(new RPCMessage(networkID, repTable.getRPCInvocation(rpcName, arguments)));
+                RPCMessage m = new RPCMessage(networkID, repTable.getRPCInvocation(rpcName, arguments));
+                queueRPC(() -> net.addRPCMessage(m));
             } else {
                 repTable.invokeMethod(actualClassOfThis.cast(this), rpcName, arguments);
             }
@@ -69,11 +78,23 @@ public abstract class Component {
             if (target == RPC.Target.Client) {
                 repTable.invokeMethod(actualClassOfThis.cast(this), rpcName, arguments);
             } else if (target == RPC.Target.Server) {
-                net.addRPCMessage(new RPCMessage(networkID, repTable.getRPCInvocation(rpcName, arguments)));
+                RPCMessage m = new RPCMessage(networkID, repTable.getRPCInvocation(rpcName, arguments));
+                queueRPC(() -> net.addRPCMessage(m));
             }
         }
     }
 
+    // Nodes stepped in parallel record their commands separately, and RPCs sent from them go along, so that the
+    // networking system is only handed messages on the thread updating the scene, in the order the cells are merged.
+    private void queueRPC(Runnable add) {
+        SceneCommandBuffer commandBuffer = getCommandBuffer();
+        if (commandBuffer.isRecording()) {
+            commandBuffer.invoke(add);
+        } else {
+            add.run();
+        }
+    }
+
     public Node getParent() {
         return parent;
     }
@@ -86,8 +107,33 @@ public abstract class Component {
         return networkID;
     }
 
+    /**
+     * Set the network ID explicitly, e.g. to match the server's on the client. The scene won't assign or recycle the
+     * ID of a component after this.
+     *
+     * @param networkID the network ID to use
+     */
     public void setNetworkID(int networkID) {
         this.networkID = networkID;
+        this.networkIDAllocated = false;
+    }
+
+    /**
+     * Whether the scene assigns this component's network ID when it is attached, and frees it again when detached.
+     *
+     * @return false if the ID was set explicitly
+     */
+    public boolean isNetworkIDAllocated() {
+        return networkIDAllocated;
+    }
+
+    /**
+     * Set the network ID the scene allocated for this component. Only for use by {@link Scene}.
+     *
+     * @param networkID the allocated ID
+     */
+    public void assignNetworkID(int networkID) {
+        this.networkID = networkID;
     }
 
     /**
@@ -116,19 +162,71 @@ public abstract class Component {
         return false;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+    /**
+     * Whether every change to this component's {@link rpg.scene.replication.Replicated} fields is followed by a call to
+     * {@link #markReplicationDirty()}, for instance because the fields are only written through setters that call it.
+     * If so, the server only captures the fields in ticks where the component was marked, so a component that
+     * doesn't change costs nothing to replicate. Otherwise they are captured and compared every tick.
+     *
+     * @return whether this component marks itself when its replicated fields change
+     */
+    public boolean tracksReplicationChanges() {
+        return false;
+    }
+
+    /**
+     * Note that a replicated field may have changed, so that the server captures the fields in the next tick. Only
+     * needed for components that {@link #tracksReplicationChanges() track their changes}. Code that changes a
+     * replicated object in place, like a vector handed out by a getter, has to call this itself.
+     */
+    public void markReplicationDirty() {
+        replicationDirty = true;
+    }
 
-        Component component = (Component) o;
+    public boolean isReplicationDirty() {
+        return replicationDirty;
+    }
 
-        return networkID == component.networkID;
+    /**
+     * Clear the dirty mark. Called by the server just before it captures the fields.
+     */
+    public void clearReplicationDirty() {
+        replicationDirty = false;
+    }
 
+    /**
+     * Shorthand for the command buffer of the scene this component is in. Components that attach or detach nodes from
+     * {@link Steppable#step(float)} should go through this.
+     *
+     * @return the scene's command buffer
+     */
+    protected SceneCommandBuffer getCommandBuffer() {
+        return getParent().getScene().getCommandBuffer();
     }
 
-    @Override
-    public int hashCode() {
-        return networkID;
+    /**
+     * Gets the networking system of the scene this component is in.
+     *
+     * @return the NetworkingSceneSystem, or null if the scene has none
+     */
+    protected NetworkingSceneSystem getNetworkingSystem() {
+        Scene s = getParent().getScene();
+        if (networkingSystemHandle == null || networkingSystemHandle.getScene() != s) {
+            networkingSystemHandle = s.getSystemHandle(NetworkingSceneSystem.class);
+        }
+        return networkingSystemHandle.get();
+    }
+
+    /**
+     * Gets the spatial query system of the scene this component is in.
+     *
+     * @return the Node2DQuerySystem, or null if the scene has none
+     */
+    protected Node2DQuerySystem getQuerySystem() {
+        Scene s = getParent().getScene();
+        if (querySystemHandle == null || querySystemHandle.getScene() != s) {
+            querySystemHandle = s.getSystemHandle(Node2DQuerySystem.class);
+        }
+        return querySystemHandle.get();
     }
 }
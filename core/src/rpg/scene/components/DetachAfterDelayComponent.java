@@ -17,7 +17,7 @@ public class DetachAfterDelayComponent extends Component implements Steppable {
         timeRemaining -= deltaTime;
 
         if (timeRemaining < 0) {
-            getParent().removeFromParent();
+            getCommandBuffer().removeFromParent(getParent());
         }
     }
 }
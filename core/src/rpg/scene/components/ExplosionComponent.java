@@ -1,14 +1,14 @@
 package rpg.scene.components;
 
 
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector3;
 import rpg.scene.Node;
 import rpg.scene.replication.Context;
 import rpg.scene.replication.Replicated;
 import rpg.scene.systems.NetworkingSceneSystem;
 import rpg.scene.systems.Node2DQuerySystem;
-
-import java.util.Set;
+import rpg.scene.systems.NodeVisitor;
 
 /**
  * Created by Corin Hill on 5/13/15.
@@ -30,8 +30,11 @@ public class ExplosionComponent extends Component implements Steppable {
     protected Node creator;
     private UnitComponent creatorUnitComponent;
 
+    private final Rectangle damageArea = new Rectangle();
+    private final NodeVisitor damageVisitor = this::damage;
+
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         SpriteRenderer sr = getParent().findComponent(SpriteRenderer.class);
 
         scaleRate -= scaleAcceleration * deltaTime;
@@ -43,28 +46,29 @@ public class ExplosionComponent extends Component implements Steppable {
                 checkCollisions();
             }
             if (age > LIFETIME) {
-                getParent().removeFromParent();
+                getCommandBuffer().removeFromParent(getParent());
             }
             age += deltaTime;
             damageTimer += deltaTime;
         }
     }
     protected void checkCollisions() {
-        Node2DQuerySystem n2qs = getParent().getScene().findSystem(Node2DQuerySystem.class);
+        Node2DQuerySystem n2qs = getQuerySystem();
         Spatial2D s = getParent().findComponent(Spatial2D.class);
 
         Vector3 worldPosition = getParent().getTransform().getWorldPosition();
 
-        Set<Node> nodes = n2qs.queryNodesInArea(s.getRectangle().setCenter(worldPosition.x, worldPosition.y));
-        nodes.stream()
-                .map(n -> n.findComponent(UnitComponent.class))
-                .forEach(c -> {
-                    if (c == null) return;
-                    if (getParent() == null || getParent().getParent() == null) return;
-                    if (c.getFaction() != creatorUnitComponent.getFaction()) {
-                        c.hurt(this,5);
-                    }
-                });
+        s.getRectangle(damageArea).setCenter(worldPosition.x, worldPosition.y);
+        n2qs.forEachNodeInArea(UnitComponent.class, damageArea, damageVisitor);
+    }
+
+    private void damage(Node n) {
+        UnitComponent c = n.findComponent(UnitComponent.class);
+        if (c == null) return;
+        if (getParent() == null || getParent().getParent() == null) return;
+        if (c.getFaction() != creatorUnitComponent.getFaction()) {
+            getCommandBuffer().invoke(() -> c.hurt(this, 5));
+        }
     }
     public void setCreator(Node creator) {
         this.creator = creator;
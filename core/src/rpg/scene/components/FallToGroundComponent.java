@@ -22,7 +22,7 @@ public class FallToGroundComponent extends Component implements Steppable {
 
     @Override
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         Transform t = getParent().getTransform();
         if (nss.getContext() == Context.Server && shadowNode == null) {
             // Just assume the first node is the shadow node...
@@ -36,18 +36,18 @@ public class FallToGroundComponent extends Component implements Steppable {
 
             if (shadowNode != null) {
                 Vector3 pos = shadowNode.getTransform().getPosition();
-                shadowNode.getTransform().setPosition(pos.cpy().set(pos.x, pos.y, -t.getWorldPosition().z * 2 + 0.005f));
+                shadowNode.getTransform().setPosition(pos.x, pos.y, -t.getWorldPosition().z * 2 + 0.005f);
             }
         } else if (t.getPosition().z < -0.0001f) {
             t.translate(0, 0, -t.getPosition().z);
 
             if (shadowNode != null) {
                 Vector3 pos = shadowNode.getTransform().getPosition();
-                shadowNode.getTransform().setPosition(pos.cpy().set(pos.x, pos.y, -t.getWorldPosition().z * 2 + 0.005f));
+                shadowNode.getTransform().setPosition(pos.x, pos.y, -t.getWorldPosition().z * 2 + 0.005f);
             }
 
             if (nss.getContext() == Context.Server) {
-                getParent().removeComponent(this);
+                getCommandBuffer().removeComponent(this);
             }
             return;
         }
@@ -1,21 +1,25 @@
 package rpg.scene.components;
 
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.graphics.Color;
 import rpg.scene.Node;
 import rpg.scene.NodeFactory;
+import rpg.scene.Scene;
+import rpg.scene.SystemHandle;
 import rpg.scene.replication.Context;
 import rpg.scene.replication.Replicated;
 import rpg.scene.systems.NetworkingSceneSystem;
 import rpg.scene.systems.Node2DQuerySystem;
+import rpg.scene.systems.ProjectileCollisionSystem;
+import rpg.scene.systems.NodeVisitor;
 
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * Created by Corin Hill on 5/6/15.
  */
-public class MissileComponent extends Component implements Steppable {
+public class MissileComponent extends Component implements Steppable, Projectile {
 
     protected static float MOVE_SPEED = 6;
     protected static float LIFETIME = 1.5f;
@@ -38,44 +42,63 @@ public class MissileComponent extends Component implements Steppable {
 
     private boolean shadowCreated;
 
+    // Set once the missile has hit something and is waiting to turn into an explosion.
+    private boolean spent = false;
+
+    // Kept so that checking for collisions every frame doesn't allocate.
+    private final Rectangle collisionArea = new Rectangle();
+    private final NodeVisitor hitVisitor = n -> {
+        UnitComponent c = n.findComponent(UnitComponent.class);
+        if (c != null) hit(c);
+    };
+
+    private SystemHandle<ProjectileCollisionSystem> collisionSystemHandle;
+
     public MissileComponent() {
 
     }
 
     @Override
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         Objects.requireNonNull(nss);
 
         Transform t = getParent().getTransform();
-        Vector3 p = t.getPosition().cpy();
+        Vector3 p = t.getPosition();
 
         if (nss.getContext() == Context.Server) {
+            if (spent) {
+                return;
+            }
             if (age < LIFETIME) {
-                t.setPosition(p.add(moveDirection.cpy().scl(deltaTime)));
-                checkCollisions();
+                t.translate(moveDirection.x * deltaTime, moveDirection.y * deltaTime, moveDirection.z * deltaTime);
+                if (getCollisionSystem() == null) checkCollisions();
                 age += deltaTime;
             } else {
-                Node n = getParent();
-                n.getParent().removeChild(n);
+                getCommandBuffer().removeFromParent(getParent());
             }
         } else if (nss.getContext() == Context.Client) {
             if (age < LIFETIME) {
                 moveTimer += deltaTime;
                 if (lerpTargetChanged) {
                     if (oldPosition != null) {
-                        newPosition = p.cpy().add(p.cpy().sub(oldPosition));
+                        if (newPosition == null) newPosition = new Vector3();
+                        newPosition.set(p).scl(2).sub(oldPosition);
                     }
-                    oldPosition = p.cpy();
+                    if (oldPosition == null) oldPosition = new Vector3();
+                    oldPosition.set(p);
                     moveTimer = 0;
                     lerpTargetChanged = false;
                 }
 
                 if (oldPosition != null && newPosition != null) {
                     // Extrapolate server side motion
-                    t.setPosition(oldPosition.cpy().lerp(newPosition, moveTimer / nss.getTickDeltaTime()));
+                    float alpha = moveTimer / nss.getTickDeltaTime();
+                    t.setPosition(oldPosition.x + (newPosition.x - oldPosition.x) * alpha,
+                            oldPosition.y + (newPosition.y - oldPosition.y) * alpha,
+                            oldPosition.z + (newPosition.z - oldPosition.z) * alpha);
                 } else {
-                    t.setPosition(p.add(moveDirection.cpy().scl(deltaTime)));
+                    t.translate(moveDirection.x * deltaTime, moveDirection.y * deltaTime, moveDirection.z * deltaTime);
                 }
                 age += deltaTime;
 
@@ -83,7 +106,7 @@ public class MissileComponent extends Component implements Steppable {
                 if (!shadowCreated) {
                     Node n = NodeFactory.makeShadowNode(getParent(), true);
                     n.getTransform().translate(0, 0, -1.5f + 0.005f);
-                    n.getTransform().setScale(new Vector3(0.3f, 0.3f, 0.3f));
+                    n.getTransform().setScale(0.3f, 0.3f, 0.3f);
                     shadowCreated = true;
                 }
             }
@@ -91,29 +114,52 @@ public class MissileComponent extends Component implements Steppable {
     }
 
     protected void checkCollisions() {
-        Node2DQuerySystem n2qs = getParent().getScene().findSystem(Node2DQuerySystem.class);
+        Node2DQuerySystem n2qs = getQuerySystem();
         Objects.requireNonNull(n2qs);
+        n2qs.forEachNodeInArea(UnitComponent.class, getCollisionBounds(collisionArea), hitVisitor);
+    }
+
+    @Override
+    public Rectangle getCollisionBounds(Rectangle out) {
         Spatial2D s = getParent().findComponent(Spatial2D.class);
         Objects.requireNonNull(s);
 
         Vector3 worldPosition = getParent().getTransform().getWorldPosition();
+        return s.getRectangle(out).setCenter(worldPosition.x, worldPosition.y);
+    }
+
+    @Override
+    public int getFaction() {
+        return creatorUnitComponent.getFaction();
+    }
+
+    @Override
+    public boolean isSpent() {
+        return spent;
+    }
+
+    // The scene's collision system, which checks this for hits if there is one.
+    private ProjectileCollisionSystem getCollisionSystem() {
+        Scene s = getParent().getScene();
+        if (collisionSystemHandle == null || collisionSystemHandle.getScene() != s) {
+            collisionSystemHandle = s.getSystemHandle(ProjectileCollisionSystem.class);
+        }
+        return collisionSystemHandle.get();
+    }
 
-        Set<Node> nodes = n2qs.queryNodesInArea(s.getRectangle().setCenter(worldPosition.x, worldPosition.y));
-        nodes.stream()
-                .map(n -> n.findComponent(UnitComponent.class))
-                .forEach(c -> {
-                    if (c == null) return;
-                    if (getParent() == null || getParent().getParent() == null) return;
-                    if (c.getFaction() != creatorUnitComponent.getFaction()) {
-                        ExplosionComponent e = new ExplosionComponent();
-                        e.setCreator(creator);
+    @Override
+    public void hit(UnitComponent c) {
+        if (spent) return;
+        if (c.getFaction() != creatorUnitComponent.getFaction()) {
+            ExplosionComponent e = new ExplosionComponent();
+            e.setCreator(creator);
 
-                        getParent().findComponent(SpriteRenderer.class).setColor(new Color(1,1,1,0.5f));
+            getParent().findComponent(SpriteRenderer.class).setColor(new Color(1,1,1,0.5f));
 
-                        getParent().addComponent(e);
-                        getParent().removeComponent(this);
-                    }
-                });
+            spent = true;
+            getCommandBuffer().addComponent(getParent(), e);
+            getCommandBuffer().removeComponent(this);
+        }
     }
 
     @Override
@@ -1,8 +1,6 @@
 package rpg.scene.components;
 
-import com.badlogic.gdx.math.Quaternion;
 import com.badlogic.gdx.math.Vector3;
-import rpg.scene.Scene;
 import rpg.scene.replication.Context;
 import rpg.scene.replication.Replicated;
 import rpg.scene.systems.NetworkingSceneSystem;
@@ -16,12 +14,11 @@ public class PansUpComponent extends Component implements Steppable {
 
     @Override
     public void step(float deltaTime) {
-        Scene s = getParent().getScene();
-        NetworkingSceneSystem n = s.findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem n = getNetworkingSystem();
         if (predictive || (n != null && n.getContext() == Context.Server) || n == null) {
             Transform t = getParent().getTransform();
-            t.setPosition(new Vector3(t.getPosition()).add(0, deltaTime / 10, 0));
-            t.setRotation(new Quaternion(t.getRotation()).mulLeft(new Quaternion(Vector3.Z, deltaTime * rotateRate)));
+            t.translate(0, deltaTime / 10, 0);
+            t.rotate(Vector3.Z, deltaTime * rotateRate);
         }
     }
 }
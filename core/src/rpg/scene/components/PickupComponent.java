@@ -1,12 +1,13 @@
 package rpg.scene.components;
 
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector3;
+import rpg.scene.Node;
 import rpg.scene.replication.Context;
 import rpg.scene.replication.Replicated;
 import rpg.scene.systems.NetworkingSceneSystem;
 import rpg.scene.systems.Node2DQuerySystem;
-
-import java.util.Optional;
+import rpg.scene.systems.NodeVisitor;
 
 /**
  * Created by Corin Hill on 5/13/15.
@@ -19,24 +20,47 @@ public class PickupComponent extends Component implements Steppable {
     public static final int BOMB = 1;
     public static final int HEAL = 2;
 
+    private final Rectangle pickupArea = new Rectangle();
+    // The first player found by the last query.
+    private SimplePlayerComponent foundPlayer;
+    private final NodeVisitor playerFinder = n -> {
+        if (foundPlayer == null) foundPlayer = n.findComponent(SimplePlayerComponent.class);
+    };
+
     @Override
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
-        Node2DQuerySystem n2qs = getParent().getScene().findSystem(Node2DQuerySystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
+        Node2DQuerySystem n2qs = getQuerySystem();
         Spatial2D s2d = getParent().findComponent(Spatial2D.class);
         Vector3 wp = getParent().getTransform().getWorldPosition();
         if (nss.getContext() == Context.Server) {
-            Optional<SimplePlayerComponent> player = n2qs.queryNodesInArea(s2d.getRectangle().setCenter(wp.x,wp.y))
-                    .stream().map(n -> n.findComponent(SimplePlayerComponent.class))
-                    .filter(p -> p != null).findFirst();
-            if (player.isPresent()) {
-                if (item == EXP || !player.get().isHoldingItem()) {
-                    player.get().pickup(item);
-                    getParent().removeFromParent();
-                }
+            foundPlayer = null;
+            n2qs.forEachNodeInArea(SimplePlayerComponent.class, s2d.getRectangle(pickupArea).setCenter(wp.x, wp.y),
+                    playerFinder);
+            if (foundPlayer != null) {
+                // The player belongs to another entity, so only touch it at the sync point. By then another pickup may
+                // have been taken by it, or this one by another player.
+                SimplePlayerComponent p = foundPlayer;
+                getCommandBuffer().invoke(() -> {
+                    Node n = getParent();
+                    if (n == null || n.getParent() == null) return;
+                    if (item == EXP || !p.isHoldingItem()) {
+                        p.pickup(item);
+                        n.removeFromParent();
+                    }
+                });
             }
         }
     }
 
-    public void setItem(int item) {this.item = item;}
+    public void setItem(int item) {
+        this.item = item;
+        markReplicationDirty();
+    }
+
+    // The item is only written by setItem.
+    @Override
+    public boolean tracksReplicationChanges() {
+        return true;
+    }
 }
@@ -74,6 +74,7 @@ public class PlayerInfoComponent extends Component implements InputEventListener
 
     public void setPlayerName(String name) {
         this.name = name;
+        markReplicationDirty();
     }
 
     @Override
@@ -92,4 +93,10 @@ public class PlayerInfoComponent extends Component implements InputEventListener
             }
         }
     }
+
+    // The name is only written by the constructor and setPlayerName.
+    @Override
+    public boolean tracksReplicationChanges() {
+        return true;
+    }
 }
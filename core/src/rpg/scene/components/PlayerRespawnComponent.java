@@ -35,7 +35,7 @@ public class PlayerRespawnComponent extends Component implements Steppable, Inpu
 
     @Override
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         if (nss.getContext() == Context.Client && getParent().isPossessed()) {
             if (keyR) {
                 sendRPC("respawn");
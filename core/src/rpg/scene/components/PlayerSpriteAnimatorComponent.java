@@ -22,7 +22,7 @@ public class PlayerSpriteAnimatorComponent extends Component implements Steppabl
 
     @Override
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
 
         if (spriteRenderer == null) {
             spriteRenderer = getParent().findComponent(SpriteRenderer.class);
@@ -0,0 +1,35 @@
+package rpg.scene.components;
+
+import com.badlogic.gdx.math.Rectangle;
+
+/**
+ * A component that hits the units it touches, like a bullet. If the scene has a
+ * {@link rpg.scene.systems.ProjectileCollisionSystem}, it finds what every projectile touches in one pass per tick;
+ * otherwise projectiles have to look for themselves.
+ */
+public interface Projectile {
+    /**
+     * @return the faction of whoever fired this; units of that faction aren't hit
+     */
+    int getFaction();
+
+    /**
+     * @return true once this can't hit anything more
+     */
+    boolean isSpent();
+
+    /**
+     * Get the area this touches, in world space.
+     *
+     * @param out the rectangle to write the area to
+     * @return out
+     */
+    Rectangle getCollisionBounds(Rectangle out);
+
+    /**
+     * Called for each unit of another faction that this touches, until it is spent.
+     *
+     * @param unit the unit
+     */
+    void hit(UnitComponent unit);
+}
@@ -59,6 +59,7 @@ public class RectangleRenderer extends Component implements Renderable, Spatial2
 
     public void setSize(Vector2 size) {
         this.size = size.cpy();
+        markReplicationDirty();
     }
 
     public boolean isTransparent() {
@@ -67,6 +68,7 @@ public class RectangleRenderer extends Component implements Renderable, Spatial2
 
     public void setTransparent(boolean transparent) {
         this.transparent = transparent;
+        markReplicationDirty();
     }
 
     public Color getColor() {
@@ -75,10 +77,22 @@ public class RectangleRenderer extends Component implements Renderable, Spatial2
 
     public void setColor(Color color) {
         this.color = color;
+        markReplicationDirty();
     }
 
     @Override
     public Rectangle getRectangle() {
-        return new Rectangle(-size.x / 2, -size.y / 2, size.x, size.y);
+        return getRectangle(new Rectangle());
+    }
+
+    @Override
+    public Rectangle getRectangle(Rectangle out) {
+        return out.set(-size.x / 2, -size.y / 2, size.x, size.y);
+    }
+
+    // The replicated fields are only written by the setters above.
+    @Override
+    public boolean tracksReplicationChanges() {
+        return true;
     }
 }
@@ -9,9 +9,9 @@ import rpg.scene.Node;
 import rpg.scene.NodeFactory;
 import rpg.scene.replication.Context;
 import rpg.scene.systems.NetworkingSceneSystem;
+import rpg.scene.systems.NearestNodes;
 import rpg.scene.systems.Node2DQuerySystem;
 
-import java.util.Optional;
 
 /**
  * Created by Corin Hill on 5/13/15.
@@ -21,6 +21,7 @@ public class SimpleBossComponent extends Component implements Steppable, Killabl
     private static float DROP_RATE = 0.7f;
 
     private Node target = null;
+    private final NearestNodes nearestPlayer = new NearestNodes(1);
     private Vector3 relPos = new Vector3();
     private int state = WAIT;
 
@@ -37,7 +38,7 @@ public class SimpleBossComponent extends Component implements Steppable, Killabl
     public static final int ATT3 = 3;
 
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         if (nss.getContext() == Context.Server) {
             switch (state) {
                 case ATT1:
@@ -158,7 +159,6 @@ public class SimpleBossComponent extends Component implements Steppable, Killabl
 
     private void generateSmallBullet(Vector3 moveDirection, Vector3 offset) {
         Node bulletNode = new Node();
-        getParent().getScene().getRoot().addChild(bulletNode);
 
         SimpleBulletComponent bulletComponent = new SimpleBulletComponent();
         bulletComponent.setMoveDirection(moveDirection);
@@ -176,11 +176,12 @@ public class SimpleBossComponent extends Component implements Steppable, Killabl
         tBullet.setPosition(tSelf.getWorldPosition().cpy().add(offset));
         tBullet.setRotation(tSelf.getWorldRotation().cpy());
         tBullet.translate(0, 0, 0.5f);
+
+        getCommandBuffer().addChild(getParent().getScene().getRoot(), bulletNode);
     }
 
     private void generateBomb(Vector3 moveDirection, Vector3 offset) {
         Node bulletNode = new Node();
-        getParent().getScene().getRoot().addChild(bulletNode);
 
         MissileComponent missileComponent = new MissileComponent();
         missileComponent.setMoveDirection(moveDirection);
@@ -199,6 +200,8 @@ public class SimpleBossComponent extends Component implements Steppable, Killabl
         tBullet.setPosition(tSelf.getWorldPosition().cpy().add(offset));
         tBullet.setRotation(tSelf.getWorldRotation().cpy());
         tBullet.translate(0, 0, 0.5f);
+
+        getCommandBuffer().addChild(getParent().getScene().getRoot(), bulletNode);
     }
 
     private void updateRelPos() {
@@ -220,16 +223,11 @@ public class SimpleBossComponent extends Component implements Steppable, Killabl
     private void checkTarget() {
         if (target == null || target.getParent() == null || target.findComponent(UnitComponent.class) == null
                 || target.findComponent(UnitComponent.class).getHealth() <= 0) {
-            Node2DQuerySystem nqs = getParent().getScene().findSystem(Node2DQuerySystem.class);
+            Node2DQuerySystem nqs = getQuerySystem();
             Vector3 wp = getParent().getTransform().getWorldPosition();
-            Rectangle r = new Rectangle(wp.x-VISION_RADIUS,wp.y-VISION_RADIUS,
-                    VISION_RADIUS*2,VISION_RADIUS*2);
             if (nqs != null) {
-                Optional<SimplePlayerComponent> p = nqs.queryNodesInArea(r).stream()
-                        .map(n -> n.findComponent(SimplePlayerComponent.class))
-                        .filter(n -> n != null).findAny();
-                if (p.isPresent()) target = p.get().getParent();
-                else target = null;
+                nqs.findNearestNodes(SimplePlayerComponent.class, wp.x, wp.y, VISION_RADIUS, nearestPlayer);
+                target = nearestPlayer.first();
             }
         }
     }
@@ -272,10 +270,13 @@ public class SimpleBossComponent extends Component implements Steppable, Killabl
     }
 
     public void kill() {
-        generateEXP();
-        if (MathUtils.random() < DROP_RATE) {
-            generateDrop();
-        }
-        getParent().removeFromParent();
+        // Spawn the drops and remove the boss at the next sync point rather than in the middle of a traversal.
+        getCommandBuffer().invoke(() -> {
+            generateEXP();
+            if (MathUtils.random() < DROP_RATE) {
+                generateDrop();
+            }
+            getParent().removeFromParent();
+        });
     }
 }
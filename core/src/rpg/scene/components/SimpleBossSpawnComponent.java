@@ -16,7 +16,6 @@ public class SimpleBossSpawnComponent extends SpawnComponent{
 
     public Node spawn() {
         Node node = new Node();
-        getParent().findRoot().addChild(node);
 
         SimpleBossComponent boss = new SimpleBossComponent();
 
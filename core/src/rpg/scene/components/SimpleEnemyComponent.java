@@ -4,7 +4,6 @@ import com.badlogic.gdx.ai.fsm.DefaultStateMachine;
 import com.badlogic.gdx.ai.fsm.StateMachine;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 import rpg.game.SimpleEnemyState;
@@ -12,11 +11,10 @@ import rpg.scene.Node;
 import rpg.scene.NodeFactory;
 import rpg.scene.replication.Context;
 import rpg.scene.systems.NetworkingSceneSystem;
+import rpg.scene.systems.NearestNodes;
 import rpg.scene.systems.Node2DQuerySystem;
 
-import java.util.Comparator;
 import java.util.Objects;
-import java.util.Optional;
 
 /**
  * Created by Corin Hill on 5/6/15.
@@ -45,6 +43,7 @@ public class SimpleEnemyComponent extends Component implements Steppable, Killab
     private Vector3 home = new Vector3();
 
     private Node targetNode = null;
+    private final NearestNodes nearestPlayer = new NearestNodes(1);
     private Vector3 destination = null;
     private boolean firing = false;
 
@@ -61,7 +60,7 @@ public class SimpleEnemyComponent extends Component implements Steppable, Killab
 
     @Override
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         Objects.requireNonNull(nss);
 
         Transform t = getParent().getTransform();
@@ -71,9 +70,11 @@ public class SimpleEnemyComponent extends Component implements Steppable, Killab
             fsm.update();
 
             if (destination != null) {
-                Vector3 v = t.getPosition().cpy().add(destination.cpy().nor().scl(MOVE_SPEED).scl(deltaTime));
-                v.z = t.getPosition().z;
-                t.setPosition(v);
+                float len = destination.len();
+                if (len > 0) {
+                    float step = MOVE_SPEED * deltaTime / len;
+                    t.translate(destination.x * step, destination.y * step, 0);
+                }
             }
             if (firing) {
                 if (shootTimer >= SHOOT_UPDATE_THRESHOLD || shootTimer == 0) {
@@ -150,7 +151,6 @@ public class SimpleEnemyComponent extends Component implements Steppable, Killab
 
     private void generateBullet(Vector3 v) {
         Node bulletNode = new Node();
-        getParent().getScene().getRoot().addChild(bulletNode);
 
         SimpleBulletComponent bulletComponent = new SimpleBulletComponent();
         bulletComponent.setMoveDirection(v);
@@ -168,29 +168,16 @@ public class SimpleEnemyComponent extends Component implements Steppable, Killab
         tBullet.setPosition(tSelf.getWorldPosition());
         tBullet.setRotation(tSelf.getWorldRotation());
         tBullet.translate(0, 0, 0.5f);
+
+        getCommandBuffer().addChild(getParent().getScene().getRoot(), bulletNode);
     }
 
     private Node findTargetNode() {
-        Node2DQuerySystem n2qs = getParent().getScene().findSystem(Node2DQuerySystem.class);
+        Node2DQuerySystem n2qs = getQuerySystem();
         Objects.requireNonNull(n2qs);
 
         Vector3 p = getParent().getTransform().getWorldPosition();
-        Rectangle r = new Rectangle(p.x - VISION_RADIUS,p.y - VISION_RADIUS,
-                                    VISION_RADIUS * 2f,VISION_RADIUS * 2f);
-
-        Optional<Node> closest =
-                n2qs.queryNodesInArea(r).parallelStream().filter(n ->
-                                n.findComponent(SimplePlayerComponent.class) != null
-                ).min((n1, n2) ->
-                                Comparator.<Float>naturalOrder().compare(
-                                        p.dst(n1.getTransform().getWorldPosition()),
-                                        p.dst(n2.getTransform().getWorldPosition())
-                                )
-                );
-        if (closest.isPresent())
-            return closest.get();
-        else
-            return null;
+        return n2qs.findNearestNodes(SimplePlayerComponent.class, p.x, p.y, VISION_RADIUS, nearestPlayer).first();
     }
 
     public StateMachine<SimpleEnemyComponent> getFSM() {return fsm;}
@@ -231,10 +218,13 @@ public class SimpleEnemyComponent extends Component implements Steppable, Killab
 
     @Override
     public void kill() {
-        generateEXP();
-        if (MathUtils.random() < DROP_RATE) {
-            generateDrop();
-        }
-        getParent().removeFromParent();
+        // Spawn the drops and remove this enemy at the next sync point rather than in the middle of a traversal.
+        getCommandBuffer().invoke(() -> {
+            generateEXP();
+            if (MathUtils.random() < DROP_RATE) {
+                generateDrop();
+            }
+            getParent().removeFromParent();
+        });
     }
 }
@@ -16,7 +16,6 @@ public class SimpleEnemySpawnComponent extends SpawnComponent {
     @Override
     protected Node spawn() {
         Node enemyNode = new Node();
-        getParent().getScene().getRoot().addChild(enemyNode);
 
         SimpleEnemyComponent s = new SimpleEnemyComponent();
         SpriteRenderer spriteRenderer = new SpriteRenderer();
@@ -127,7 +127,7 @@ public class SimplePlayerComponent extends Component implements Steppable, Input
 
     @Override
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
 
         if (unitComponent == null) {
             unitComponent = getParent().findComponent(UnitComponent.class);
@@ -136,7 +136,7 @@ public class SimplePlayerComponent extends Component implements Steppable, Input
         if (nss == null || (nss.getContext() == Context.Client && getParent().isPossessed())) {
             Transform t = getParent().getTransform();
             if (clientRealPosition == null) {
-                clientRealPosition = t.getPosition();
+                clientRealPosition = t.getPosition().cpy();
             }
             moveTimer += deltaTime;
 
@@ -243,7 +243,6 @@ public class SimplePlayerComponent extends Component implements Steppable, Input
     @RPC(target = RPC.Target.Server)
     public void generateBullet(Vector3 v) {
         Node bulletNode = new Node();
-        getParent().getScene().getRoot().addChild(bulletNode);
 
         v.nor();
 
@@ -263,7 +262,7 @@ public class SimplePlayerComponent extends Component implements Steppable, Input
         Transform tBullet = bulletNode.getTransform();
         Transform tSelf = getParent().getTransform();
 
-        tBullet.setPosition(tSelf.getWorldPosition());
+        tBullet.setPosition(tSelf.getWorldPosition().cpy());
         tBullet.translate(0, 0, 0.5f);
         float angle = 0;
         if (v.x >= 0) {
@@ -274,13 +273,14 @@ public class SimplePlayerComponent extends Component implements Steppable, Input
             angle = (float) -Math.acos(v.dot(Vector3.Y));
         }
         spriteRenderer.setRotation(-angle * MathUtils.radiansToDegrees - 45f);
+
+        getCommandBuffer().addChild(getParent().getScene().getRoot(), bulletNode);
     }
     @RPC(target = RPC.Target.Server)
     public void generateBomb(Vector3 v) {
         heldItem = 0;
 
         Node bulletNode = new Node();
-        getParent().getScene().getRoot().addChild(bulletNode);
 
         v.nor();
 
@@ -298,8 +298,10 @@ public class SimplePlayerComponent extends Component implements Steppable, Input
         Transform tBullet = bulletNode.getTransform();
         Transform tSelf = getParent().getTransform();
 
-        tBullet.setPosition(tSelf.getWorldPosition());
+        tBullet.setPosition(tSelf.getWorldPosition().cpy());
         tBullet.translate(0, 0, 0.5f);
+
+        getCommandBuffer().addChild(getParent().getScene().getRoot(), bulletNode);
     }
 
     @RPC(target = RPC.Target.Server)
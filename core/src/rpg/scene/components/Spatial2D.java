@@ -13,4 +13,14 @@ public interface Spatial2D {
      * @return a rectangle describing this spatial, positioned in local space of the node.
      */
     Rectangle getRectangle();
+
+    /**
+     * Like {@link #getRectangle()}, but writes to the given rectangle, for callers that don't want to allocate.
+     *
+     * @param out the rectangle to write to
+     * @return out
+     */
+    default Rectangle getRectangle(Rectangle out) {
+        return out.set(getRectangle());
+    }
 }
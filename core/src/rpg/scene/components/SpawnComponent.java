@@ -20,7 +20,7 @@ public abstract class SpawnComponent extends Component implements Steppable {
     protected int maxSpawns = 0;
 
     public void step(float deltaTime) {
-        NetworkingSceneSystem nss = getParent().getScene().findSystem(NetworkingSceneSystem.class);
+        NetworkingSceneSystem nss = getNetworkingSystem();
         Objects.requireNonNull(nss);
 
         if (nss.getContext() == Context.Server) {
@@ -34,13 +34,20 @@ public abstract class SpawnComponent extends Component implements Steppable {
             if (maxSpawns == 0 || spawns.size() < maxSpawns) {
                 spawnTimer += deltaTime;
                 if (spawnTimer > frequency) {
-                    spawns.add(spawn());
+                    Node node = spawn();
+                    getCommandBuffer().addChild(getParent().getScene().getRoot(), node);
+                    spawns.add(node);
                     spawnTimer = 0;
                 }
             }
         }
     }
 
+    /**
+     * Build the node to spawn. It should not be attached yet; it is added to the scene root at the next sync point.
+     *
+     * @return the new node
+     */
     protected abstract Node spawn();
 
 }
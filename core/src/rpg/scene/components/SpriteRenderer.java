@@ -74,23 +74,33 @@ public class SpriteRenderer extends Component implements Renderable, Spatial2D {
             texture = new TextureContainer();
         }
         texture.setPath(path);
+        markReplicationDirty();
     }
 
     public Vector2 getDimensions() {
         return dimensions;
     }
 
-    public void setDimensions(Vector2 dimensions) {this.dimensions = new Vector2(dimensions);}
+    public void setDimensions(Vector2 dimensions) {
+        this.dimensions = new Vector2(dimensions);
+        markReplicationDirty();
+    }
 
     public Vector2 getOffset() {
         return offset;
     }
 
-    public void setOffset(Vector2 offset) {this.offset = new Vector2(offset);}
+    public void setOffset(Vector2 offset) {
+        this.offset = new Vector2(offset);
+        markReplicationDirty();
+    }
 
     public Color getColor() { return color; }
 
-    public void setColor(Color color) { this.color = color; }
+    public void setColor(Color color) {
+        this.color = color;
+        markReplicationDirty();
+    }
 
     public float getRotation() {
         return rotation;
@@ -98,6 +108,7 @@ public class SpriteRenderer extends Component implements Renderable, Spatial2D {
 
     public void setRotation(float rotation) {
         this.rotation = rotation;
+        markReplicationDirty();
     }
 
     public boolean isBillboard() {
@@ -106,11 +117,17 @@ public class SpriteRenderer extends Component implements Renderable, Spatial2D {
 
     public void setBillboard(boolean billboard) {
         this.billboard = billboard;
+        markReplicationDirty();
     }
 
     @Override
     public Rectangle getRectangle() {
-        return new Rectangle(offset.x, offset.y, dimensions.x, dimensions.y);
+        return getRectangle(new Rectangle());
+    }
+
+    @Override
+    public Rectangle getRectangle(Rectangle out) {
+        return out.set(offset.x, offset.y, dimensions.x, dimensions.y);
     }
 
     private void setUniforms(ShaderProgram p) {
@@ -121,4 +138,10 @@ public class SpriteRenderer extends Component implements Renderable, Spatial2D {
         if (p.getUniformLocation("u_spriteOffset") != -1) p.setUniformf("u_spriteOffset", offset);
         if (p.getUniformLocation("u_color") != -1) p.setUniformf("u_color", color);
     }
+
+    // The replicated fields are only written by the setters above.
+    @Override
+    public boolean tracksReplicationChanges() {
+        return true;
+    }
 }
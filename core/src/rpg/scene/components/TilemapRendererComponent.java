@@ -108,6 +108,7 @@ public class TilemapRendererComponent extends Component implements Renderable, S
         }
         values[(y * (width + 1)) + x] = value;
         reconstructMesh = true;
+        markReplicationDirty();
     }
 
     public void setPointValue(int x, int y, float value) {
@@ -152,4 +153,10 @@ public class TilemapRendererComponent extends Component implements Renderable, S
             }
         }
     }
+
+    // The size is fixed when constructed, and the values only change through setPointValue.
+    @Override
+    public boolean tracksReplicationChanges() {
+        return true;
+    }
 }
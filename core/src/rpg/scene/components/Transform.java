@@ -7,30 +7,44 @@ import com.esotericsoftware.minlog.Log;
 import rpg.client.KryoClientSceneSystem;
 import rpg.scene.Node;
 import rpg.scene.Scene;
+import rpg.scene.TransformStore;
 import rpg.scene.replication.Context;
 import rpg.scene.replication.RPC;
 import rpg.scene.replication.Replicated;
 import rpg.scene.systems.Node2DQuerySystem;
 import rpg.scene.systems.RendererSceneSystem;
 
-import java.util.LinkedList;
 import java.util.Objects;
 
 public class Transform extends Component {
-    @Replicated
+    @Replicated(quantized = true)
     protected Vector3 position = new Vector3();
     @Replicated
     protected Vector3 scale = new Vector3(1, 1, 1);
-    @Replicated
+    @Replicated(quantized = true)
     protected Quaternion rotation = new Quaternion();
 
-    private Vector3 worldPosition = new Vector3();
-    private Vector3 worldScale = new Vector3();
-    private Quaternion worldRotation = new Quaternion();
+    // Cached world transform. worldMatrix maps this node's local space into world space, and worldPosition is its
+    // translation. They are recomputed from the parent's cached values, so each transform is only evaluated once
+    // however many descendants ask for it.
+    private final Matrix4 worldMatrix = new Matrix4();
+    private final Vector3 worldPosition = new Vector3();
+    private final Vector3 worldScale = new Vector3();
+    private final Quaternion worldRotation = new Quaternion();
 
-    private boolean worldTransformsDirty = true;
+    // If a transform is dirty, so is everything under it. That lets setDirty() stop at a transform that is already
+    // dirty, and lets reevaluation trust a clean parent's cache.
+    // Volatile, and the world transform is only recomputed under the lock, so several threads can read a transform
+    // that its owner isn't modifying (see GameLogicSystem's parallel stepping).
+    private volatile boolean worldTransformsDirty = true;
 
-    private Node2DQuerySystem querySystemRef = null;
+    // Used by rotate(Vector3, float), so that rotating doesn't allocate.
+    private final Quaternion scratchRotation = new Quaternion();
+
+    // While bound to a store, the local state is written through to the slot and the world transform is computed by
+    // the store; the world fields above are then just copies handed out by the getters.
+    private TransformStore store;
+    private int slot = TransformStore.NO_SLOT;
 
     public Transform() {
         super();
@@ -58,61 +72,151 @@ public class Transform extends Component {
         in.mulLeft(new Matrix4().scale(1.0f / scale.x, 1.0f / scale.y, 1.0f / scale.z));
     }
 
-    private void reevaluateWorldTransform() {
-        LinkedList<Transform> transforms = new LinkedList<>();
-        Node cur = getParent();
-        while (cur != null) {
-            transforms.addLast(cur.getTransform());
-            cur = cur.getParent();
+    private synchronized void reevaluateWorldTransform() {
+        if (!worldTransformsDirty) {
+            return;
+        }
+        Node n = getParent();
+        Node parentNode = n == null ? null : n.getParent();
+        Transform parent = parentNode == null ? null : parentNode.getTransform();
+        if (parent != null && parent.store != null) {
+            // The parent is bound to a store and this transform isn't, which happens while a subtree is being bound.
+            parent.store.getWorldMatrix(parent.slot, worldMatrix);
+            worldScale.set(parent.getWorldScale()).scl(scale);
+            worldRotation.set(parent.getWorldRotation()).mul(rotation);
+        } else if (parent != null) {
+            if (parent.worldTransformsDirty) parent.reevaluateWorldTransform();
+            worldMatrix.set(parent.worldMatrix);
+            worldScale.set(parent.worldScale).scl(scale);
+            worldRotation.set(parent.worldRotation).mul(rotation);
+        } else {
+            worldMatrix.idt();
+            worldScale.set(scale);
+            worldRotation.set(rotation);
         }
-        // We don't want the root node transform so we'll drop it.
-        //transforms.removeFirst();
-
-        worldPosition.setZero();
-        worldScale.set(1, 1, 1);
-        worldRotation = new Quaternion();
-        transforms.forEach(t -> {
-            // Apply parent scale
-            worldScale.scl(t.scale);
-            // Apply rotation (left multiply parent * this)
-            worldRotation.mulLeft(t.rotation);
-
-            // Position is a bit trickier
-            // Scale translation by parent scale
-            worldPosition.add(t.position);
-            worldPosition.scl(t.scale);
-            // parentRotation * thisTranslation
-            worldPosition.mul(t.rotation);
-            // thisTranslation += parentTranslation
-        });
+        // Each level scales and rotates its own translation as well as everything below it.
+        worldMatrix.rotate(rotation).scale(scale.x, scale.y, scale.z).translate(position);
+        worldMatrix.getTranslation(worldPosition);
         worldTransformsDirty = false;
     }
 
+    // Called whenever position, scale or rotation change.
+    private void localChanged() {
+        markReplicationDirty();
+        if (store != null) {
+            store.setLocal(slot, position, scale, rotation);
+        }
+        setDirty();
+    }
+
+    private boolean isWorldTransformDirty() {
+        return store != null ? store.isDirty(slot) : worldTransformsDirty;
+    }
+
     private void setDirty() {
-        worldTransformsDirty = true;
-        if (getParent() != null) {
-            getParent().getChildren().stream().map(Node::getTransform).forEach(Transform::setDirty);
+        if (store != null) {
+            store.markDirty(slot);
+        } else {
+            worldTransformsDirty = true;
+        }
+        Node n = getParent();
+        if (n != null) {
+            for (Node child : n.getChildArray()) {
+                Transform t = child.getTransform();
+                if (t != null && !t.isWorldTransformDirty()) t.setDirty();
+            }
         }
         dirtyQuerySystem();
     }
 
+    /**
+     * Mark the cached world transform of this transform and everything under it as out of date. Called by
+     * {@link Node} when the node is moved to another parent.
+     */
+    public void markWorldTransformDirty() {
+        boolean wasDirty = isWorldTransformDirty();
+        if (store != null) {
+            store.setParent(slot, parentSlot());
+        }
+        if (!wasDirty) setDirty();
+    }
+
+    /**
+     * Move this transform's state into a slot of the given store. Called by {@link Scene} when the transform is
+     * attached to a scene that uses a {@link TransformStore}.
+     *
+     * @param store the store to bind to
+     */
+    public void bindToStore(TransformStore store) {
+        Objects.requireNonNull(store);
+        if (this.store != null) {
+            unbindFromStore();
+        }
+        this.store = store;
+        slot = store.allocate();
+        store.setLocal(slot, position, scale, rotation);
+        store.setParent(slot, parentSlot());
+
+        // Children may have been bound before this transform was.
+        Node n = getParent();
+        if (n != null) {
+            for (Node child : n.getChildArray()) {
+                Transform t = child.getTransform();
+                if (t != null && t.store == store) t.markWorldTransformDirty();
+            }
+        }
+        setDirty();
+    }
+
+    /**
+     * Give up this transform's slot, going back to caching the world transform itself.
+     */
+    public void unbindFromStore() {
+        if (store == null) {
+            return;
+        }
+        store.free(slot);
+        store = null;
+        slot = TransformStore.NO_SLOT;
+        setDirty();
+    }
+
+    public TransformStore getStore() {
+        return store;
+    }
+
+    public int getStoreSlot() {
+        return slot;
+    }
+
+    private int parentSlot() {
+        Node n = getParent();
+        Node parentNode = n == null ? null : n.getParent();
+        Transform parent = parentNode == null ? null : parentNode.getTransform();
+        return parent != null && parent.store == store ? parent.slot : TransformStore.NO_SLOT;
+    }
+
     public Vector3 getWorldPosition() {
+        if (store != null) return store.getWorldPosition(slot, worldPosition);
         if (worldTransformsDirty) reevaluateWorldTransform();
         return worldPosition;
     }
 
     public Vector3 getWorldScale() {
+        if (store != null) return store.getWorldScale(slot, worldScale);
         if (worldTransformsDirty) reevaluateWorldTransform();
         return worldScale;
     }
 
     public Quaternion getWorldRotation() {
+        if (store != null) return store.getWorldRotation(slot, worldRotation);
         if (worldTransformsDirty) reevaluateWorldTransform();
         return worldRotation;
     }
 
     /**
-     * Gets the position vector. DO NOT MODIFY!
+     * Gets the position vector. DO NOT MODIFY! The vector is updated in place when the transform changes, so copy it
+     * if you need to hold on to the current value.
      *
      * @return position vector
      */
@@ -121,8 +225,13 @@ public class Transform extends Component {
     }
 
     public void setPosition(Vector3 position) {
-        this.position = new Vector3(position);
-        setDirty();
+        this.position.set(position);
+        localChanged();
+    }
+
+    public void setPosition(float x, float y, float z) {
+        position.set(x, y, z);
+        localChanged();
     }
 
     /**
@@ -134,8 +243,13 @@ public class Transform extends Component {
     }
 
     public void setScale(Vector3 scale) {
-        this.scale = scale;
-        setDirty();
+        this.scale.set(scale);
+        localChanged();
+    }
+
+    public void setScale(float x, float y, float z) {
+        scale.set(x, y, z);
+        localChanged();
     }
 
     /**
@@ -147,40 +261,48 @@ public class Transform extends Component {
     }
 
     public void setRotation(Quaternion rotation) {
-        this.rotation = new Quaternion(rotation);
-        setDirty();
+        this.rotation.set(rotation);
+        localChanged();
+    }
+
+    public void setRotation(Vector3 axis, float angleDegrees) {
+        Objects.requireNonNull(axis);
+        rotation.set(axis, angleDegrees);
+        localChanged();
     }
 
     public void translate(Vector3 translation) {
         Objects.requireNonNull(translation);
-        this.position = this.position.cpy().add(translation);
+        position.add(translation);
+        localChanged();
     }
 
     public void translate(float x, float y, float z) {
-        position = position.cpy().add(x, y, z);
-        setDirty();
+        position.add(x, y, z);
+        localChanged();
     }
 
     public void rotate(Quaternion quaternion) {
         Objects.requireNonNull(quaternion);
-        this.rotation = this.rotation.cpy().mulLeft(quaternion);
-        setDirty();
+        rotation.mulLeft(quaternion);
+        localChanged();
     }
 
     public void rotate(Vector3 axis, float angleDegrees) {
         Objects.requireNonNull(axis);
-        this.rotation = this.rotation.cpy().mulLeft(new Quaternion(axis, angleDegrees));
-        setDirty();
+        rotation.mulLeft(scratchRotation.set(axis, angleDegrees));
+        localChanged();
     }
 
     public void scale(Vector3 scale) {
         Objects.requireNonNull(scale);
-        this.scale = this.scale.cpy().scl(scale);
-        setDirty();
+        this.scale.scl(scale);
+        localChanged();
     }
 
     public void scale(float s) {
-        scale = scale.cpy().scl(s);
+        scale.scl(s);
+        localChanged();
     }
 
     @RPC(target = RPC.Target.Client)
@@ -200,15 +322,25 @@ public class Transform extends Component {
         }
     }
 
+    // Every change to position, scale or rotation goes through localChanged().
+    @Override
+    public boolean tracksReplicationChanges() {
+        return true;
+    }
+
+    @Override
+    public void onPostApplyReplicatedFields() {
+        // Replication replaces the field values directly.
+        localChanged();
+    }
+
     private void dirtyQuerySystem() {
-        if (querySystemRef == null && getParent() != null && getParent().getScene() != null) {
-            Scene s = getParent().getScene();
-            Node2DQuerySystem querySystem = s.findSystem(Node2DQuerySystem.class);
-            if (querySystem != null) {
-                querySystemRef = querySystem;
-            }
+        // Detached nodes are picked up by the query system when they are attached.
+        if (getParent() == null || getParent().getScene() == null) {
+            return;
         }
 
-        if (querySystemRef != null) querySystemRef.addDirtyNode(getParent());
+        Node2DQuerySystem querySystem = getQuerySystem();
+        if (querySystem != null) querySystem.addDirtyNode(getParent());
     }
 }
@@ -31,6 +31,11 @@ public class UnitComponent extends Component implements Hurtable {
 
     @Override
     public void hurt(Component cause, float baseDamage) {
+        // Already dead; the unit's removal may still be waiting in the command buffer.
+        if (health <= 0) {
+            return;
+        }
+
         // Check if the factions match
         if (cause instanceof SimpleBulletComponent) {
             SimpleBulletComponent bulletComponent = ((SimpleBulletComponent) cause);
@@ -0,0 +1,80 @@
+package rpg.scene.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.KryoSerialization;
+
+import java.util.Objects;
+
+/**
+ * A message that has already been serialized, so that it can be sent to any number of connections without being
+ * serialized again for each one. Sending it copies its bytes as they are, and the receiver gets the original message
+ * rather than this.
+ * <p>
+ * The bytes are encoded with a Kryo set up the way KryoNet and {@link KryoClassRegisterUtil} set up the client's, so
+ * they mean the same on both ends.
+ */
+public final class EncodedMessage {
+    // Kryo isn't thread safe, and messages are encoded from many threads at once.
+    private static final ThreadLocal<Kryo> kryos = ThreadLocal.withInitial(() -> {
+        Kryo k = new KryoSerialization().getKryo();
+        KryoClassRegisterUtil.registerAll(k);
+        return k;
+    });
+    private static final ThreadLocal<Output> outputs = ThreadLocal.withInitial(() -> new Output(256, -1));
+
+    private final byte[] bytes;
+
+    private EncodedMessage(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Serialize a message once.
+     *
+     * @param message the message, of a class registered by {@link KryoClassRegisterUtil}
+     * @return the encoded message, which is never changed and so can be shared
+     */
+    public static EncodedMessage encode(Object message) {
+        Objects.requireNonNull(message);
+        Output output = outputs.get();
+        output.clear();
+        kryos.get().writeClassAndObject(output, message);
+        return new EncodedMessage(output.toBytes());
+    }
+
+    /**
+     * @return a Kryo for this thread, set up like the client's
+     */
+    static Kryo getKryo() {
+        return kryos.get();
+    }
+
+    void writeTo(Output output) {
+        output.writeBytes(bytes);
+    }
+
+    /**
+     * @return how many bytes the message takes
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    /**
+     * Writes the bytes of an EncodedMessage, and reads the message they encode.
+     */
+    public static class EncodedMessageSerializer extends Serializer<Object> {
+        @Override
+        public void write(Kryo kryo, Output output, Object object) {
+            ((EncodedMessage) object).writeTo(output);
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<Object> type) {
+            return kryo.readClassAndObject(input);
+        }
+    }
+}
@@ -1,5 +0,0 @@
-package rpg.scene.kryo;
-
-public class EndTick {
-    public int tickID;
-}
@@ -0,0 +1,41 @@
+package rpg.scene.kryo;
+
+import rpg.scene.replication.FieldReplicationData;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The encoded field replication messages of one tick. Every player that is sent the same fields of a component, such
+ * as its full state or the delta from a baseline they share, gets the same bytes, encoded the first time any of them
+ * needed it. Safe to use from the threads replicating to each player at once.
+ */
+public class FieldReplicateMessageCache {
+    // Field data by identity, per component. A component is only sent a few distinct ones in a tick.
+    private final Map<Integer, Map<FieldReplicationData, EncodedMessage>> messages = new ConcurrentHashMap<>();
+
+    /**
+     * Get the message replicating some fields of a component, encoding it if this is the first time it was asked for.
+     *
+     * @param componentID the component's network ID
+     * @param data        the fields to send, which must not be changed for as long as they're cached
+     * @return the encoded {@link FieldReplicateMessage}
+     */
+    public EncodedMessage get(int componentID, FieldReplicationData data) {
+        Map<FieldReplicationData, EncodedMessage> forComponent =
+                messages.computeIfAbsent(componentID, id -> new IdentityHashMap<>(4));
+        // Players asking for the same data wait for the first to encode it, rather than encoding it too.
+        synchronized (forComponent) {
+            return forComponent.computeIfAbsent(data,
+                    d -> EncodedMessage.encode(new FieldReplicateMessage(componentID, d)));
+        }
+    }
+
+    /**
+     * Forget every message, at the end of a tick.
+     */
+    public void clear() {
+        messages.clear();
+    }
+}
@@ -9,6 +9,8 @@ import rpg.game.*;
 import rpg.scene.containers.*;
 import rpg.scene.replication.BitSet;
 import rpg.scene.replication.FieldReplicationData;
+import rpg.scene.replication.QuantizedQuaternion;
+import rpg.scene.replication.QuantizedVector3;
 import rpg.scene.replication.RPCInvocation;
 import rpg.scene.replication.RPCMessage;
 
@@ -47,9 +49,6 @@ public final class KryoClassRegisterUtil {
                 FieldReplicationData.class,
 
                 // Messages
-                BeginTick.class,
-                EndTick.class,
-
                 NodeAttach.class,
                 NodeDetach.class,
                 NodeReattach.class,
@@ -63,10 +62,18 @@ public final class KryoClassRegisterUtil {
 
                 NodeReferenceContainer.class,
                 ComponentReferenceContainer.class,
+
+                TickAck.class,
+                SnapshotAck.class,
+
+                QuantizedVector3.class,
+                QuantizedQuaternion.class,
         };
 
         Arrays.stream(classes).forEach(k::register);
 
         k.register(byte[].class, new DeflateSerializer(new DefaultArraySerializers.ByteArraySerializer()));
+        k.register(EncodedMessage.class, new EncodedMessage.EncodedMessageSerializer());
+        k.register(TickFrame.class, new TickFrame.TickFrameSerializer());
     }
 }
@@ -0,0 +1,17 @@
+package rpg.scene.kryo;
+
+/**
+ * Sent by the client, unreliably, once it has every snapshot frame of a tick and has applied them, so that the server
+ * can send later snapshots relative to it.
+ */
+public class SnapshotAck {
+    public int tickID;
+
+    public SnapshotAck() {
+
+    }
+
+    public SnapshotAck(int tickID) {
+        this.tickID = tickID;
+    }
+}
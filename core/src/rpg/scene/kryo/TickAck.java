@@ -0,0 +1,16 @@
+package rpg.scene.kryo;
+
+/**
+ * Sent by the client once it has applied a tick, so that the server can send later field changes relative to it.
+ */
+public class TickAck {
+    public int tickID;
+
+    public TickAck() {
+
+    }
+
+    public TickAck(int tickID) {
+        this.tickID = tickID;
+    }
+}
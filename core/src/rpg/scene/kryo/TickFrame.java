@@ -0,0 +1,105 @@
+package rpg.scene.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The messages of one replication tick, sent to a player in one piece. A tick too large for one frame is split over
+ * several, numbered in order, and only the last is marked as such. Frames are built by {@link TickFrameWriter}.
+ * <p>
+ * A tick has reliable frames, which carry everything that has to arrive, and may have snapshot frames, which carry
+ * the fields of components that change all the time. Snapshot frames are sent unreliably, so they may be lost,
+ * duplicated or arrive out of order.
+ */
+public class TickFrame {
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<Input> inflatedInputs = ThreadLocal.withInitial(() -> new Input(1024));
+
+    public int tickID;
+    // The position of this frame among the tick's frames of the same kind, from 0.
+    public int index;
+    // Whether this is the last frame of the tick.
+    public boolean last;
+    // Whether this is a snapshot frame rather than a reliable one.
+    public boolean snapshot;
+    // The messages, in the order they were added, once received.
+    public List<Object> messages;
+
+    // The messages as sent, encoded back to back in payload[0, length), deflated if compressed.
+    int count;
+    byte[] payload;
+    int length;
+    int uncompressedLength;
+    boolean compressed;
+
+    @Override
+    public String toString() {
+        return String.format("TickFrame { %d#%d, %d messages%s%s }", tickID, index,
+                messages != null ? messages.size() : count, last ? ", last" : "", snapshot ? ", snapshot" : "");
+    }
+
+    public static class TickFrameSerializer extends Serializer<TickFrame> {
+        @Override
+        public void write(Kryo kryo, Output output, TickFrame frame) {
+            output.writeInt(frame.tickID, true);
+            output.writeInt(frame.index, true);
+            output.writeBoolean(frame.last);
+            output.writeBoolean(frame.snapshot);
+            output.writeInt(frame.count, true);
+            output.writeBoolean(frame.compressed);
+            if (frame.compressed) {
+                output.writeInt(frame.uncompressedLength, true);
+                output.writeInt(frame.length, true);
+            }
+            // An uncompressed payload needs no length, as reading the messages uses up exactly their bytes.
+            output.writeBytes(frame.payload, 0, frame.length);
+        }
+
+        @Override
+        public TickFrame read(Kryo kryo, Input input, Class<TickFrame> type) {
+            TickFrame frame = new TickFrame();
+            frame.tickID = input.readInt(true);
+            frame.index = input.readInt(true);
+            frame.last = input.readBoolean();
+            frame.snapshot = input.readBoolean();
+            frame.count = input.readInt(true);
+            frame.compressed = input.readBoolean();
+
+            Input messageInput = input;
+            if (frame.compressed) {
+                frame.uncompressedLength = input.readInt(true);
+                frame.length = input.readInt(true);
+                messageInput = inflatedInputs.get();
+                byte[] buffer = messageInput.getBuffer();
+                if (buffer.length < frame.uncompressedLength) {
+                    buffer = new byte[Math.max(frame.uncompressedLength, buffer.length * 2)];
+                }
+                Inflater inflater = inflaters.get();
+                inflater.reset();
+                inflater.setInput(input.readBytes(frame.length));
+                try {
+                    if (inflater.inflate(buffer, 0, frame.uncompressedLength) != frame.uncompressedLength) {
+                        throw new KryoException("Tick frame is shorter than it claims");
+                    }
+                } catch (DataFormatException e) {
+                    throw new KryoException("Tick frame is corrupt", e);
+                }
+                messageInput.setBuffer(buffer, 0, frame.uncompressedLength);
+            }
+
+            frame.messages = new ArrayList<>(frame.count);
+            for (int i = 0; i < frame.count; i++) {
+                frame.messages.add(kryo.readClassAndObject(messageInput));
+            }
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package rpg.scene.kryo;
+
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * Puts the messages of one tick for one player into {@link TickFrame}s, so that the tick is sent in a single write
+ * rather than one per message. Messages are encoded straight into a pooled buffer, or copied in if they were already
+ * encoded. A frame is deflated if that makes it smaller.
+ * <p>
+ * Not thread safe; each player's tick gets its own writer.
+ */
+public class TickFrameWriter {
+    /**
+     * The most bytes of messages put into one frame, before compression. A tick with more is split over several
+     * frames, and a message larger than this gets a frame to itself.
+     */
+    public static final int MAX_FRAME_BYTES = 32 * 1024;
+
+    /**
+     * The most bytes of messages put into one snapshot frame, so that it fits in a datagram that isn't fragmented on
+     * the way.
+     */
+    public static final int MAX_SNAPSHOT_FRAME_BYTES = 1024;
+
+    // Frames smaller than this aren't worth deflating.
+    private static final int COMPRESSION_THRESHOLD = 512;
+
+    private static final Queue<Output> bufferPool = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Output> compressedBuffers = ThreadLocal.withInitial(() -> new Output(1024, -1));
+
+    private final int tickID;
+    private final boolean snapshot;
+    private final int maxFrameBytes;
+    private final Consumer<TickFrame> sender;
+
+    private Output buffer;
+    // The number of messages in the buffer.
+    private int count = 0;
+    private int framesSent = 0;
+
+    /**
+     * @param tickID the tick
+     * @param sender sends each frame. The frame refers to pooled buffers, so it has to be written out before this
+     *               returns, as {@link com.esotericsoftware.kryonet.Connection#sendTCP(Object)} and
+     *               {@link com.esotericsoftware.kryonet.Connection#sendUDP(Object)} do.
+     */
+    public TickFrameWriter(int tickID, Consumer<TickFrame> sender) {
+        this(tickID, false, MAX_FRAME_BYTES, sender);
+    }
+
+    /**
+     * @param tickID        the tick
+     * @param snapshot      whether the frames are {@link TickFrame#snapshot snapshot} frames
+     * @param maxFrameBytes the most bytes of messages to put into a frame
+     * @param sender        sends each frame, as above
+     */
+    public TickFrameWriter(int tickID, boolean snapshot, int maxFrameBytes, Consumer<TickFrame> sender) {
+        this.tickID = tickID;
+        this.snapshot = snapshot;
+        this.maxFrameBytes = maxFrameBytes;
+        this.sender = sender;
+        buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = new Output(4096, -1);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Add a message that was already encoded.
+     *
+     * @param message the message
+     */
+    public void add(EncodedMessage message) {
+        if (count > 0 && buffer.position() + message.size() > maxFrameBytes) {
+            send(false, buffer.position());
+            buffer.clear();
+        }
+        message.writeTo(buffer);
+        count++;
+    }
+
+    /**
+     * Encode a message into the frame.
+     *
+     * @param message the message, of a class registered by {@link KryoClassRegisterUtil}
+     */
+    public void add(Object message) {
+        int start = buffer.position();
+        EncodedMessage.getKryo().writeClassAndObject(buffer, message);
+        int end = buffer.position();
+        if (count > 0 && end > maxFrameBytes) {
+            // It doesn't fit, so send what came before it, and start the next frame with it.
+            send(false, start);
+            System.arraycopy(buffer.getBuffer(), start, buffer.getBuffer(), 0, end - start);
+            buffer.setPosition(end - start);
+        }
+        count++;
+    }
+
+    /**
+     * Send the last frame of the tick, even if it is empty, and give the buffer back to the pool. The writer can't be
+     * used after this.
+     */
+    public void finish() {
+        send(true, buffer.position());
+        buffer.clear();
+        bufferPool.offer(buffer);
+        buffer = null;
+    }
+
+    private void send(boolean last, int length) {
+        TickFrame frame = new TickFrame();
+        frame.tickID = tickID;
+        frame.index = framesSent++;
+        frame.last = last;
+        frame.snapshot = snapshot;
+        frame.count = count;
+        frame.uncompressedLength = length;
+        frame.payload = buffer.getBuffer();
+        frame.length = length;
+
+        if (length >= COMPRESSION_THRESHOLD) {
+            Output compressed = compressedBuffers.get();
+            if (compressed.getBuffer().length < length) {
+                compressed.setBuffer(new byte[length], -1);
+            }
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(buffer.getBuffer(), 0, length);
+            deflater.finish();
+            int compressedLength = deflater.deflate(compressed.getBuffer(), 0, length);
+            // If it didn't all fit in as many bytes as it had to begin with, it isn't worth it.
+            if (deflater.finished() && compressedLength < length) {
+                frame.payload = compressed.getBuffer();
+                frame.length = compressedLength;
+                frame.compressed = true;
+            }
+        }
+
+        sender.accept(frame);
+        count = 0;
+    }
+}
@@ -0,0 +1,170 @@
+package rpg.scene.replication;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The last few distinct field states of one replicated object, each with the tick it was captured in. The server
+ * keeps one per component, so that it can send each client what changed since the tick that client last
+ * acknowledged, whichever tick that was.
+ * <p>
+ * A state is only added when it differs from the latest one, so an object that rarely changes keeps a state for as
+ * long as it needs, and the latest state is handed out until it changes.
+ */
+public class FieldReplicationHistory {
+    private final int[] ticks;
+    private final FieldReplicationData[] states;
+    // The latest state is at head; the ones before it go backwards from there, wrapping around.
+    private int head = -1;
+    private int size = 0;
+
+    // The delta from each state to the latest, once asked for, as clients that acknowledged the same tick need the
+    // same one.
+    private final FieldReplicationData[] deltas;
+
+    /**
+     * @param capacity how many states to keep
+     */
+    public FieldReplicationHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1, got " + capacity);
+        }
+        ticks = new int[capacity];
+        states = new FieldReplicationData[capacity];
+        deltas = new FieldReplicationData[capacity];
+    }
+
+    /**
+     * Record the state captured in a tick, unless it is the same as the latest one. Ticks must be added in order.
+     *
+     * @param tick  the tick
+     * @param state the full state, as from {@link RepTable#replicateFull(Object)}
+     * @return true if it was different, and so added
+     */
+    public synchronized boolean add(int tick, FieldReplicationData state) {
+        Objects.requireNonNull(state);
+        if (size > 0) {
+            if (tick < ticks[head]) {
+                throw new IllegalArgumentException("Tick " + tick + " is before the latest, " + ticks[head]);
+            }
+            if (states[head].equals(state)) {
+                return false;
+            }
+        }
+        head = (head + 1) % states.length;
+        ticks[head] = tick;
+        states[head] = state;
+        size = Math.min(size + 1, states.length);
+        Arrays.fill(deltas, null);
+        return true;
+    }
+
+    /**
+     * @return the latest state, or null if there is none
+     */
+    public synchronized FieldReplicationData getLatest() {
+        return size > 0 ? states[head] : null;
+    }
+
+    /**
+     * @return the tick the latest state was captured in
+     */
+    public synchronized int getLatestTick() {
+        if (size == 0) {
+            throw new IllegalStateException("There is no state yet");
+        }
+        return ticks[head];
+    }
+
+    /**
+     * Get the state as it was in a tick.
+     *
+     * @param tick the tick
+     * @return the latest state captured in or before the tick, or null if that isn't kept any more (or the tick is
+     * before the first state)
+     */
+    public synchronized FieldReplicationData getAt(int tick) {
+        for (int i = 0; i < size; i++) {
+            int j = (head - i + states.length) % states.length;
+            if (ticks[j] <= tick) {
+                return states[j];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get what changed since a baseline: every field that changed in any state after it, with its latest value. A
+     * field that changed and then changed back is included, as a client may have applied the states in between
+     * without the server hearing of it yet. The result is shared with other callers passing the same baseline until
+     * the next state is added, so it must not be modified.
+     *
+     * @param baseline an earlier state from this history, such as one from {@link #getAt(int)}
+     * @return the changes, which are empty if the baseline is the latest state, or the whole latest state if the
+     * baseline isn't kept any more
+     */
+    public synchronized FieldReplicationData deltaFrom(FieldReplicationData baseline) {
+        Objects.requireNonNull(baseline);
+        if (size == 0) {
+            throw new IllegalStateException("There is no state yet");
+        }
+        for (int i = 0; i < size; i++) {
+            int j = (head - i + states.length) % states.length;
+            if (states[j] == baseline) {
+                if (deltas[j] == null) {
+                    deltas[j] = changesSince(j);
+                }
+                return deltas[j];
+            }
+        }
+        // What happened after it isn't known any more.
+        return states[head];
+    }
+
+    /**
+     * Get the fields to send a client that was sent the whole state in one tick and has since acknowledged another.
+     * The client can only be relied on to have the state of the acknowledged tick if it was sent the whole state by
+     * then, and if that state is still known.
+     *
+     * @param sentWholeIn the tick the whole state was sent to the client in
+     * @param ackedTick   the latest tick the client acknowledged, of the ones this state was sent in
+     * @return the changes since the acknowledged tick, as from {@link #deltaFrom(FieldReplicationData)}, or else the
+     * whole latest state
+     */
+    public synchronized FieldReplicationData changesFor(int sentWholeIn, int ackedTick) {
+        if (size == 0) {
+            throw new IllegalStateException("There is no state yet");
+        }
+        FieldReplicationData baseline = sentWholeIn > ackedTick ? null : getAt(ackedTick);
+        return baseline == null ? states[head] : deltaFrom(baseline);
+    }
+
+    private FieldReplicationData changesSince(int from) {
+        FieldReplicationData latest = states[head];
+        int numFields = latest.fieldData.size();
+        BitSet changed = new BitSet(latest.fieldChangeset.getSize());
+        for (int j = from; j != head; j = (j + 1) % states.length) {
+            List<Object> before = states[j].fieldData;
+            List<Object> after = states[(j + 1) % states.length].fieldData;
+            for (int f = 0; f < numFields; f++) {
+                if (!changed.get(f) && !Objects.equals(before.get(f), after.get(f))) {
+                    changed.set(f, true);
+                }
+            }
+        }
+
+        FieldReplicationData delta = new FieldReplicationData();
+        delta.fieldChangeset = changed;
+        for (int f = 0; f < numFields; f++) {
+            if (changed.get(f)) {
+                delta.fieldData.add(latest.fieldData.get(f));
+            }
+        }
+        return delta;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
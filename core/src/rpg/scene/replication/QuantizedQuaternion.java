@@ -0,0 +1,100 @@
+package rpg.scene.replication;
+
+import com.badlogic.gdx.math.Quaternion;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A rotation packed into 32 bits, which is how fields marked {@link Replicated#quantized()} are sent. The rotation is
+ * normalized, and only its three smallest components are kept, at 10 bits each; the largest is worked out from them,
+ * as the components of a unit quaternion square to one. The top 2 bits say which one that was.
+ */
+public final class QuantizedQuaternion implements KryoSerializable {
+    private static final int BITS = 10;
+    private static final int MAX = (1 << BITS) - 1;
+    // Zero is HALF, so that the identity comes through exactly.
+    private static final int HALF = MAX / 2;
+    // The smaller three components of a unit quaternion are within this of zero.
+    private static final float RANGE = (float) (1 / Math.sqrt(2));
+
+    private int packed;
+
+    public QuantizedQuaternion() {
+    }
+
+    public static QuantizedQuaternion of(Quaternion rotation) {
+        QuantizedQuaternion q = new QuantizedQuaternion();
+        float len = rotation.len();
+        if (len == 0) {
+            // Treat it as the identity, whose largest component is w.
+            q.packed = pack(3, HALF, HALF, HALF);
+            return q;
+        }
+        float[] c = {rotation.x / len, rotation.y / len, rotation.z / len, rotation.w / len};
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(c[i]) > Math.abs(c[largest])) largest = i;
+        }
+        // q and -q are the same rotation, so the largest component can be taken to be positive.
+        float sign = c[largest] < 0 ? -1 : 1;
+        int[] small = new int[3];
+        for (int i = 0, k = 0; i < 4; i++) {
+            if (i != largest) small[k++] = encode(c[i] * sign);
+        }
+        q.packed = pack(largest, small[0], small[1], small[2]);
+        return q;
+    }
+
+    public Quaternion toQuaternion() {
+        int largest = packed >>> (3 * BITS);
+        float[] c = new float[4];
+        float sum = 0;
+        for (int i = 0, k = 0; i < 4; i++) {
+            if (i == largest) continue;
+            c[i] = decode((packed >>> ((2 - k++) * BITS)) & MAX);
+            sum += c[i] * c[i];
+        }
+        c[largest] = (float) Math.sqrt(Math.max(0, 1 - sum));
+        return new Quaternion(c[0], c[1], c[2], c[3]);
+    }
+
+    private static int pack(int largest, int a, int b, int c) {
+        return (largest << (3 * BITS)) | (a << (2 * BITS)) | (b << BITS) | c;
+    }
+
+    private static int encode(float v) {
+        int bits = Math.round(v / RANGE * HALF) + HALF;
+        return Math.max(0, Math.min(2 * HALF, bits));
+    }
+
+    private static float decode(int bits) {
+        return (float) (bits - HALF) / HALF * RANGE;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output) {
+        output.writeInt(packed);
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+        packed = input.readInt();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof QuantizedQuaternion && ((QuantizedQuaternion) obj).packed == packed;
+    }
+
+    @Override
+    public int hashCode() {
+        return packed;
+    }
+
+    @Override
+    public String toString() {
+        return toQuaternion().toString();
+    }
+}
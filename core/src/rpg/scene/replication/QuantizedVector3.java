@@ -0,0 +1,66 @@
+package rpg.scene.replication;
+
+import com.badlogic.gdx.math.Vector3;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A vector rounded to a grid of {@link #RESOLUTION} steps per unit, which is how fields marked
+ * {@link Replicated#quantized()} are sent. Each component is written as a variable length int, so a position near the
+ * origin takes a few bytes instead of twelve.
+ */
+public final class QuantizedVector3 implements KryoSerializable {
+    public static final int RESOLUTION = 1024;
+
+    private int x, y, z;
+
+    public QuantizedVector3() {
+    }
+
+    public static QuantizedVector3 of(Vector3 v) {
+        QuantizedVector3 q = new QuantizedVector3();
+        q.x = Math.round(v.x * RESOLUTION);
+        q.y = Math.round(v.y * RESOLUTION);
+        q.z = Math.round(v.z * RESOLUTION);
+        return q;
+    }
+
+    public Vector3 toVector3() {
+        return new Vector3((float) x / RESOLUTION, (float) y / RESOLUTION, (float) z / RESOLUTION);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output) {
+        output.writeInt(x, false);
+        output.writeInt(y, false);
+        output.writeInt(z, false);
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+        x = input.readInt(false);
+        y = input.readInt(false);
+        z = input.readInt(false);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof QuantizedVector3)) {
+            return false;
+        }
+        QuantizedVector3 o = (QuantizedVector3) obj;
+        return x == o.x && y == o.y && z == o.z;
+    }
+
+    @Override
+    public int hashCode() {
+        return (x * 31 + y) * 31 + z;
+    }
+
+    @Override
+    public String toString() {
+        return toVector3().toString();
+    }
+}
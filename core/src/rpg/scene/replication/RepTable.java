@@ -1,5 +1,9 @@
 package rpg.scene.replication;
 
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.math.Quaternion;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.math.Vector3;
 import com.esotericsoftware.reflectasm.FieldAccess;
 import com.esotericsoftware.reflectasm.MethodAccess;
 import com.google.common.collect.BiMap;
@@ -23,6 +27,8 @@ public class RepTable {
     private Class<?> type = null;
 
     private List<Integer> fieldsToSerializeFieldAccess = new ArrayList<>();
+    // The positions in fieldsToSerializeFieldAccess of the fields marked quantized.
+    private Set<Integer> quantizedFields = new HashSet<>();
     private FieldAccess fieldAccess;
 
     private BiMap<String, Integer> methodNameToAccessorID = HashBiMap.create();
@@ -96,7 +102,16 @@ public class RepTable {
                 throw new RuntimeException("Replicated fields may not be private.");
             }
 
-            fields.forEach(f -> fieldsToSerializeFieldAccess.add(fieldAccess.getIndex(f.getName())));
+            fields.forEach(f -> {
+                if (f.getAnnotation(Replicated.class).quantized()) {
+                    if (f.getType() != Vector3.class && f.getType() != Quaternion.class) {
+                        throw new RuntimeException("Only Vector3 and Quaternion fields can be quantized, not "
+                                + f.getName());
+                    }
+                    quantizedFields.add(fieldsToSerializeFieldAccess.size());
+                }
+                fieldsToSerializeFieldAccess.add(fieldAccess.getIndex(f.getName()));
+            });
 
             List<Method> methods = Arrays.stream(cc.getDeclaredMethods())
                     .filter(m -> m.getAnnotation(RPC.class) != null)
@@ -130,13 +145,35 @@ public class RepTable {
         FieldReplicationData frd = new FieldReplicationData();
         frd.fieldChangeset = new BitSet(fieldsToSerializeFieldAccess.size());
         frd.fieldChangeset.set(0, fieldsToSerializeFieldAccess.size(), true);
-        frd.fieldData = fieldsToSerializeFieldAccess.stream().map(f -> fieldAccess.get(o, f)).map(RepTable::mapToReplicateContainer).collect(Collectors.toList());
+        frd.fieldData = new ArrayList<>(fieldsToSerializeFieldAccess.size());
+        for (int i = 0; i < fieldsToSerializeFieldAccess.size(); i++) {
+            Object value = fieldAccess.get(o, fieldsToSerializeFieldAccess.get(i));
+            frd.fieldData.add(quantizedFields.contains(i) ? quantize(value) : mapToReplicateContainer(snapshot(value)));
+        }
 
         return frd;
     }
 
     public static Scene scene;
 
+    /**
+     * Copy the mutable math types that components update in place (see {@link rpg.scene.components.Transform}), so a
+     * replication state keeps the value the field had when it was taken and can be diffed against a later one.
+     */
+    private static Object snapshot(Object o) {
+        if (o instanceof Vector3) return ((Vector3) o).cpy();
+        if (o instanceof Vector2) return ((Vector2) o).cpy();
+        if (o instanceof Quaternion) return ((Quaternion) o).cpy();
+        if (o instanceof Color) return ((Color) o).cpy();
+        return o;
+    }
+
+    private static Object quantize(Object o) {
+        if (o instanceof Vector3) return QuantizedVector3.of((Vector3) o);
+        if (o instanceof Quaternion) return QuantizedQuaternion.of((Quaternion) o);
+        return o;
+    }
+
     private static Object mapToReplicateContainer(Object o) {
         if (scene == null) return o;
 
@@ -154,6 +191,8 @@ public class RepTable {
     }
 
     private static Object mapToActualObject(Object o) {
+        if (o instanceof QuantizedVector3) return ((QuantizedVector3) o).toVector3();
+        if (o instanceof QuantizedQuaternion) return ((QuantizedQuaternion) o).toQuaternion();
         if (scene == null) return o;
 
         if (o instanceof NodeReferenceContainer) {
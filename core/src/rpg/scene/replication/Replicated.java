@@ -12,4 +12,10 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.FIELD})
 public @interface Replicated {
+    /**
+     * Send a {@link com.badlogic.gdx.math.Vector3} field as a {@link QuantizedVector3}, or a
+     * {@link com.badlogic.gdx.math.Quaternion} field as a {@link QuantizedQuaternion}, which are smaller but lose some
+     * precision. Changes too small to survive quantization aren't sent at all.
+     */
+    boolean quantized() default false;
 }
@@ -0,0 +1,93 @@
+package rpg.scene.systems;
+
+import rpg.scene.SceneEvent;
+import rpg.scene.components.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Declares which scene events a {@link SceneSystem} wants, so the scene can skip it for the rest: either every event of
+ * some kinds, or every component event for components of some types (classes or interfaces).
+ * <p>
+ * The scene reads a system's interest once, when the system is added, so it must not change afterwards.
+ */
+public final class EventInterest {
+    public static final EventInterest ALL = new EventInterest(EnumSet.allOf(SceneEvent.Kind.class),
+            Collections.emptySet());
+
+    private static final EventInterest NONE = new EventInterest(EnumSet.noneOf(SceneEvent.Kind.class),
+            Collections.emptySet());
+
+    private final Set<SceneEvent.Kind> kinds;
+    private final Set<Class<?>> componentTypes;
+
+    private EventInterest(Set<SceneEvent.Kind> kinds, Set<Class<?>> componentTypes) {
+        this.kinds = kinds;
+        this.componentTypes = componentTypes;
+    }
+
+    /**
+     * Interest in no events at all. Add to it with {@link #kinds(SceneEvent.Kind...)} and
+     * {@link #components(Class[])}.
+     *
+     * @return an empty interest
+     */
+    public static EventInterest none() {
+        return NONE;
+    }
+
+    /**
+     * @param kinds event kinds to receive, whatever they are about
+     * @return this interest plus the given kinds
+     */
+    public EventInterest kinds(SceneEvent.Kind... kinds) {
+        Set<SceneEvent.Kind> newKinds = EnumSet.noneOf(SceneEvent.Kind.class);
+        newKinds.addAll(this.kinds);
+        newKinds.addAll(Arrays.asList(kinds));
+        return new EventInterest(Collections.unmodifiableSet(newKinds), componentTypes);
+    }
+
+    /**
+     * @param types component types to receive attach, reattach and detach events for, including subtypes
+     * @return this interest plus the given types
+     */
+    public EventInterest components(Class<?>... types) {
+        Set<Class<?>> newTypes = new HashSet<>(componentTypes);
+        newTypes.addAll(Arrays.asList(types));
+        return new EventInterest(kinds, Collections.unmodifiableSet(newTypes));
+    }
+
+    public Set<SceneEvent.Kind> getKinds() {
+        return kinds;
+    }
+
+    public Set<Class<?>> getComponentTypes() {
+        return componentTypes;
+    }
+
+    /**
+     * Whether a system with this interest wants an event.
+     *
+     * @param kind          the kind of event
+     * @param componentType the type of the component, for component events
+     * @return true if the event should be delivered
+     */
+    public boolean accepts(SceneEvent.Kind kind, Class<? extends Component> componentType) {
+        if (kinds.contains(kind)) {
+            return true;
+        }
+        if (!kind.isComponentEvent()) {
+            return false;
+        }
+        for (Class<?> t : componentTypes) {
+            if (t.isAssignableFrom(componentType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,26 +1,365 @@
 package rpg.scene.systems;
 
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.ObjectIntMap;
 import rpg.scene.Node;
+import rpg.scene.Scene;
+import rpg.scene.SceneCommandBuffer;
+import rpg.scene.SceneEventBatch;
+import rpg.scene.SystemHandle;
+import rpg.scene.components.Component;
 import rpg.scene.components.Steppable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 /**
  * A system that processes all Steppable components added to the scene.
+ * <p>
+ * Rather than walking the scene graph and filtering every node's components each frame, the system keeps a dense
+ * array of the Steppables in the scene, maintained from the attach and detach events. Components are stepped in the
+ * order they were attached.
+ * <p>
+ * In parallel mode (see {@link #setParallel(boolean)}) the Steppables are instead split into square cells by where
+ * their node is in the {@link Node2DQuerySystem}, and the cells are stepped in four passes, checkerboard fashion, so
+ * that no two cells stepped at the same time are next to each other. The cells of a pass run concurrently on the
+ * scene's system pool when the scene runs its systems in parallel, and one after the other otherwise; either way the
+ * outcome is the same. For that to hold:
+ * <ul>
+ * <li>a Steppable may only modify its own node directly, and read nodes less than a cell away from it;</li>
+ * <li>anything else, such as hurting another unit or attaching and detaching nodes, has to go through the scene's
+ * command buffer. Each cell's commands are applied after all of the passes, in a fixed order;</li>
+ * <li>the query system is frozen while stepping, so queries see where nodes were at the start of the frame.</li>
+ * </ul>
  */
 public class GameLogicSystem extends AbstractSceneSystem {
 
+    private Steppable[] steppables = new Steppable[256];
+    private int count = 0;
+
+    // Slot of each registered Steppable in the array.
+    private ObjectIntMap<Steppable> indices = new ObjectIntMap<>(256);
+
+    // Detached Steppables leave a null slot behind, which is compacted away before the next pass.
+    private int holes = 0;
+
+    private boolean parallel = false;
+    private float cellSize = 16;
+
+    // The cells in use this frame by key, and sorted into the four checkerboard passes. Cells are pooled.
+    private final LongMap<Cell> cells = new LongMap<>();
+    private final Array<Cell>[] passes = newPasses();
+    private final Array<Cell> freeCells = new Array<>(false, 16);
+    private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    private final Vector3 position = new Vector3();
+    private final Rectangle bounds = new Rectangle();
+
+    private SystemHandle<Node2DQuerySystem> querySystem;
+
+    private static final Comparator<Cell> BY_KEY = (a, b) -> Long.compare(a.key, b.key);
+
+    private static final class Cell {
+        long key;
+        final IntArray members = new IntArray();
+        final List<Runnable> commands = new ArrayList<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Array<Cell>[] newPasses() {
+        Array<Cell>[] passes = (Array<Cell>[]) new Array<?>[4];
+        for (int i = 0; i < passes.length; i++) {
+            passes[i] = new Array<>(Cell.class);
+        }
+        return passes;
+    }
+
+    @Override
+    public void setParent(Scene parent) {
+        super.setParent(parent);
+
+        Arrays.fill(steppables, 0, count, null);
+        count = 0;
+        holes = 0;
+        indices.clear();
+        querySystem = parent != null ? parent.getSystemHandle(Node2DQuerySystem.class) : null;
+
+        // Pick up whatever was in the scene before this system was added.
+        if (parent != null) {
+            register(parent.getRoot());
+        }
+    }
+
+    @Override
+    public void beginProcessing(float deltaTime) {
+        if (holes > 0) {
+            compact();
+        }
+
+        // Steppables attached during the pass are appended past the end and first stepped next frame. Ones detached
+        // during the pass have their slot nulled, so they are never stepped afterwards.
+        int end = count;
+        if (parallel) {
+            stepPartitioned(deltaTime, end);
+            return;
+        }
+        for (int i = 0; i < end; i++) {
+            Steppable s = steppables[i];
+            if (s != null) {
+                s.step(deltaTime);
+            }
+        }
+    }
+
     @Override
-    public void enterNode(Node n, float deltaTime) {
+    public boolean doesProcessNodes() {
+        return false;
+    }
 
+    @Override
+    public EventInterest getEventInterest() {
+        return EventInterest.none().components(Steppable.class);
     }
 
     @Override
-    public void processNode(Node n, float deltaTime) {
-        n.findComponents(c -> c instanceof Steppable)
-                .forEach(s -> ((Steppable) s).step(deltaTime));
+    public void processEvents(SceneEventBatch batch) {
+        // Make room for a whole burst of spawns at once rather than doubling repeatedly.
+        if (count + batch.size() > steppables.length) {
+            steppables = Arrays.copyOf(steppables, Math.max(count + batch.size(), count * 2));
+        }
+        batch.deliverEach(this);
     }
 
     @Override
-    public void exitNode(Node n, float deltaTime) {
+    public void componentAttached(Component c) {
+        if (c instanceof Steppable) {
+            add((Steppable) c);
+        }
+    }
+
+    @Override
+    public void componentDetached(Component c) {
+        if (c instanceof Steppable) {
+            remove((Steppable) c);
+        }
+    }
+
+    /**
+     * Step Steppables in spatial cells, possibly on several threads, instead of in the order they were attached. Off
+     * by default; see the class documentation for what this requires of the Steppables in the scene.
+     *
+     * @param parallel true to step in cells
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Set the size of the cells used in parallel mode. Steppables must not reach further than this from their own
+     * node, so it should be at least the largest range anything in the scene looks for other nodes in.
+     *
+     * @param cellSize the width and height of a cell, in world units
+     */
+    public void setCellSize(float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive.");
+        }
+        this.cellSize = cellSize;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Get the number of Steppables the system is currently stepping.
+     *
+     * @return the number of registered Steppables
+     */
+    public int getNumSteppables() {
+        return indices.size;
+    }
+
+    private void stepPartitioned(float deltaTime, int end) {
+        Node2DQuerySystem query = querySystem.get();
+        if (query != null) {
+            query.setFrozen(true);
+        }
+        try {
+            partition(end, query);
+            SceneCommandBuffer commandBuffer = getParent().getCommandBuffer();
+            for (Array<Cell> pass : passes) {
+                if (pass.size == 0) {
+                    continue;
+                }
+                pass.sort(BY_KEY);
+                runPass(pass, deltaTime);
+            }
+            // Apply cross-cell effects in pass and cell order, whichever thread recorded them first.
+            for (Array<Cell> pass : passes) {
+                for (int i = 0; i < pass.size; i++) {
+                    commandBuffer.append(pass.get(i).commands);
+                }
+            }
+        } finally {
+            if (query != null) {
+                query.setFrozen(false);
+            }
+            releaseCells();
+        }
+    }
+
+    private void partition(int end, Node2DQuerySystem query) {
+        for (int i = 0; i < end; i++) {
+            Steppable s = steppables[i];
+            if (s == null) {
+                continue;
+            }
+            Node n = ((Component) s).getParent();
+            Rectangle indexed = query != null ? query.getIndexedBounds(n, bounds) : null;
+            float x, y;
+            if (indexed != null) {
+                x = indexed.x + indexed.width / 2;
+                y = indexed.y + indexed.height / 2;
+            } else {
+                position.set(n.getTransform().getWorldPosition());
+                x = position.x;
+                y = position.y;
+            }
+
+            int cx = MathUtils.floor(x / cellSize);
+            int cy = MathUtils.floor(y / cellSize);
+            long key = ((long) cx << 32) | (cy & 0xffffffffL);
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                cell = freeCells.size > 0 ? freeCells.pop() : new Cell();
+                cell.key = key;
+                cells.put(key, cell);
+                passes[(cx & 1) | ((cy & 1) << 1)].add(cell);
+            }
+            cell.members.add(i);
+        }
+    }
+
+    private void runPass(Array<Cell> pass, float deltaTime) {
+        SceneCommandBuffer commandBuffer = getParent().getCommandBuffer();
+        if (pass.size == 1 || !getParent().isParallelSystems()) {
+            for (int i = 0; i < pass.size; i++) {
+                stepCell(pass.get(i), deltaTime, commandBuffer);
+            }
+            return;
+        }
+
+        // Like the scheduler, run the first cell on this thread and the rest on the pool.
+        ForkJoinPool pool = getParent().getSystemPool();
+        for (int i = 1; i < pass.size; i++) {
+            Cell cell = pass.get(i);
+            tasks.add(pool.submit(() -> stepCell(cell, deltaTime, commandBuffer)));
+        }
+
+        RuntimeException failure = null;
+        try {
+            stepCell(pass.get(0), deltaTime, commandBuffer);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (ForkJoinTask<?> t : tasks) {
+            try {
+                t.join();
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        tasks.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void stepCell(Cell cell, float deltaTime, SceneCommandBuffer commandBuffer) {
+        commandBuffer.startRecording(cell.commands);
+        try {
+            IntArray members = cell.members;
+            for (int i = 0; i < members.size; i++) {
+                Steppable s = steppables[members.get(i)];
+                if (s != null) {
+                    s.step(deltaTime);
+                }
+            }
+        } finally {
+            commandBuffer.stopRecording();
+        }
+    }
+
+    private void releaseCells() {
+        for (Array<Cell> pass : passes) {
+            for (int i = 0; i < pass.size; i++) {
+                Cell cell = pass.get(i);
+                cell.members.clear();
+                cell.commands.clear();
+                freeCells.add(cell);
+            }
+            pass.clear();
+        }
+        cells.clear();
+    }
+
+    private void register(Node n) {
+        for (Component c : n.getComponents()) {
+            componentAttached(c);
+        }
+        for (Node child : n.getChildren()) {
+            register(child);
+        }
+    }
+
+    private void add(Steppable s) {
+        if (indices.containsKey(s)) {
+            return;
+        }
+        if (count == steppables.length) {
+            steppables = Arrays.copyOf(steppables, count * 2);
+        }
+        indices.put(s, count);
+        steppables[count++] = s;
+    }
+
+    private void remove(Steppable s) {
+        int i = indices.remove(s, -1);
+        if (i < 0) {
+            return;
+        }
+        steppables[i] = null;
+        holes++;
+    }
 
+    private void compact() {
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            Steppable s = steppables[i];
+            if (s == null) {
+                continue;
+            }
+            if (i != j) {
+                steppables[j] = s;
+                indices.put(s, j);
+            }
+            j++;
+        }
+        Arrays.fill(steppables, j, count, null);
+        count = j;
+        holes = 0;
     }
 }
@@ -35,6 +35,11 @@ public final class GdxAssetManagerSystem extends AbstractSceneSystem {
         return false;
     }
 
+    @Override
+    public EventInterest getEventInterest() {
+        return EventInterest.none();
+    }
+
     public boolean isLoading() {
         return loading;
     }
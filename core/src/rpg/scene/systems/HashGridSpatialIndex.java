@@ -0,0 +1,263 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+import rpg.scene.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SpatialIndex} that buckets nodes into a uniform grid of square cells, hashed by cell coordinates. It is
+ * meant for many moving nodes of about the same size, like bullets and units: moving a node within its cells only
+ * updates its bounds, and moving it to other cells only touches those cells' buckets.
+ * <p>
+ * The cell size should be around the size of the nodes, or a little larger. A node covering more than
+ * {@link #MAX_CELLS_PER_NODE} cells (a tilemap, say) is kept in a separate list that every search checks.
+ */
+public class HashGridSpatialIndex implements SpatialIndex {
+    public static final int MAX_CELLS_PER_NODE = 64;
+
+    private final float cellSize;
+
+    private final LongMap<Array<Entry>> cells = new LongMap<>();
+    private final Map<Node, Entry> entries = new HashMap<>();
+    private final Array<Entry> oversized = new Array<>(false, 4, Entry.class);
+
+    // Empty buckets, kept for reuse.
+    private final Array<Array<Entry>> freeBuckets = new Array<>(false, 16);
+
+    private static final class Entry {
+        final Node node;
+        float minX, minY, maxX, maxY;
+        // The cells the entry is in, inclusive. Unused for oversized entries.
+        int cx0, cy0, cx1, cy1;
+        boolean isOversized;
+
+        Entry(Node node) {
+            this.node = node;
+        }
+
+        boolean overlaps(float minX, float minY, float maxX, float maxY) {
+            return this.minX <= maxX && minX <= this.maxX && this.minY <= maxY && minY <= this.maxY;
+        }
+    }
+
+    public HashGridSpatialIndex(float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive, got " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    @Override
+    public void put(Node n, float minX, float minY, float maxX, float maxY) {
+        int cx0 = cell(minX), cy0 = cell(minY), cx1 = cell(maxX), cy1 = cell(maxY);
+        boolean isOversized = ((long) cx1 - cx0 + 1) * ((long) cy1 - cy0 + 1) > MAX_CELLS_PER_NODE;
+
+        Entry e = entries.get(n);
+        boolean sameCells = e != null && e.isOversized == isOversized
+                && (isOversized || (e.cx0 == cx0 && e.cy0 == cy0 && e.cx1 == cx1 && e.cy1 == cy1));
+        if (e == null) {
+            e = new Entry(n);
+            entries.put(n, e);
+        } else if (!sameCells) {
+            unlink(e);
+        }
+
+        e.minX = minX;
+        e.minY = minY;
+        e.maxX = maxX;
+        e.maxY = maxY;
+        if (!sameCells) {
+            e.cx0 = cx0;
+            e.cy0 = cy0;
+            e.cx1 = cx1;
+            e.cy1 = cy1;
+            e.isOversized = isOversized;
+            link(e);
+        }
+    }
+
+    @Override
+    public boolean remove(Node n) {
+        Entry e = entries.remove(n);
+        if (e == null) {
+            return false;
+        }
+        unlink(e);
+        return true;
+    }
+
+    @Override
+    public Rectangle getBounds(Node n, Rectangle out) {
+        Entry e = entries.get(n);
+        if (e == null) {
+            return null;
+        }
+        return out.set(e.minX, e.minY, e.maxX - e.minX, e.maxY - e.minY);
+    }
+
+    @Override
+    public void search(float minX, float minY, float maxX, float maxY, NodeVisitor visitor) {
+        for (int i = 0; i < oversized.size; i++) {
+            Entry e = oversized.get(i);
+            if (e.overlaps(minX, minY, maxX, maxY)) {
+                visitor.visit(e.node);
+            }
+        }
+
+        int qx0 = cell(minX), qy0 = cell(minY), qx1 = cell(maxX), qy1 = cell(maxY);
+        if (((long) qx1 - qx0 + 1) * ((long) qy1 - qy0 + 1) > cells.size) {
+            // The area covers more cells than are occupied, so it's quicker to check every entry.
+            for (Entry e : entries.values()) {
+                if (!e.isOversized && e.overlaps(minX, minY, maxX, maxY)) {
+                    visitor.visit(e.node);
+                }
+            }
+            return;
+        }
+
+        for (int cy = qy0; cy <= qy1; cy++) {
+            for (int cx = qx0; cx <= qx1; cx++) {
+                Array<Entry> bucket = cells.get(key(cx, cy));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size; i++) {
+                    Entry e = bucket.get(i);
+                    // An entry spanning several cells is only reported from the first of them inside the area.
+                    if (cx == Math.max(e.cx0, qx0) && cy == Math.max(e.cy0, qy0)
+                            && e.overlaps(minX, minY, maxX, maxY)) {
+                        visitor.visit(e.node);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void searchByDistance(float x, float y, NodeDistanceVisitor visitor) {
+        for (int i = 0; i < oversized.size; i++) {
+            visitIfInRange(oversized.get(i), x, y, visitor);
+        }
+
+        // Go round the point's cell in square rings, each a cell further out, until a whole ring is out of range.
+        int qx = cell(x), qy = cell(y);
+        int cellsVisited = 0;
+        for (int ring = 0; ; ring++) {
+            float ringDistance = Math.max(ring - 1, 0) * cellSize;
+            if (ringDistance * ringDistance > visitor.getMaxDistanceSquared()) {
+                return;
+            }
+            int ringCells = ring == 0 ? 1 : ring * 8;
+            if (cellsVisited + ringCells > cells.size) {
+                // The ring has more cells than are occupied, so it's quicker to check every entry not yet visited.
+                for (Entry e : entries.values()) {
+                    if (!e.isOversized && ringOf(e, qx, qy) >= ring) {
+                        visitIfInRange(e, x, y, visitor);
+                    }
+                }
+                return;
+            }
+            cellsVisited += ringCells;
+
+            for (int cy = qy - ring; cy <= qy + ring; cy++) {
+                // Only the first and last rows are whole; the others just have their ends in the ring.
+                int step = cy == qy - ring || cy == qy + ring ? 1 : Math.max(ring * 2, 1);
+                for (int cx = qx - ring; cx <= qx + ring; cx += step) {
+                    Array<Entry> bucket = cells.get(key(cx, cy));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < bucket.size; i++) {
+                        Entry e = bucket.get(i);
+                        // An entry spanning several cells is only visited from its cell nearest the point's, which is
+                        // in the first ring that reaches it.
+                        if (cx == clamp(qx, e.cx0, e.cx1) && cy == clamp(qy, e.cy0, e.cy1)) {
+                            visitIfInRange(e, x, y, visitor);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void visitIfInRange(Entry e, float x, float y, NodeDistanceVisitor visitor) {
+        float distanceSquared = NodeDistanceVisitor.distanceSquared(x, y, e.minX, e.minY, e.maxX, e.maxY);
+        if (distanceSquared <= visitor.getMaxDistanceSquared()) {
+            visitor.visit(e.node, distanceSquared);
+        }
+    }
+
+    // The ring around the given cell that an entry is first reached in.
+    private static int ringOf(Entry e, int qx, int qy) {
+        return Math.max(Math.abs(clamp(qx, e.cx0, e.cx1) - qx), Math.abs(clamp(qy, e.cy0, e.cy1) - qy));
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    @Override
+    public void forEach(NodeVisitor visitor) {
+        for (Node n : entries.keySet()) {
+            visitor.visit(n);
+        }
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    private int cell(float coordinate) {
+        // Not MathUtils.floor, which is only exact for small values.
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private void link(Entry e) {
+        if (e.isOversized) {
+            oversized.add(e);
+            return;
+        }
+        for (int cy = e.cy0; cy <= e.cy1; cy++) {
+            for (int cx = e.cx0; cx <= e.cx1; cx++) {
+                long key = key(cx, cy);
+                Array<Entry> bucket = cells.get(key);
+                if (bucket == null) {
+                    bucket = freeBuckets.size > 0 ? freeBuckets.pop() : new Array<>(false, 4, Entry.class);
+                    cells.put(key, bucket);
+                }
+                bucket.add(e);
+            }
+        }
+    }
+
+    private void unlink(Entry e) {
+        if (e.isOversized) {
+            oversized.removeValue(e, true);
+            return;
+        }
+        for (int cy = e.cy0; cy <= e.cy1; cy++) {
+            for (int cx = e.cx0; cx <= e.cx1; cx++) {
+                long key = key(cx, cy);
+                Array<Entry> bucket = cells.get(key);
+                bucket.removeValue(e, true);
+                if (bucket.size == 0) {
+                    cells.remove(key);
+                    freeBuckets.add(bucket);
+                }
+            }
+        }
+    }
+}
@@ -7,17 +7,17 @@ import rpg.scene.Node;
 import rpg.scene.components.Component;
 import rpg.scene.components.InputEventListener;
 
-import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.Queue;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class InputSystem extends AbstractSceneSystem implements InputProcessor {
 
     private Queue<InputEvent> inputQueue = new ConcurrentLinkedQueue<>();
 
-    private Set<Component> listeners = new TreeSet<>(Comparator.comparingInt(Component::getNetworkID));
+    // In the order they were attached. A component's network ID can change if it is detached and attached again.
+    private Set<Component> listeners = new LinkedHashSet<>();
 
     public static class InputEvent {
         public EventType getType() {
@@ -98,6 +98,11 @@ public class InputSystem extends AbstractSceneSystem implements InputProcessor {
         return false;
     }
 
+    @Override
+    public EventInterest getEventInterest() {
+        return EventInterest.none().components(InputEventListener.class);
+    }
+
     @Override
     public void componentAttached(Component c) {
         if (c instanceof InputEventListener) {
@@ -0,0 +1,116 @@
+package rpg.scene.systems;
+
+import rpg.scene.Node;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * The result of a k-nearest query (see {@link Node2DQuerySystem#findNearestNodes(float, float, float, NearestNodes)}):
+ * up to k nodes, nearest first. Keep one around and reuse it to query without allocating.
+ */
+public final class NearestNodes implements NodeDistanceVisitor {
+    private final Node[] nodes;
+    private final float[] distancesSquared;
+    private int size;
+    private float maxDistanceSquared;
+    private Predicate<Node> filter;
+
+    public NearestNodes(int k) {
+        this(k, null);
+    }
+
+    public NearestNodes(int k, Predicate<Node> filter) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1, got " + k);
+        }
+        nodes = new Node[k];
+        distancesSquared = new float[k];
+        this.filter = filter;
+    }
+
+    /**
+     * Only count nodes that pass the given filter, such as nodes with a certain component.
+     *
+     * @param filter the filter, or null to count every node
+     */
+    public void setFilter(Predicate<Node> filter) {
+        this.filter = filter;
+    }
+
+    public Predicate<Node> getFilter() {
+        return filter;
+    }
+
+    /**
+     * Start a new query, forgetting the last one's results.
+     *
+     * @param maxDistance how far away to look
+     */
+    public void reset(float maxDistance) {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+        maxDistanceSquared = maxDistance * maxDistance;
+    }
+
+    public int getK() {
+        return nodes.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param i the rank, 0 being the nearest
+     * @return the node
+     */
+    public Node get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException(i + " >= " + size);
+        }
+        return nodes[i];
+    }
+
+    public float getDistanceSquared(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException(i + " >= " + size);
+        }
+        return distancesSquared[i];
+    }
+
+    /**
+     * @return the nearest node, or null if none was found
+     */
+    public Node first() {
+        return size == 0 ? null : nodes[0];
+    }
+
+    @Override
+    public float getMaxDistanceSquared() {
+        // Once k nodes are found, only nearer ones matter.
+        return size == nodes.length ? distancesSquared[size - 1] : maxDistanceSquared;
+    }
+
+    @Override
+    public void visit(Node n, float distanceSquared) {
+        if (distanceSquared > getMaxDistanceSquared()) return;
+        if (size == nodes.length && distanceSquared == distancesSquared[size - 1]) return;
+        if (filter != null && !filter.test(n)) return;
+
+        // Insertion into the sorted arrays; k is small.
+        int i = Math.min(size, nodes.length - 1);
+        while (i > 0 && distancesSquared[i - 1] > distanceSquared) {
+            nodes[i] = nodes[i - 1];
+            distancesSquared[i] = distancesSquared[i - 1];
+            i--;
+        }
+        nodes[i] = n;
+        distancesSquared[i] = distanceSquared;
+        if (size < nodes.length) size++;
+    }
+}
@@ -1,190 +1,657 @@
 package rpg.scene.systems;
 
-import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Rectangle;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.RTree;
-import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Geometry;
+import com.badlogic.gdx.utils.Array;
 import rpg.scene.Node;
+import rpg.scene.SceneEvent;
 import rpg.scene.components.Component;
 import rpg.scene.components.Spatial2D;
+import rpg.scene.components.Transform;
 
-import java.util.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
 
+/**
+ * Keeps the 2D bounds of every node in the scene in a {@link SpatialIndex}, for broad-phase queries. By default the
+ * index is an {@link RTreeSpatialIndex}; a scene full of small moving nodes is better off with a
+ * {@link HashGridSpatialIndex}.
+ * <p>
+ * Nodes that don't move are kept out of that index, in a {@link StaticSpatialIndex} that is only rebuilt when the set
+ * of them changes, and queries search both. Stationary nodes (see {@link Node#isStationary()}) go there straight away,
+ * other nodes once they have stayed still for a while (see {@link #setStaticAfterFrames(int)}), and they go back to
+ * the dynamic index as soon as they move.
+ * <p>
+ * Most queries only care about nodes with some component, like players. Each such component type can be given a layer
+ * (see {@link #addLayer(Class, SpatialIndex)}): an extra index of just the nodes that have one, which layered queries
+ * search instead of everything.
+ */
 public class Node2DQuerySystem extends AbstractSceneSystem {
+    public static final int DEFAULT_STATIC_AFTER_FRAMES = 120;
+    // How often, in frames, to look for nodes that have become still.
+    private static final int PROMOTION_INTERVAL = 30;
+    // Holes in the static index tolerated before rebuilding it, on top of a quarter of its size.
+    private static final int STALE_STATIC_SLACK = StaticSpatialIndex.NODE_CAPACITY;
 
-    protected RTree<Node, Geometry> rtree = RTree.create();
-    protected final Object rtreeLock = new Object();
+    protected final SpatialIndex index;
+    protected StaticSpatialIndex staticIndex = StaticSpatialIndex.EMPTY;
+    // Searches share the indexes; applying changes to them is exclusive. Unlike a ReentrantReadWriteLock, taking a
+    // read lock doesn't allocate when several threads query at once.
+    protected final StampedLock indexLock = new StampedLock();
 
-    protected final Set<Node> dirtyNodes = new HashSet<>();
-    protected final Set<Node> removedNodes = new HashSet<>();
-    protected Map<Node, Geometry> nodeToGeom = new HashMap<>();
+    // Nodes to reindex and to drop from the tree, in the order they were reported. A node is only put in dirtyNodes
+    // once between rebuilds (see Node#isQueuedForQuery()), so both lists are drained in a single pass.
+    protected final Array<Node> dirtyNodes = new Array<>(false, 64, Node.class);
+    protected final Array<Node> removedNodes = new Array<>(false, 16, Node.class);
+    private final Rectangle bounds = new Rectangle();
 
-    private boolean treeDirty = false;
+    // Where every indexed node is, and which index it is in.
+    private final Map<Node, Placement> placements = new HashMap<>();
+    private int numStatic = 0;
+    private boolean staticIndexDirty = false;
+
+    private final Map<Class<?>, Layer> layers = new HashMap<>();
+    private final Array<Layer> layerList = new Array<>(false, 4, Layer.class);
+
+    private int staticAfterFrames = DEFAULT_STATIC_AFTER_FRAMES;
+    private int frame = 0;
+    private int lastPromotionFrame = 0;
+
+    private volatile boolean treeDirty = false;
+
+    private volatile boolean frozen = false;
+
+    public Node2DQuerySystem() {
+        this(new RTreeSpatialIndex());
+    }
+
+    public Node2DQuerySystem(SpatialIndex index) {
+        this.index = Objects.requireNonNull(index);
+    }
+
+    private static final class Placement {
+        final Node node;
+        boolean isStatic;
+        // Where the node is in staticIndex, or -1 if it is static but the index hasn't been built since.
+        int staticSlot = -1;
+        int lastMovedFrame;
+        float minX, minY, maxX, maxY;
+
+        Placement(Node node) {
+            this.node = node;
+        }
+    }
+
+    private static final class Layer {
+        final Class<?> type;
+        final SpatialIndex index;
+
+        Layer(Class<?> type, SpatialIndex index) {
+            this.type = type;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Keep the nodes that have a component of the given type in a separate index as well, for layered queries. Nodes
+     * join and leave the layer as the component is added and removed. Layers have to be added before the system is
+     * added to a scene.
+     *
+     * @param componentType the component class or interface
+     * @param layerIndex    an empty index for the layer
+     */
+    public void addLayer(Class<?> componentType, SpatialIndex layerIndex) {
+        if (getParent() != null) {
+            throw new IllegalStateException("Layers must be added before the system is added to a scene");
+        }
+        if (layers.containsKey(componentType)) {
+            throw new IllegalArgumentException("There is already a layer for " + componentType.getName());
+        }
+        Layer layer = new Layer(componentType, Objects.requireNonNull(layerIndex));
+        layers.put(componentType, layer);
+        layerList.add(layer);
+    }
+
+    public boolean hasLayer(Class<?> componentType) {
+        return layers.containsKey(componentType);
+    }
+
+    /**
+     * Get the index of the nodes that move. Nodes in the static index aren't in it.
+     *
+     * @return the dynamic index
+     */
+    public SpatialIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Set how many frames a node has to stay still before it is moved to the static index.
+     *
+     * @param staticAfterFrames the number of frames, or 0 to only put stationary nodes in the static index
+     */
+    public void setStaticAfterFrames(int staticAfterFrames) {
+        this.staticAfterFrames = staticAfterFrames;
+    }
+
+    public int getStaticAfterFrames() {
+        return staticAfterFrames;
+    }
+
+    /**
+     * Whether a node was in the static index when the tree was last rebuilt.
+     *
+     * @param n the node
+     * @return true if the node is in the static index
+     */
+    public boolean isInStaticIndex(Node n) {
+        long stamp = indexLock.readLock();
+        try {
+            Placement p = placements.get(n);
+            return p != null && p.isStatic;
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
 
     public boolean doesProcessNodes() {
         return false;
     }
 
+    @Override
+    public void beginProcessing() {
+        frame++;
+        if (staticAfterFrames > 0 && frame - lastPromotionFrame >= PROMOTION_INTERVAL) {
+            treeDirty = true;
+        }
+        // Rebuild the tree here, where it can run alongside other systems, instead of in the first query of the frame.
+        if (treeDirty) evaluateTreeChanges();
+    }
+
+    // Reading a node's world position brings its transform's cached world transform up to date, so it counts as a
+    // write.
+    @Override
+    public SystemAccess getAccess() {
+        return SystemAccess.none().reading(Spatial2D.class).writing(Transform.class);
+    }
+
+    // A node's geometry only depends on where it is and its Spatial2D components, and its layers on its components of
+    // the layers' types.
+    @Override
+    public EventInterest getEventInterest() {
+        EventInterest interest = EventInterest.none()
+                .kinds(SceneEvent.Kind.NodeAttached, SceneEvent.Kind.NodeReattached, SceneEvent.Kind.NodeDetached)
+                .components(Spatial2D.class);
+        for (Layer layer : layerList) {
+            interest = interest.components(layer.type);
+        }
+        return interest;
+    }
+
     @Override
     public void nodeAttached(Node n) {
-        dirtyNodes.add(n);
-        treeDirty = true;
+        addDirtyNode(n);
     }
 
     @Override
     public void nodeReattached(Node n) {
-        dirtyNodes.add(n);
-        treeDirty = true;
+        addDirtyNode(n);
     }
 
     @Override
-    public void nodeDetached(Node n) {
+    public synchronized void nodeDetached(Node n) {
         removedNodes.add(n);
         treeDirty = true;
     }
 
     @Override
     public void componentAttached(Component c) {
-        dirtyNodes.add(c.getParent());
-        treeDirty = true;
+        if (c.getParent() != null) addDirtyNode(c.getParent());
     }
 
     @Override
-    public void componentDetached(Component c) {
-        dirtyNodes.add(c.getParent());
-        treeDirty = true;
+    public void componentDetached(Component c, Node from) {
+        // The component's parent is already cleared.
+        if (from != null) addDirtyNode(from);
     }
 
     @Override
     public void componentReattached(Component c) {
-        dirtyNodes.add(c.getParent());
-        treeDirty = true;
+        if (c.getParent() != null) addDirtyNode(c.getParent());
     }
 
-    public void addDirtyNode(Node n) {
+    /**
+     * Queue a node to be reindexed, because it moved or its bounds changed. Queuing a node that is already queued
+     * does nothing.
+     *
+     * @param n the node
+     */
+    public synchronized void addDirtyNode(Node n) {
+        if (n.isQueuedForQuery()) {
+            return;
+        }
+        n.setQueuedForQuery(true);
         dirtyNodes.add(n);
         treeDirty = true;
     }
 
-    protected synchronized void evaluateTreeChanges() {
-        RTree<Node, Geometry> rt = rtree;
+    /**
+     * Get the number of nodes waiting to be reindexed.
+     *
+     * @return the number of queued nodes
+     */
+    public synchronized int getNumDirtyNodes() {
+        return dirtyNodes.size;
+    }
+
+    /**
+     * Freeze or thaw the tree. While frozen, queries answer from the tree as it was when it was frozen, and changes
+     * are only recorded; they are applied when the tree is next queried after thawing. This lets many threads query
+     * while the nodes they are stepping move, and gives every query in the frozen period the same view.
+     *
+     * @param frozen true to freeze the tree
+     */
+    public void setFrozen(boolean frozen) {
+        if (frozen && treeDirty) {
+            evaluateTreeChanges();
+        }
+        this.frozen = frozen;
+    }
 
-        dirtyNodes.removeAll(removedNodes);
+    public boolean isFrozen() {
+        return frozen;
+    }
 
-        // Remove removed nodes
-        ArrayList<Entry<Node, Geometry>> pairs = new ArrayList<>();
-        for (Node n : removedNodes) {
-            Geometry g = nodeToGeom.get(n);
-            if (g != null) {
-                pairs.add(Entry.entry(n, g));
+    /**
+     * Get the bounds a node was indexed with when the tree was last rebuilt.
+     *
+     * @param n   the node
+     * @param out the rectangle to write the bounds to
+     * @return out, or null if the node isn't in the tree
+     */
+    public Rectangle getIndexedBounds(Node n, Rectangle out) {
+        long stamp = indexLock.readLock();
+        try {
+            if (index.getBounds(n, out) != null) {
+                return out;
+            }
+            Placement p = placements.get(n);
+            if (p == null) {
+                return null;
             }
+            return out.set(p.minX, p.minY, p.maxX - p.minX, p.maxY - p.minY);
+        } finally {
+            indexLock.unlockRead(stamp);
         }
-        rt = rt.delete(pairs);
+    }
 
-        // Reinsert dirty nodes
-        pairs.clear();
-        for (Node dirtyNode : dirtyNodes) {
-            if (dirtyNode == null) continue;
-            Geometry g = nodeToGeom.get(dirtyNode);
-            if (g != null) {
-                rt = rt.delete(dirtyNode, g);
+    // Bring the indexes up to date, as a query would.
+    void applyPendingChanges() {
+        if (treeDirty && !frozen) evaluateTreeChanges();
+    }
+
+    protected synchronized void evaluateTreeChanges() {
+        long stamp = indexLock.writeLock();
+        try {
+            // Remove removed nodes first, so that a node that was detached and attached again since the last rebuild
+            // is put back.
+            for (int i = 0; i < removedNodes.size; i++) {
+                Placement p = placements.remove(removedNodes.get(i));
+                if (p == null) continue;
+                for (int j = 0; j < layerList.size; j++) {
+                    layerList.get(j).index.remove(p.node);
+                }
+                if (p.isStatic) {
+                    leaveStaticIndex(p);
+                } else {
+                    index.remove(p.node);
+                }
             }
-            g = geometryForNode(dirtyNode);
-            pairs.add(Entry.entry(dirtyNode, g));
-            nodeToGeom.put(dirtyNode, g);
-        }
-        rt = rt.add(pairs);
 
-        synchronized (rtreeLock) {
-            rtree = rt;
-            treeDirty = false;
+            // Reinsert dirty nodes
+            for (int i = 0; i < dirtyNodes.size; i++) {
+                Node dirtyNode = dirtyNodes.get(i);
+                dirtyNode.setQueuedForQuery(false);
+                // Skip nodes that have left the scene since they were queued.
+                if (dirtyNode.getScene() != getParent()) continue;
+                boundsForNode(dirtyNode, bounds);
+                float minX = bounds.x, minY = bounds.y, maxX = bounds.x + bounds.width, maxY = bounds.y + bounds.height;
+                place(dirtyNode, minX, minY, maxX, maxY);
+                for (int j = 0; j < layerList.size; j++) {
+                    Layer layer = layerList.get(j);
+                    if (dirtyNode.findComponent(layer.type) != null) {
+                        layer.index.put(dirtyNode, minX, minY, maxX, maxY);
+                    } else {
+                        layer.index.remove(dirtyNode);
+                    }
+                }
+            }
+
+            if (staticAfterFrames > 0 && frame - lastPromotionFrame >= PROMOTION_INTERVAL) {
+                lastPromotionFrame = frame;
+                for (Placement p : placements.values()) {
+                    if (!p.isStatic && frame - p.lastMovedFrame >= staticAfterFrames) {
+                        index.remove(p.node);
+                        enterStaticIndex(p);
+                    }
+                }
+            }
 
+            // Building the static index is costly, so the holes left by nodes leaving it are only cleared out once
+            // there are many of them.
+            int holes = staticIndex.getNumSlots() - staticIndex.size();
+            if (staticIndexDirty || holes > staticIndex.size() / 4 + STALE_STATIC_SLACK) {
+                buildStaticIndex();
+            }
+
+            treeDirty = false;
             dirtyNodes.clear();
             removedNodes.clear();
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    private void place(Node n, float minX, float minY, float maxX, float maxY) {
+        Placement p = placements.get(n);
+        if (p == null) {
+            p = new Placement(n);
+            placements.put(n, p);
+        } else if (p.minX == minX && p.minY == minY && p.maxX == maxX && p.maxY == maxY) {
+            // Queued for some other reason than moving, like a component being added.
+            if (p.isStatic || !n.isStationary()) return;
+        }
+        p.lastMovedFrame = frame;
+        p.minX = minX;
+        p.minY = minY;
+        p.maxX = maxX;
+        p.maxY = maxY;
+
+        if (n.isStationary()) {
+            if (!p.isStatic) {
+                index.remove(n);
+                enterStaticIndex(p);
+            }
+            // Its box in the static index is out of date.
+            staticIndexDirty = true;
+        } else {
+            if (p.isStatic) {
+                leaveStaticIndex(p);
+            }
+            index.put(n, minX, minY, maxX, maxY);
+        }
+    }
+
+    private void enterStaticIndex(Placement p) {
+        p.isStatic = true;
+        numStatic++;
+        staticIndexDirty = true;
+    }
+
+    private void leaveStaticIndex(Placement p) {
+        p.isStatic = false;
+        numStatic--;
+        if (p.staticSlot >= 0) {
+            staticIndex.remove(p.staticSlot);
+            p.staticSlot = -1;
+        }
+    }
+
+    private void buildStaticIndex() {
+        Node[] nodes = new Node[numStatic];
+        float[] boxes = new float[numStatic * 4];
+        int count = 0;
+        for (Placement p : placements.values()) {
+            if (!p.isStatic) continue;
+            nodes[count] = p.node;
+            boxes[count * 4] = p.minX;
+            boxes[count * 4 + 1] = p.minY;
+            boxes[count * 4 + 2] = p.maxX;
+            boxes[count * 4 + 3] = p.maxY;
+            count++;
         }
+        staticIndex = StaticSpatialIndex.build(nodes, boxes, count);
+        for (int slot = 0; slot < count; slot++) {
+            placements.get(staticIndex.get(slot)).staticSlot = slot;
+        }
+        staticIndexDirty = false;
     }
 
-    protected Geometry geometryForNode(Node n) {
+    /**
+     * Work out the bounds a node should be indexed with: the union of its {@link Spatial2D}s' rectangles, positioned
+     * and scaled by its world transform, or just its world position if it has none.
+     *
+     * @param n   the node
+     * @param out the rectangle to write the bounds to
+     * @return out
+     */
+    protected Rectangle boundsForNode(Node n, Rectangle out) {
         List<Spatial2D> spatials = n.findComponents(Spatial2D.class);
-        Geometry ret;
+        Vector3 worldPosition = n.getTransform().getWorldPosition();
         if (spatials.isEmpty()) {
-            ret = Geometries.point(n.getTransform().getWorldPosition().x, n.getTransform().getWorldPosition().y);
-        } else {
-            Rectangle r = spatials.stream().map(Spatial2D::getRectangle).reduce(new Rectangle(), Rectangle::merge);
-            Vector2 pos = new Vector2();
-            Vector2 dim = new Vector2();
-            Vector3 worldPosition = n.getTransform().getWorldPosition();
-            Vector3 worldScale = n.getTransform().getWorldScale();
-            Matrix4 mat = new Matrix4();
+            return out.set(worldPosition.x, worldPosition.y, 0, 0);
+        }
 
-            mat.translate(worldPosition);
-            mat.scale(worldScale.x, worldScale.y, worldScale.z);
-            mat.translate(pos.x, pos.y, 0);
+        out.set(0, 0, 0, 0);
+        for (int i = 0; i < spatials.size(); i++) {
+            out.merge(spatials.get(i).getRectangle());
+        }
+        Vector3 worldScale = n.getTransform().getWorldScale();
+        return out.set(worldPosition.x + out.x * worldScale.x, worldPosition.y + out.y * worldScale.y,
+                out.width * worldScale.x, out.height * worldScale.y);
+    }
 
-            r.getPosition(pos);
-            r.getSize(dim);
-            Vector3 pos3D = new Vector3(pos.x, pos.y, 0);
-            Vector3 dim3D = new Vector3(dim.x, dim.y, 0);
+    /**
+     * Call the visitor once for every node whose bounds overlap the given area. Nothing is allocated, as long as the
+     * index doesn't allocate to search (the {@link HashGridSpatialIndex} doesn't) and the visitor is kept around
+     * rather than made for each call.
+     * <p>
+     * The visitor must not query this system itself if that could apply pending changes, as the indexes are locked
+     * while it runs.
+     */
+    public void forEachNodeInArea(float minX, float minY, float maxX, float maxY, NodeVisitor visitor) {
+        if (treeDirty && !frozen) evaluateTreeChanges();
+        long stamp = indexLock.readLock();
+        try {
+            index.search(minX, minY, maxX, maxY, visitor);
+            staticIndex.search(minX, minY, maxX, maxY, visitor);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
 
-            pos3D.mul(mat);
-            dim3D.scl(worldScale);
+    public void forEachNodeInArea(Rectangle rect, NodeVisitor visitor) {
+        forEachNodeInArea(rect.x, rect.y, rect.x + rect.width, rect.y + rect.height, visitor);
+    }
 
-            ret = Geometries.rectangle(pos3D.x, pos3D.y, pos3D.x + dim3D.x, pos3D.y + dim3D.y);
+    /**
+     * Call the visitor once for every node that has a component of the given type and whose bounds overlap the given
+     * area. With a layer for the type, only the layer is searched. Without one, every node in the area is checked.
+     */
+    public void forEachNodeInArea(Class<?> componentType, float minX, float minY, float maxX, float maxY,
+                                  NodeVisitor visitor) {
+        Layer layer = layers.get(componentType);
+        if (layer == null) {
+            forEachNodeInArea(minX, minY, maxX, maxY, n -> {
+                if (n.findComponent(componentType) != null) visitor.visit(n);
+            });
+            return;
         }
-        return ret;
+        if (treeDirty && !frozen) evaluateTreeChanges();
+        long stamp = indexLock.readLock();
+        try {
+            layer.index.search(minX, minY, maxX, maxY, visitor);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    public void forEachNodeInArea(Class<?> componentType, Rectangle rect, NodeVisitor visitor) {
+        forEachNodeInArea(componentType, rect.x, rect.y, rect.x + rect.width, rect.y + rect.height, visitor);
+    }
+
+    /**
+     * Find every node whose bounds overlap the given area.
+     *
+     * @param out the buffer to put the nodes in, which is cleared first
+     * @return out
+     */
+    public NodeBuffer queryNodesInArea(float minX, float minY, float maxX, float maxY, NodeBuffer out) {
+        out.clear();
+        forEachNodeInArea(minX, minY, maxX, maxY, out);
+        return out;
     }
 
     public Set<Node> queryNodesInArea(Rectangle rect) {
-        if (treeDirty) evaluateTreeChanges();
         HashSet<Node> ret = new HashSet<>();
-        com.github.davidmoten.rtree.geometry.Rectangle rtreeRect = gdxRectToRtreeRect(rect);
-        rtree.search(rtreeRect).forEach(p -> ret.add(p.value()));
+        forEachNodeInArea(rect.x, rect.y, rect.x + rect.width, rect.y + rect.height, ret::add);
         return ret;
     }
 
     /**
-     * Get all nodes that are the given distance squared away.
-     * <p>
-     * OPERATES ON DISTANCE SQUARED ONLY!
+     * Call the visitor for every node within the visitor's range of the given point, measuring to the nearest point of
+     * each node's bounds. Like {@link #forEachNodeInArea(float, float, float, float, NodeVisitor)}, this doesn't
+     * allocate with a {@link HashGridSpatialIndex} and a visitor that is kept around.
+     */
+    public void forEachNodeByDistance(float x, float y, NodeDistanceVisitor visitor) {
+        if (treeDirty && !frozen) evaluateTreeChanges();
+        long stamp = indexLock.readLock();
+        try {
+            index.searchByDistance(x, y, visitor);
+            staticIndex.searchByDistance(x, y, visitor);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Find the nodes within a circle.
+     *
+     * @param out the buffer to put the nodes in, which is cleared first
+     * @return out
+     */
+    public NodeBuffer queryNodesInRadius(float x, float y, float radius, NodeBuffer out) {
+        out.clear();
+        float radiusSquared = radius * radius;
+        forEachNodeByDistance(x, y, new NodeDistanceVisitor() {
+            @Override
+            public float getMaxDistanceSquared() {
+                return radiusSquared;
+            }
+
+            @Override
+            public void visit(Node n, float distanceSquared) {
+                out.add(n);
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Find the k nodes nearest the given point, within a maximum distance, that pass the result's filter. k is the
+     * result's capacity. The search stops looking as soon as nothing further can be nearer than what it has found.
+     *
+     * @param maxDistance how far away to look, which may be infinite
+     * @param out         the result, which is reset first
+     * @return out
+     */
+    public NearestNodes findNearestNodes(float x, float y, float maxDistance, NearestNodes out) {
+        out.reset(maxDistance);
+        forEachNodeByDistance(x, y, out);
+        return out;
+    }
+
+    /**
+     * Like {@link #findNearestNodes(float, float, float, NearestNodes)}, but only for nodes that have a component of
+     * the given type. With a layer for the type, only the layer is searched.
+     */
+    public NearestNodes findNearestNodes(Class<?> componentType, float x, float y, float maxDistance,
+                                         NearestNodes out) {
+        Layer layer = layers.get(componentType);
+        out.reset(maxDistance);
+        if (layer == null) {
+            forEachNodeByDistance(x, y, new NodeDistanceVisitor() {
+                @Override
+                public float getMaxDistanceSquared() {
+                    return out.getMaxDistanceSquared();
+                }
+
+                @Override
+                public void visit(Node n, float distanceSquared) {
+                    if (n.findComponent(componentType) != null) out.visit(n, distanceSquared);
+                }
+            });
+            return out;
+        }
+        if (treeDirty && !frozen) evaluateTreeChanges();
+        long stamp = indexLock.readLock();
+        try {
+            layer.index.searchByDistance(x, y, out);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+        return out;
+    }
+
+    /**
+     * Find the nearest node within a maximum distance that passes a filter.
+     *
+     * @param filter the filter, or null to take any node
+     * @return the node, or null if there is none
+     */
+    public Node findNearestNode(float x, float y, float maxDistance, Predicate<Node> filter) {
+        return findNearestNodes(x, y, maxDistance, new NearestNodes(1, filter)).first();
+    }
+
+    /**
+     * Get all nodes that are within the given distance squared of a node, including that node.
      *
      * @param n               the node to query from
      * @param distanceSquared the maximum distance squared to this node
      * @return all the nodes in range
      */
     public Set<Node> queryNodesDistanceSquared(Node n, float distanceSquared) {
-        if (treeDirty) evaluateTreeChanges();
         HashSet<Node> ret = new HashSet<>();
-        // TODO broken
-        /*rtree.search(Geometries.point(n.getTransform().getWorldPosition().x, n.getTransform().getWorldPosition().y), distanceSquared, (a, b) -> {
-            if (a instanceof com.github.davidmoten.rtree.geometry.Rectangle) {
-                com.github.davidmoten.rtree.geometry.Rectangle r = ((com.github.davidmoten.rtree.geometry.Rectangle) a);
-                Vector2 c = new Vector2(r.x1() + r.x2() / 2, r.y1() + r.y2() / 2);
-                return (double)(c.sub(new Vector2().len2());
-            } else if (a instanceof Point) {
-                Point p = (Point) a;
-                return (double)(p.distance(b));
+        Vector3 p = n.getTransform().getWorldPosition();
+        forEachNodeByDistance(p.x, p.y, new NodeDistanceVisitor() {
+            @Override
+            public float getMaxDistanceSquared() {
+                return distanceSquared;
+            }
+
+            @Override
+            public void visit(Node found, float d) {
+                ret.add(found);
             }
-            return 0.0;
-        }).forEach(p -> ret.add(p.value()));*/
+        });
         return ret;
     }
 
     public Set<Node> queryAllNodes() {
-        if (treeDirty) evaluateTreeChanges();
+        if (treeDirty && !frozen) evaluateTreeChanges();
         HashSet<Node> set = new HashSet<>();
-        rtree.entries().map(Entry::value).forEach(set::add);
+        long stamp = indexLock.readLock();
+        try {
+            index.forEach(set::add);
+            staticIndex.forEach(set::add);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
         return set;
     }
 
-    private com.github.davidmoten.rtree.geometry.Rectangle gdxRectToRtreeRect(Rectangle r) {
-        return Geometries.rectangle(r.x, r.y, r.x + r.width, r.y + r.height);
-    }
-
     public int getNumberNodes() {
-        return rtree.size();
+        long stamp = indexLock.readLock();
+        try {
+            return index.size() + numStatic;
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
     }
 }
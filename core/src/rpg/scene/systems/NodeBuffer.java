@@ -0,0 +1,19 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.utils.Array;
+import rpg.scene.Node;
+
+/**
+ * A reusable list of query results. Queries clear it and add what they find, so keeping one around per caller means
+ * no allocation once it has grown to the usual number of results.
+ */
+public final class NodeBuffer extends Array<Node> implements NodeVisitor {
+    public NodeBuffer() {
+        super(false, 16, Node.class);
+    }
+
+    @Override
+    public void visit(Node n) {
+        add(n);
+    }
+}
@@ -0,0 +1,26 @@
+package rpg.scene.systems;
+
+import rpg.scene.Node;
+
+/**
+ * A callback for distance queries on a {@link SpatialIndex}. The index calls it for every node within range of the
+ * query point, measuring to the nearest point of the node's bounds. The range may shrink as nodes are visited, as in
+ * a k-nearest search, and the index uses it to skip whatever is too far away.
+ */
+public interface NodeDistanceVisitor {
+    /**
+     * @return the squared distance past which nodes are of no interest
+     */
+    float getMaxDistanceSquared();
+
+    void visit(Node n, float distanceSquared);
+
+    /**
+     * Get the squared distance from a point to the nearest point of a box, or 0 if the point is inside it.
+     */
+    static float distanceSquared(float x, float y, float minX, float minY, float maxX, float maxY) {
+        float dx = Math.max(Math.max(minX - x, x - maxX), 0);
+        float dy = Math.max(Math.max(minY - y, y - maxY), 0);
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,12 @@
+package rpg.scene.systems;
+
+import rpg.scene.Node;
+
+/**
+ * A callback for spatial queries, called once for every node found. Keeping one in a field, instead of writing a
+ * capturing lambda at the call site, makes a query allocation free.
+ */
+@FunctionalInterface
+public interface NodeVisitor {
+    void visit(Node n);
+}
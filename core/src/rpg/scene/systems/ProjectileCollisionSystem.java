@@ -0,0 +1,298 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import rpg.scene.Node;
+import rpg.scene.Scene;
+import rpg.scene.SystemHandle;
+import rpg.scene.components.Component;
+import rpg.scene.components.Projectile;
+import rpg.scene.components.UnitComponent;
+
+import java.util.Arrays;
+
+/**
+ * Finds which units every {@link Projectile} in the scene touches, all at once each tick, instead of each projectile
+ * querying the {@link Node2DQuerySystem} for itself. Once per tick, the live units' boxes are binned into a flat grid
+ * that just covers them, with about one unit per cell, by counting sort. Each projectile then only checks the units
+ * in the cells its box covers. A tick costs O(p + u) plus the pairs that share a cell, with no hashing, locking or
+ * allocation per projectile.
+ * <p>
+ * Add it after the {@link GameLogicSystem}, so that it sees where the projectiles moved to this tick. A unit's box is
+ * what the query system has indexed it with, or just its position if there is no query system.
+ */
+public class ProjectileCollisionSystem extends AbstractSceneSystem {
+
+    // Kept in arrays, in about the order they were added, so that gathering them walks memory in order. Each one's
+    // position in its array is mapped so that it can be swapped out when removed.
+    private final Array<Projectile> projectiles = new Array<>(false, 64, Projectile.class);
+    private final Array<UnitComponent> units = new Array<>(false, 64, UnitComponent.class);
+    private final ObjectIntMap<Object> positions = new ObjectIntMap<>();
+
+    private SystemHandle<Node2DQuerySystem> querySystem;
+
+    // This tick's live units and their boxes (min x, min y, max x, max y). Grown as needed and reused.
+    private UnitComponent[] liveUnits = new UnitComponent[64];
+    private float[] unitBoxes = new float[64 * 4];
+    // The first cell of each unit's box, as column and row.
+    private int[] unitCells = new int[64 * 2];
+    private int numUnits;
+
+    // The grid: cells are numbered by row then column, and the units in cell c are cellUnits[cellStart[c]] up to
+    // cellUnits[cellStart[c + 1]].
+    private float gridX, gridY, cellSize;
+    private int columns, rows;
+    private int[] cellStart = new int[65];
+    private int[] cellUnits = new int[64];
+
+    private final Rectangle bounds = new Rectangle();
+
+    private int numHits;
+
+    @Override
+    public void setParent(Scene parent) {
+        super.setParent(parent);
+
+        projectiles.clear();
+        units.clear();
+        positions.clear();
+        querySystem = parent != null ? parent.getSystemHandle(Node2DQuerySystem.class) : null;
+
+        // Pick up whatever was in the scene before this system was added.
+        if (parent != null) {
+            register(parent.getRoot());
+        }
+    }
+
+    @Override
+    public boolean doesProcessNodes() {
+        return false;
+    }
+
+    @Override
+    public EventInterest getEventInterest() {
+        return EventInterest.none().components(Projectile.class, UnitComponent.class);
+    }
+
+    @Override
+    public void componentAttached(Component c) {
+        if (c instanceof Projectile) {
+            add(projectiles, (Projectile) c);
+        } else if (c instanceof UnitComponent) {
+            add(units, (UnitComponent) c);
+        }
+    }
+
+    @Override
+    public void componentDetached(Component c) {
+        if (c instanceof Projectile) {
+            remove(projectiles, (Projectile) c);
+        } else if (c instanceof UnitComponent) {
+            remove(units, (UnitComponent) c);
+        }
+    }
+
+    private <T> void add(Array<T> array, T item) {
+        if (!positions.containsKey(item)) {
+            positions.put(item, array.size);
+            array.add(item);
+        }
+    }
+
+    private <T> void remove(Array<T> array, T item) {
+        int i = positions.remove(item, -1);
+        if (i < 0) {
+            return;
+        }
+        T last = array.pop();
+        if (i < array.size) {
+            array.set(i, last);
+            positions.put(last, i);
+        }
+    }
+
+    /**
+     * @return the number of hits delivered in the last tick
+     */
+    public int getNumHits() {
+        return numHits;
+    }
+
+    @Override
+    public void beginProcessing() {
+        gatherUnits();
+        binUnits();
+
+        numHits = 0;
+        Projectile[] projectileItems = projectiles.items;
+        for (int i = 0; i < projectiles.size; i++) {
+            Projectile p = projectileItems[i];
+            if (numUnits > 0 && !p.isSpent()) {
+                collide(p, p.getCollisionBounds(bounds));
+            }
+        }
+
+        // Don't hold on to anything until the next tick.
+        Arrays.fill(liveUnits, 0, numUnits, null);
+    }
+
+    private void gatherUnits() {
+        Node2DQuerySystem query = querySystem != null ? querySystem.get() : null;
+        if (query != null) {
+            query.applyPendingChanges();
+        }
+        if (liveUnits.length < units.size) {
+            int capacity = units.size * 2;
+            liveUnits = new UnitComponent[capacity];
+            unitBoxes = new float[capacity * 4];
+            unitCells = new int[capacity * 2];
+        }
+
+        numUnits = 0;
+        UnitComponent[] unitItems = units.items;
+        for (int i = 0; i < units.size; i++) {
+            UnitComponent u = unitItems[i];
+            Node n = u.getParent();
+            if (n == null || u.getHealth() <= 0) continue;
+            if (query == null || query.getIndexedBounds(n, bounds) == null) {
+                Vector3 p = n.getTransform().getWorldPosition();
+                bounds.set(p.x, p.y, 0, 0);
+            }
+            int j = numUnits * 4;
+            liveUnits[numUnits] = u;
+            unitBoxes[j] = bounds.x;
+            unitBoxes[j + 1] = bounds.y;
+            unitBoxes[j + 2] = bounds.x + bounds.width;
+            unitBoxes[j + 3] = bounds.y + bounds.height;
+            numUnits++;
+        }
+    }
+
+    private void binUnits() {
+        if (numUnits == 0) {
+            return;
+        }
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        float totalSize = 0;
+        for (int i = 0; i < numUnits * 4; i += 4) {
+            minX = Math.min(minX, unitBoxes[i]);
+            minY = Math.min(minY, unitBoxes[i + 1]);
+            maxX = Math.max(maxX, unitBoxes[i + 2]);
+            maxY = Math.max(maxY, unitBoxes[i + 3]);
+            totalSize += Math.max(unitBoxes[i + 2] - unitBoxes[i], unitBoxes[i + 3] - unitBoxes[i + 1]);
+        }
+        // Cells at least as big as the average unit, so that few units are in more than four of them, and big enough
+        // that there are only a few more cells than units.
+        float width = maxX - minX, height = maxY - minY;
+        cellSize = Math.max(totalSize / numUnits, (float) Math.sqrt(width * height / numUnits));
+        cellSize = Math.max(cellSize, Math.max(width, height) / numUnits);
+        if (!(cellSize > 0)) {
+            cellSize = 1;
+        }
+        gridX = minX;
+        gridY = minY;
+        columns = Math.min((int) (width / cellSize), numUnits) + 1;
+        rows = Math.min((int) (height / cellSize), numUnits) + 1;
+
+        int numCells = columns * rows;
+        if (cellStart.length < numCells + 1) {
+            cellStart = new int[(numCells + 1) * 2];
+        }
+        Arrays.fill(cellStart, 0, numCells + 1, 0);
+
+        // Count the units in each cell, then turn the counts into where each cell's run ends.
+        int entries = 0;
+        for (int u = 0; u < numUnits; u++) {
+            int j = u * 4;
+            int cx0 = column(unitBoxes[j]), cy0 = row(unitBoxes[j + 1]);
+            int cx1 = column(unitBoxes[j + 2]), cy1 = row(unitBoxes[j + 3]);
+            unitCells[u * 2] = cx0;
+            unitCells[u * 2 + 1] = cy0;
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    cellStart[cy * columns + cx + 1]++;
+                }
+            }
+            entries += (cx1 - cx0 + 1) * (cy1 - cy0 + 1);
+        }
+        for (int c = 0; c < numCells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        if (cellUnits.length < entries) {
+            cellUnits = new int[entries * 2];
+        }
+
+        // Fill each cell's run from the back, which leaves cellStart pointing at the runs' starts.
+        for (int u = numUnits - 1; u >= 0; u--) {
+            int j = u * 4;
+            int cx0 = unitCells[u * 2], cy0 = unitCells[u * 2 + 1];
+            int cx1 = column(unitBoxes[j + 2]), cy1 = row(unitBoxes[j + 3]);
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    cellUnits[--cellStart[cy * columns + cx + 1]] = u;
+                }
+            }
+        }
+        // Runs were filled from index c + 1, so shift to make cell c start at cellStart[c].
+        System.arraycopy(cellStart, 1, cellStart, 0, numCells);
+        cellStart[numCells] = entries;
+    }
+
+    private int column(float x) {
+        return clamp((int) Math.floor((x - gridX) / cellSize), columns - 1);
+    }
+
+    private int row(float y) {
+        return clamp((int) Math.floor((y - gridY) / cellSize), rows - 1);
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : (value > max ? max : value);
+    }
+
+    private void collide(Projectile p, Rectangle r) {
+        float minX = r.x, minY = r.y, maxX = r.x + r.width, maxY = r.y + r.height;
+        if (maxX < gridX || maxY < gridY || minX > gridX + columns * cellSize || minY > gridY + rows * cellSize) {
+            return;
+        }
+        int qx0 = column(minX), qy0 = row(minY), qx1 = column(maxX), qy1 = row(maxY);
+        for (int cy = qy0; cy <= qy1; cy++) {
+            for (int cx = qx0; cx <= qx1; cx++) {
+                int c = cy * columns + cx;
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    int u = cellUnits[k];
+                    // A unit in several cells is only checked from the first of them inside the projectile's box.
+                    if (cx != Math.max(unitCells[u * 2], qx0) || cy != Math.max(unitCells[u * 2 + 1], qy0)) {
+                        continue;
+                    }
+                    int j = u * 4;
+                    if (unitBoxes[j] > maxX || minX > unitBoxes[j + 2] || unitBoxes[j + 1] > maxY
+                            || minY > unitBoxes[j + 3]) {
+                        continue;
+                    }
+                    UnitComponent unit = liveUnits[u];
+                    if (p.getFaction() == unit.getFaction()) {
+                        continue;
+                    }
+                    p.hit(unit);
+                    numHits++;
+                    if (p.isSpent()) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void register(Node n) {
+        for (Component c : n.getComponents()) {
+            componentAttached(c);
+        }
+        for (Node child : n.getChildren()) {
+            register(child);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import rpg.scene.Node;
+import rx.Observable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SpatialIndex} backed by an R-tree. It copes with nodes of any size, but the tree is immutable, so every
+ * move copies the path to the node's leaf. This is the default index of {@link Node2DQuerySystem}.
+ */
+public class RTreeSpatialIndex implements SpatialIndex {
+    private RTree<Node, Geometry> rtree = RTree.create();
+    private final Map<Node, Geometry> nodeToGeom = new HashMap<>();
+
+    @Override
+    public void put(Node n, float minX, float minY, float maxX, float maxY) {
+        Geometry g = nodeToGeom.get(n);
+        if (g != null) {
+            rtree = rtree.delete(n, g);
+        }
+        if (minX == maxX && minY == maxY) {
+            g = Geometries.point(minX, minY);
+        } else {
+            g = Geometries.rectangle(minX, minY, maxX, maxY);
+        }
+        rtree = rtree.add(n, g);
+        nodeToGeom.put(n, g);
+    }
+
+    @Override
+    public boolean remove(Node n) {
+        Geometry g = nodeToGeom.remove(n);
+        if (g == null) {
+            return false;
+        }
+        rtree = rtree.delete(n, g);
+        return true;
+    }
+
+    @Override
+    public Rectangle getBounds(Node n, Rectangle out) {
+        Geometry g = nodeToGeom.get(n);
+        if (g == null) {
+            return null;
+        }
+        com.github.davidmoten.rtree.geometry.Rectangle mbr = g.mbr();
+        return out.set(mbr.x1(), mbr.y1(), mbr.x2() - mbr.x1(), mbr.y2() - mbr.y1());
+    }
+
+    @Override
+    public void search(float minX, float minY, float maxX, float maxY, NodeVisitor visitor) {
+        rtree.search(Geometries.rectangle(minX, minY, maxX, maxY)).forEach(e -> visitor.visit(e.value()));
+    }
+
+    /**
+     * The R-tree library can't search with a range that shrinks, so this only skips what is out of the starting range.
+     */
+    @Override
+    public void searchByDistance(float x, float y, NodeDistanceVisitor visitor) {
+        float range = visitor.getMaxDistanceSquared();
+        Observable<Entry<Node, Geometry>> entries = Float.isInfinite(range)
+                ? rtree.entries() : rtree.search(Geometries.point(x, y), Math.sqrt(range));
+        entries.forEach(e -> {
+            com.github.davidmoten.rtree.geometry.Rectangle mbr = e.geometry().mbr();
+            float distanceSquared = NodeDistanceVisitor.distanceSquared(x, y, mbr.x1(), mbr.y1(), mbr.x2(), mbr.y2());
+            if (distanceSquared <= visitor.getMaxDistanceSquared()) {
+                visitor.visit(e.value(), distanceSquared);
+            }
+        });
+    }
+
+    @Override
+    public void forEach(NodeVisitor visitor) {
+        rtree.entries().map(Entry::value).forEach(visitor::visit);
+    }
+
+    @Override
+    public int size() {
+        return rtree.size();
+    }
+}
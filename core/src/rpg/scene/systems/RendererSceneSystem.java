@@ -5,6 +5,7 @@ import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Quaternion;
 import com.badlogic.gdx.math.Vector3;
 import rpg.scene.Node;
 import rpg.scene.RenderItem;
@@ -38,7 +39,7 @@ public class RendererSceneSystem extends AbstractSceneSystem {
             viewMatrix.rotate(Vector3.X, -30);
 
             viewMatrix.translate(t.getWorldPosition().cpy().scl(-1));
-            viewMatrix.rotate(t.getWorldRotation().conjugate());
+            viewMatrix.rotate(new Quaternion(t.getWorldRotation()).conjugate());
             viewMatrix.scale(1.f / t.getWorldScale().x, 1.f / t.getWorldScale().y, 1.f / t.getWorldScale().z);
         }
     }
@@ -175,4 +176,9 @@ public class RendererSceneSystem extends AbstractSceneSystem {
     public Matrix4 getProjectionMatrix() {
         return projectionMatrix;
     }
+
+    @Override
+    public EventInterest getEventInterest() {
+        return EventInterest.none();
+    }
 }
@@ -160,6 +160,11 @@ public class Scene2DUISystem extends AbstractSceneSystem {
         return false;
     }
 
+    @Override
+    public EventInterest getEventInterest() {
+        return EventInterest.none();
+    }
+
     public void setScreen(UIScreen screen) {
         newScreen = screen;
         pendingTransition = true;
@@ -2,6 +2,7 @@ package rpg.scene.systems;
 
 import rpg.scene.Node;
 import rpg.scene.Scene;
+import rpg.scene.SceneEventBatch;
 import rpg.scene.components.Component;
 
 /**
@@ -16,6 +17,19 @@ public interface SceneSystem {
      */
     void beginProcessing();
 
+    /**
+     * Called at the start of graph processing, with the time for this update. Systems that don't walk the graph
+     * (see {@link #doesProcessNodes()}) can do their per-frame work here. By default this calls
+     * {@link #beginProcessing()}.
+     * <p/>
+     * For concurrent access safety, do not remove or add SceneSystems in this method.
+     *
+     * @param deltaTime the time in seconds for this update
+     */
+    default void beginProcessing(float deltaTime) {
+        beginProcessing();
+    }
+
     /**
      * Called when entering a node during scene processing.
      * <p>
@@ -107,6 +121,17 @@ public interface SceneSystem {
      */
     void componentDetached(Component c);
 
+    /**
+     * Like {@link #componentDetached(Component)}, for systems that need the node as well; the component's parent is
+     * already null by the time it is delivered.
+     *
+     * @param c    the component that was detached.
+     * @param from the node it was detached from.
+     */
+    default void componentDetached(Component c, Node from) {
+        componentDetached(c);
+    }
+
     /**
      * Whether or not to call {@link #enterNode(Node, float)} {@link #exitNode(Node, float)} and
      * {@link #processNode(Node, float)}.
@@ -116,4 +141,39 @@ public interface SceneSystem {
      * @return true if this system processes nodes, false otherwise.
      */
     boolean doesProcessNodes();
+
+    /**
+     * Which component types this system reads and writes while processing, so that it can be run alongside systems it
+     * doesn't conflict with. By default a system is exclusive: it runs alone, on the thread that updates the scene.
+     * The scene reads this when the system is added, so it must not change afterwards.
+     *
+     * @return this system's access declaration
+     * @see SystemAccess
+     */
+    default SystemAccess getAccess() {
+        return SystemAccess.EXCLUSIVE;
+    }
+
+    /**
+     * Which scene events this system wants. The scene only calls the event handlers for these, and reads this once,
+     * when the system is added. By default a system gets every event.
+     *
+     * @return this system's event interest
+     * @see EventInterest
+     */
+    default EventInterest getEventInterest() {
+        return EventInterest.ALL;
+    }
+
+    /**
+     * Called at a sync point with the events this system is interested in, in order. By default this calls the
+     * handler for each event in turn; override it to handle them in bulk.
+     * <p/>
+     * For concurrent access safety, do not remove or add SceneSystems in this method.
+     *
+     * @param batch the events
+     */
+    default void processEvents(SceneEventBatch batch) {
+        batch.deliverEach(this);
+    }
 }
@@ -0,0 +1,50 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.math.Rectangle;
+import rpg.scene.Node;
+
+/**
+ * The index {@link Node2DQuerySystem} keeps its nodes' 2D bounds in. Bounds are axis-aligned boxes in world space, and
+ * a box touching the query area counts as overlapping it.
+ * <p>
+ * Implementations don't need to be thread safe; the query system only ever searches an index while nothing is
+ * modifying it.
+ */
+public interface SpatialIndex {
+    /**
+     * Add a node, or move it if it is already in the index.
+     */
+    void put(Node n, float minX, float minY, float maxX, float maxY);
+
+    /**
+     * Remove a node.
+     *
+     * @return false if the node wasn't in the index
+     */
+    boolean remove(Node n);
+
+    /**
+     * Get the bounds a node was put in the index with.
+     *
+     * @param n   the node
+     * @param out the rectangle to write the bounds to
+     * @return out, or null if the node isn't in the index
+     */
+    Rectangle getBounds(Node n, Rectangle out);
+
+    /**
+     * Call the visitor once for every node whose bounds overlap the given area.
+     */
+    void search(float minX, float minY, float maxX, float maxY, NodeVisitor visitor);
+
+    /**
+     * Call the visitor once for every node whose bounds are within its range of the given point, skipping parts of
+     * the index that are out of range. Nearer nodes should come first where that is cheap, so that a shrinking range
+     * cuts the search short.
+     */
+    void searchByDistance(float x, float y, NodeDistanceVisitor visitor);
+
+    void forEach(NodeVisitor visitor);
+
+    int size();
+}
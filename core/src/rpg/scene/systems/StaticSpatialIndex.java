@@ -0,0 +1,261 @@
+package rpg.scene.systems;
+
+import rpg.scene.Node;
+
+import java.util.Arrays;
+
+/**
+ * An R-tree, bulk loaded with Sort-Tile-Recursive packing, for nodes that don't move. Every tree node is full except
+ * the last few, and siblings hardly overlap, so searches visit few boxes. It is kept in flat arrays, one set per
+ * level, with the entries themselves at level 0.
+ * <p>
+ * Its shape is fixed once built: entries can be removed, which leaves a hole, but adding or moving anything means
+ * building a new one, which takes O(n log n). So {@link Node2DQuerySystem} only uses it for nodes that have stopped
+ * moving.
+ */
+public final class StaticSpatialIndex {
+    public static final int NODE_CAPACITY = 16;
+
+    public static final StaticSpatialIndex EMPTY = build(new Node[0], new float[0], 0);
+
+    // Removed entries are nulled out.
+    private final Node[] nodes;
+    private int size;
+    // Per level: the boxes (min x, min y, max x, max y) and, above level 0, the range of children in the level below.
+    private final float[][] boxes;
+    private final int[][] firstChild;
+    private final int[][] numChildren;
+
+    private StaticSpatialIndex(Node[] nodes, float[][] boxes, int[][] firstChild, int[][] numChildren) {
+        this.nodes = nodes;
+        this.size = nodes.length;
+        this.boxes = boxes;
+        this.firstChild = firstChild;
+        this.numChildren = numChildren;
+    }
+
+    /**
+     * Build an index.
+     *
+     * @param nodes  the nodes
+     * @param bounds each node's box as min x, min y, max x, max y
+     * @param count  how many of the nodes to index
+     * @return the index
+     */
+    public static StaticSpatialIndex build(Node[] nodes, float[] bounds, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        pack(order, bounds);
+
+        Node[] sortedNodes = new Node[count];
+        float[] level = new float[count * 4];
+        for (int i = 0; i < count; i++) {
+            sortedNodes[i] = nodes[order[i]];
+            System.arraycopy(bounds, order[i] * 4, level, i * 4, 4);
+        }
+
+        float[][] boxes = new float[1][];
+        int[][] firstChild = new int[1][];
+        int[][] numChildren = new int[1][];
+        boxes[0] = level;
+
+        // Each level up groups runs of NODE_CAPACITY boxes of the packed level below, then packs the groups.
+        int size = count;
+        while (size > 1) {
+            int parents = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            float[] parentBoxes = new float[parents * 4];
+            int[] first = new int[parents];
+            int[] num = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                first[p] = p * NODE_CAPACITY;
+                num[p] = Math.min(NODE_CAPACITY, size - first[p]);
+                union(level, first[p], num[p], parentBoxes, p);
+            }
+
+            int[] parentOrder = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                parentOrder[p] = p;
+            }
+            pack(parentOrder, parentBoxes);
+            float[] packedBoxes = new float[parents * 4];
+            int[] packedFirst = new int[parents];
+            int[] packedNum = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                System.arraycopy(parentBoxes, parentOrder[p] * 4, packedBoxes, p * 4, 4);
+                packedFirst[p] = first[parentOrder[p]];
+                packedNum[p] = num[parentOrder[p]];
+            }
+
+            boxes = Arrays.copyOf(boxes, boxes.length + 1);
+            firstChild = Arrays.copyOf(firstChild, firstChild.length + 1);
+            numChildren = Arrays.copyOf(numChildren, numChildren.length + 1);
+            boxes[boxes.length - 1] = packedBoxes;
+            firstChild[firstChild.length - 1] = packedFirst;
+            numChildren[numChildren.length - 1] = packedNum;
+            level = packedBoxes;
+            size = parents;
+        }
+        return new StaticSpatialIndex(sortedNodes, boxes, firstChild, numChildren);
+    }
+
+    /**
+     * Get the node in a slot. Slots are numbered from 0 to {@link #getNumSlots()}, in the packed order.
+     *
+     * @param slot the slot
+     * @return the node, or null if it was removed
+     */
+    public Node get(int slot) {
+        return nodes[slot];
+    }
+
+    public int getNumSlots() {
+        return nodes.length;
+    }
+
+    /**
+     * Remove the node in a slot, so that searches no longer find it.
+     *
+     * @param slot the slot
+     */
+    public void remove(int slot) {
+        if (nodes[slot] != null) {
+            nodes[slot] = null;
+            size--;
+        }
+    }
+
+    /**
+     * Call the visitor once for every node whose box overlaps the given area.
+     */
+    public void search(float minX, float minY, float maxX, float maxY, NodeVisitor visitor) {
+        if (size == 0) {
+            return;
+        }
+        int top = boxes.length - 1;
+        search(top, 0, boxes[top].length / 4, minX, minY, maxX, maxY, visitor);
+    }
+
+    private void search(int level, int first, int count, float minX, float minY, float maxX, float maxY,
+                        NodeVisitor visitor) {
+        float[] b = boxes[level];
+        for (int i = first; i < first + count; i++) {
+            int j = i * 4;
+            if (b[j] <= maxX && minX <= b[j + 2] && b[j + 1] <= maxY && minY <= b[j + 3]) {
+                if (level == 0) {
+                    if (nodes[i] != null) visitor.visit(nodes[i]);
+                } else {
+                    search(level - 1, firstChild[level][i], numChildren[level][i], minX, minY, maxX, maxY, visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Call the visitor once for every node whose box is within its range of the given point. At each level, the child
+     * nearest the point is searched first, so that a shrinking range can rule out its siblings.
+     */
+    public void searchByDistance(float x, float y, NodeDistanceVisitor visitor) {
+        if (size == 0) {
+            return;
+        }
+        int top = boxes.length - 1;
+        searchByDistance(top, 0, boxes[top].length / 4, x, y, visitor);
+    }
+
+    private void searchByDistance(int level, int first, int count, float x, float y, NodeDistanceVisitor visitor) {
+        float[] b = boxes[level];
+        int nearest = -1;
+        float nearestDistance = Float.POSITIVE_INFINITY;
+        for (int i = first; i < first + count; i++) {
+            float d = NodeDistanceVisitor.distanceSquared(x, y, b[i * 4], b[i * 4 + 1], b[i * 4 + 2], b[i * 4 + 3]);
+            if (d < nearestDistance) {
+                nearest = i;
+                nearestDistance = d;
+            }
+        }
+        if (nearest < 0) {
+            return;
+        }
+        visitChild(level, nearest, nearestDistance, x, y, visitor);
+        for (int i = first; i < first + count; i++) {
+            if (i == nearest) continue;
+            float d = NodeDistanceVisitor.distanceSquared(x, y, b[i * 4], b[i * 4 + 1], b[i * 4 + 2], b[i * 4 + 3]);
+            visitChild(level, i, d, x, y, visitor);
+        }
+    }
+
+    private void visitChild(int level, int i, float distanceSquared, float x, float y, NodeDistanceVisitor visitor) {
+        if (distanceSquared > visitor.getMaxDistanceSquared()) {
+            return;
+        }
+        if (level == 0) {
+            if (nodes[i] != null) visitor.visit(nodes[i], distanceSquared);
+        } else {
+            searchByDistance(level - 1, firstChild[level][i], numChildren[level][i], x, y, visitor);
+        }
+    }
+
+    public void forEach(NodeVisitor visitor) {
+        for (Node n : nodes) {
+            if (n != null) visitor.visit(n);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sort-Tile-Recursive: order the boxes by centre x, cut them into vertical slices of whole tree nodes, and order
+     * each slice by centre y, so that consecutive runs of {@link #NODE_CAPACITY} boxes are close together.
+     */
+    private static void pack(int[] order, float[] bounds) {
+        int count = order.length;
+        int leaves = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(leaves));
+        int perSlice = slices == 0 ? count : ((leaves + slices - 1) / slices) * NODE_CAPACITY;
+
+        sortByCentre(order, 0, count, bounds, 0);
+        for (int start = 0; start < count; start += perSlice) {
+            sortByCentre(order, start, Math.min(count, start + perSlice), bounds, 1);
+        }
+    }
+
+    private static void sortByCentre(int[] order, int from, int to, float[] bounds, int axis) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            int j = order[i] * 4;
+            float centre = (bounds[j + axis] + bounds[j + 2 + axis]) / 2;
+            keys[i - from] = ((long) sortableBits(centre) << 32) | (order[i] & 0xffffffffL);
+        }
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++) {
+            order[i] = (int) keys[i - from];
+        }
+    }
+
+    // Maps a float to an int with the same ordering, as signed ints.
+    private static int sortableBits(float f) {
+        int bits = Float.floatToIntBits(f);
+        return bits >= 0 ? bits : bits ^ 0x7fffffff;
+    }
+
+    private static void union(float[] level, int first, int count, float[] out, int index) {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = first; i < first + count; i++) {
+            int j = i * 4;
+            minX = Math.min(minX, level[j]);
+            minY = Math.min(minY, level[j + 1]);
+            maxX = Math.max(maxX, level[j + 2]);
+            maxY = Math.max(maxY, level[j + 3]);
+        }
+        int o = index * 4;
+        out[o] = minX;
+        out[o + 1] = minY;
+        out[o + 2] = maxX;
+        out[o + 3] = maxY;
+    }
+}
@@ -0,0 +1,102 @@
+package rpg.scene.systems;
+
+import rpg.scene.components.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Declares which component types (classes or interfaces) a {@link SceneSystem} reads and writes while it is
+ * processing. The scene uses this to run systems that don't conflict with each other at the same time.
+ * <p>
+ * Two systems conflict if either one writes a type the other reads or writes; a type also covers its subclasses, so
+ * writing {@link Component} conflicts with everything. An exclusive system conflicts with every other system and always
+ * runs alone, on the thread that called {@link rpg.scene.Scene#update(float)}. That is the default, and it is the
+ * right choice for anything that touches OpenGL, the network, or runs arbitrary component code.
+ * <p>
+ * A non-exclusive system may be processed on a worker thread, concurrently with other systems. It must not attach or
+ * detach anything directly; structural changes go through the scene's command buffer and are applied once every system
+ * in the group has finished.
+ */
+public final class SystemAccess {
+    public static final SystemAccess EXCLUSIVE = new SystemAccess(true, Collections.emptySet(), Collections.emptySet());
+
+    private static final SystemAccess NONE = new SystemAccess(false, Collections.emptySet(), Collections.emptySet());
+
+    private final boolean exclusive;
+    private final Set<Class<?>> reads;
+    private final Set<Class<?>> writes;
+
+    private SystemAccess(boolean exclusive, Set<Class<?>> reads,
+                         Set<Class<?>> writes) {
+        this.exclusive = exclusive;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    /**
+     * Access for a system that touches no components at all. Add to it with {@link #reading(Class[])} and
+     * {@link #writing(Class[])}.
+     *
+     * @return an empty, non-exclusive access declaration
+     */
+    public static SystemAccess none() {
+        return NONE;
+    }
+
+    public SystemAccess reading(Class<?>... types) {
+        if (exclusive) {
+            return this;
+        }
+        Set<Class<?>> newReads = new HashSet<>(reads);
+        newReads.addAll(Arrays.asList(types));
+        return new SystemAccess(false, Collections.unmodifiableSet(newReads), writes);
+    }
+
+    public SystemAccess writing(Class<?>... types) {
+        if (exclusive) {
+            return this;
+        }
+        Set<Class<?>> newWrites = new HashSet<>(writes);
+        newWrites.addAll(Arrays.asList(types));
+        return new SystemAccess(false, reads, Collections.unmodifiableSet(newWrites));
+    }
+
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
+    public Set<Class<?>> getReads() {
+        return reads;
+    }
+
+    public Set<Class<?>> getWrites() {
+        return writes;
+    }
+
+    /**
+     * Whether a system with this access may not run at the same time as one with the other access.
+     *
+     * @param other the other system's access
+     * @return true if the two conflict
+     */
+    public boolean conflictsWith(SystemAccess other) {
+        if (exclusive || other.exclusive) {
+            return true;
+        }
+        return overlaps(writes, other.writes) || overlaps(writes, other.reads) || overlaps(reads, other.writes);
+    }
+
+    private static boolean overlaps(Set<Class<?>> a, Set<Class<?>> b) {
+        for (Class<?> x : a) {
+            for (Class<?> y : b) {
+                if (x.isAssignableFrom(y) || y.isAssignableFrom(x)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
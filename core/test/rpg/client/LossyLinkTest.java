@@ -0,0 +1,271 @@
+package rpg.client;
+
+import com.badlogic.gdx.math.Vector2;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.KryoSerialization;
+import org.junit.Before;
+import org.junit.Test;
+import rpg.scene.kryo.FieldReplicateMessage;
+import rpg.scene.kryo.KryoClassRegisterUtil;
+import rpg.scene.kryo.SnapshotAck;
+import rpg.scene.kryo.TickFrame;
+import rpg.scene.kryo.TickFrameWriter;
+import rpg.scene.replication.FieldReplicationData;
+import rpg.scene.replication.FieldReplicationHistory;
+import rpg.scene.replication.RepTable;
+import rpg.scene.replication.Replicated;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replicates moving objects over a simulated link that loses and delays packets, once as snapshots the way they go
+ * over UDP, and once as a reliable, ordered stream the way they used to go over TCP, and compares how long it takes
+ * for each tick's state to reach the client.
+ */
+public class LossyLinkTest {
+
+    static class Mover {
+        @Replicated
+        protected Vector2 position = new Vector2();
+
+        @Replicated
+        protected int health = 100;
+
+        // Only set in the tick it was hurt in, so it keeps going back to what the client last acknowledged.
+        @Replicated
+        protected boolean flinching = false;
+    }
+
+    private static final int NUM_MOVERS = 30;
+    private static final int NUM_TICKS = 3000;
+    private static final double TICK_MS = 100;
+    private static final double ONE_WAY_DELAY_MS = 40;
+    private static final double JITTER_MS = 30;
+    private static final double LOSS = 0.05;
+    // The least time TCP waits before sending a lost segment again.
+    private static final double RETRANSMIT_TIMEOUT_MS = 200;
+
+    private Kryo kryo;
+    private RepTable table;
+    private Random random;
+
+    private static class Event implements Comparable<Event> {
+        final double time;
+        final long order;
+        final Runnable action;
+
+        Event(double time, long order, Runnable action) {
+            this.time = time;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int c = Double.compare(time, o.time);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long eventOrder = 0;
+    private double now = 0;
+    private double loss = LOSS;
+
+    @Before
+    public void setUp() {
+        kryo = new KryoSerialization().getKryo();
+        KryoClassRegisterUtil.registerAll(kryo);
+        RepTable.discardAllRepTables();
+        table = RepTable.getTableForType(Mover.class);
+        random = new Random(25);
+    }
+
+    private void at(double time, Runnable action) {
+        events.add(new Event(time, eventOrder++, action));
+    }
+
+    private void run() {
+        while (!events.isEmpty()) {
+            Event e = events.poll();
+            now = e.time;
+            e.action.run();
+        }
+    }
+
+    // Sends a datagram, which is lost or arrives a little late.
+    private void sendUnreliably(Object message, Consumer<Object> receiver) {
+        Output output = new Output(256, -1);
+        kryo.writeClassAndObject(output, message);
+        byte[] bytes = output.toBytes();
+        if (random.nextDouble() < loss) {
+            return;
+        }
+        at(now + ONE_WAY_DELAY_MS + random.nextDouble() * JITTER_MS,
+                () -> receiver.accept(kryo.readClassAndObject(new Input(bytes))));
+    }
+
+    private void move(Mover[] movers) {
+        for (int i = 0; i < movers.length; i++) {
+            // A third of them stand still, and the rest are hurt now and then.
+            if (i % 3 != 0) {
+                movers[i].position.add(i * 0.1f, 1);
+                movers[i].flinching = random.nextInt(20) == 0;
+                if (movers[i].flinching) movers[i].health--;
+            }
+        }
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static double[] latencies(double[][] firstSeen) {
+        List<Double> all = new ArrayList<>();
+        for (int i = 0; i < NUM_MOVERS; i++) {
+            if (i % 3 == 0) continue;
+            for (int tick = 1; tick < NUM_TICKS; tick++) {
+                all.add(firstSeen[i][tick] - tick * TICK_MS);
+            }
+        }
+        double[] sorted = all.stream().mapToDouble(d -> d).toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Sends snapshots of the movers over the lossy link, with deltas from the last snapshot the client acknowledged,
+     * and checks that the client always ends up with the server's state, even for fields that went back to what they
+     * were in that snapshot before the client's acknowledgement arrived.
+     *
+     * @return when each mover's state of each tick, or a later one, first reached the client, by mover then tick
+     */
+    private double[][] runSnapshots() {
+        Mover[] serverMovers = new Mover[NUM_MOVERS];
+        Mover[] clientMovers = new Mover[NUM_MOVERS];
+        FieldReplicationHistory[] histories = new FieldReplicationHistory[NUM_MOVERS];
+        List<Map<Integer, FieldReplicationData>> statesByTick = new ArrayList<>();
+        for (int i = 0; i < NUM_MOVERS; i++) {
+            serverMovers[i] = new Mover();
+            clientMovers[i] = new Mover();
+            histories[i] = new FieldReplicationHistory(32);
+            statesByTick.add(new HashMap<>());
+        }
+        int[] lastAckedSnapshot = {SnapshotReceiver.NO_TICK};
+        SnapshotReceiver receiver = new SnapshotReceiver();
+        int[] lastSentAck = {SnapshotReceiver.NO_TICK};
+        // The latest tick applied to each mover, and when each tick's state was first there.
+        int[] appliedTicks = new int[NUM_MOVERS];
+        Arrays.fill(appliedTicks, 0);
+        double[][] firstSeen = new double[NUM_MOVERS][NUM_TICKS];
+
+        // The client is given every mover whole to begin with, as it would be when they're attached.
+        for (int i = 0; i < NUM_MOVERS; i++) {
+            FieldReplicationData full = table.replicateFull(serverMovers[i]);
+            histories[i].add(0, full);
+            table.applyReplicationData(full, clientMovers[i]);
+            receiver.markApplied(i, 0);
+        }
+
+        for (int t = 1; t < NUM_TICKS; t++) {
+            int tick = t;
+            at(tick * TICK_MS, () -> {
+                // Let the last few ticks through, so that the client has to end up where the server is.
+                loss = tick >= NUM_TICKS - 5 ? 0 : LOSS;
+                move(serverMovers);
+                TickFrameWriter writer = new TickFrameWriter(tick, true, 200,
+                        frame -> sendUnreliably(frame, o -> {
+                            TickFrame f = (TickFrame) o;
+                            for (FieldReplicateMessage m : receiver.receive(f, id -> true)) {
+                                Mover mover = clientMovers[m.componentID];
+                                table.applyReplicationData(m.fieldReplicationData, mover);
+                                assertEquals("The client has exactly the server's state of the tick",
+                                        statesByTick.get(m.componentID).get(f.tickID), table.replicateFull(mover));
+                                for (int seen = appliedTicks[m.componentID] + 1; seen <= f.tickID; seen++) {
+                                    firstSeen[m.componentID][seen] = now;
+                                }
+                                appliedTicks[m.componentID] = f.tickID;
+                            }
+                            if (receiver.getLatestCompleteTick() > lastSentAck[0]) {
+                                lastSentAck[0] = receiver.getLatestCompleteTick();
+                                sendUnreliably(new SnapshotAck(lastSentAck[0]), ack -> {
+                                    int acked = ((SnapshotAck) ack).tickID;
+                                    lastAckedSnapshot[0] = Math.max(lastAckedSnapshot[0], acked);
+                                });
+                            }
+                        }));
+                for (int i = 0; i < NUM_MOVERS; i++) {
+                    histories[i].add(tick, table.replicateFull(serverMovers[i]));
+                    statesByTick.get(i).put(tick, histories[i].getLatest());
+                    // What the server sends, as every mover was sent whole in tick 0.
+                    FieldReplicationData fields = histories[i].changesFor(0, lastAckedSnapshot[0]);
+                    if (fields.fieldData.size() > 0) {
+                        writer.add(new FieldReplicateMessage(i, fields));
+                    }
+                }
+                writer.finish();
+            });
+        }
+        run();
+
+        for (int i = 0; i < NUM_MOVERS; i++) {
+            assertEquals(table.replicateFull(serverMovers[i]), table.replicateFull(clientMovers[i]));
+        }
+        assertEquals(NUM_TICKS - 1, receiver.getLatestCompleteTick());
+        return firstSeen;
+    }
+
+    /**
+     * Works out when each tick would reach the client if every tick was sent in order over one reliable stream, where
+     * a lost packet is sent again after a timeout and holds back every packet after it until then.
+     */
+    private double[][] runReliable() {
+        double[][] firstSeen = new double[NUM_MOVERS][NUM_TICKS];
+        double lastDelivered = 0;
+        for (int tick = 1; tick < NUM_TICKS; tick++) {
+            double sent = tick * TICK_MS;
+            double timeout = RETRANSMIT_TIMEOUT_MS;
+            while (random.nextDouble() < LOSS) {
+                sent += timeout;
+                timeout *= 2;
+            }
+            // Jitter doesn't reorder a stream; later packets wait for earlier ones.
+            lastDelivered = Math.max(lastDelivered, sent + ONE_WAY_DELAY_MS + random.nextDouble() * JITTER_MS);
+            for (int i = 0; i < NUM_MOVERS; i++) {
+                firstSeen[i][tick] = lastDelivered;
+            }
+        }
+        return firstSeen;
+    }
+
+    @Test
+    public void testSnapshotsBeatReliableStreamUnderLoss() {
+        double[] snapshots = latencies(runSnapshots());
+        double[] reliable = latencies(runReliable());
+
+        double snapshotMean = Arrays.stream(snapshots).average().getAsDouble();
+        double reliableMean = Arrays.stream(reliable).average().getAsDouble();
+        System.out.printf("%.0f%% loss, %.0f ms delay: snapshots mean %.1f ms, p99 %.1f ms, max %.1f ms; "
+                        + "reliable stream mean %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                LOSS * 100, ONE_WAY_DELAY_MS,
+                snapshotMean, percentile(snapshots, 0.99), snapshots[snapshots.length - 1],
+                reliableMean, percentile(reliable, 0.99), reliable[reliable.length - 1]);
+
+        assertTrue(snapshotMean < reliableMean);
+        // A lost snapshot costs a tick, as the next one has the same changes; a lost packet of the stream costs at
+        // least the retransmit timeout.
+        assertTrue(percentile(snapshots, 0.99) <= ONE_WAY_DELAY_MS + JITTER_MS + TICK_MS * 2);
+        assertTrue(percentile(reliable, 0.99) > ONE_WAY_DELAY_MS + RETRANSMIT_TIMEOUT_MS);
+    }
+}
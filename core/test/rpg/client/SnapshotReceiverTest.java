@@ -0,0 +1,68 @@
+package rpg.client;
+
+import org.junit.Test;
+import rpg.scene.kryo.FieldReplicateMessage;
+import rpg.scene.kryo.TickFrame;
+import rpg.scene.replication.FieldReplicationData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class SnapshotReceiverTest {
+
+    private static TickFrame frame(int tick, int index, boolean last, int... componentIDs) {
+        TickFrame frame = new TickFrame();
+        frame.tickID = tick;
+        frame.index = index;
+        frame.last = last;
+        frame.snapshot = true;
+        frame.messages = new ArrayList<>();
+        for (int id : componentIDs) {
+            frame.messages.add(new FieldReplicateMessage(id, new FieldReplicationData()));
+        }
+        return frame;
+    }
+
+    @Test
+    public void testStaleFieldsAreDropped() {
+        SnapshotReceiver r = new SnapshotReceiver();
+        assertEquals(2, r.receive(frame(5, 0, true, 1, 2), id -> true).size());
+        assertEquals(5, r.getLatestCompleteTick());
+
+        // Tick 4 arrives late. Component 3 wasn't in tick 5, so its fields are still the newest it has.
+        assertEquals(Arrays.asList(3), r.receive(frame(4, 0, true, 1, 3), id -> true)
+                .stream().map(m -> m.componentID).collect(Collectors.toList()));
+        assertEquals(5, r.getLatestCompleteTick());
+
+        // Duplicates are dropped too.
+        assertTrue(r.receive(frame(5, 0, true, 1, 2), id -> true).isEmpty());
+
+        r.markApplied(2, 7);
+        assertEquals(1, r.receive(frame(6, 0, true, 1, 2), id -> true).size());
+
+        r.forget(2);
+        assertEquals(1, r.receive(frame(6, 0, true, 2), id -> true).size());
+    }
+
+    @Test
+    public void testTickCompletesWithAllFrames() {
+        SnapshotReceiver r = new SnapshotReceiver();
+        r.receive(frame(1, 2, true, 3), id -> true);
+        r.receive(frame(1, 0, false, 1), id -> true);
+        assertEquals(SnapshotReceiver.NO_TICK, r.getLatestCompleteTick());
+        r.receive(frame(1, 1, false, 2), id -> true);
+        assertEquals(1, r.getLatestCompleteTick());
+    }
+
+    @Test
+    public void testTickWithUnknownComponentNeverCompletes() {
+        SnapshotReceiver r = new SnapshotReceiver();
+        assertEquals(1, r.receive(frame(1, 0, true, 1, 9), id -> id != 9).size());
+        assertEquals(SnapshotReceiver.NO_TICK, r.getLatestCompleteTick());
+        r.receive(frame(2, 0, true, 1, 9), id -> true);
+        assertEquals(2, r.getLatestCompleteTick());
+    }
+}
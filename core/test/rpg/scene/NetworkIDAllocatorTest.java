@@ -0,0 +1,201 @@
+package rpg.scene;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class NetworkIDAllocatorTest {
+
+    @Test
+    public void testFreedSlotIsReusedWithNewGeneration() {
+        NetworkIDAllocator ids = new NetworkIDAllocator();
+        int a = ids.allocate();
+        int b = ids.allocate();
+        assertEquals(0, NetworkIDAllocator.indexOf(a));
+        assertEquals(1, NetworkIDAllocator.indexOf(b));
+
+        ids.free(a);
+        assertFalse(ids.isAllocated(a));
+
+        // Slots are only reused once enough are waiting.
+        for (int i = 0; i < NetworkIDAllocator.MIN_FREE_SLOTS; i++) {
+            ids.free(ids.allocate());
+        }
+        int capacity = ids.getCapacity();
+        assertEquals(2 + NetworkIDAllocator.MIN_FREE_SLOTS, capacity);
+
+        int c = ids.allocate();
+        assertEquals("The oldest freed slot was not reused.", 0, NetworkIDAllocator.indexOf(c));
+        assertNotEquals("A stale ID matches the slot's new owner.", a, c);
+        assertEquals(NetworkIDAllocator.generationOf(a) + 1, NetworkIDAllocator.generationOf(c));
+        assertTrue(ids.isAllocated(c));
+        assertFalse(ids.isAllocated(a));
+        assertEquals(2, ids.getNumAllocated());
+        assertEquals(capacity, ids.getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDoubleFreeThrows() {
+        NetworkIDAllocator ids = new NetworkIDAllocator();
+        int a = ids.allocate();
+        ids.free(a);
+        ids.free(a);
+    }
+
+    /**
+     * Spawning and despawning one thing over and over doesn't run a slot through its generations, so stale IDs don't
+     * come back for a long while.
+     */
+    @Test
+    public void testChurningOneSlotDoesNotReuseIDs() {
+        NetworkIDAllocator ids = new NetworkIDAllocator();
+        Set<Integer> seen = new HashSet<>();
+        int id = ids.allocate();
+        seen.add(id);
+        for (int i = 0; i < 1 << 18; i++) {
+            ids.free(id);
+            id = ids.allocate();
+            assertTrue(id >= 0);
+            assertTrue("ID " + id + " was handed out again after " + i + " frees.", seen.add(id));
+        }
+        assertTrue(ids.getCapacity() <= NetworkIDAllocator.MIN_FREE_SLOTS + 1);
+    }
+
+    @Test
+    public void testGenerationWrapsAround() {
+        NetworkIDAllocator ids = new NetworkIDAllocator();
+        int first = ids.allocate();
+        int id = first;
+        int frees = (1 << NetworkIDAllocator.GENERATION_BITS) * (NetworkIDAllocator.MIN_FREE_SLOTS + 1);
+        for (int i = 0; i < frees; i++) {
+            ids.free(id);
+            id = ids.allocate();
+            assertTrue(id >= 0);
+        }
+        assertEquals(first, id);
+    }
+
+    /**
+     * Threads allocating and freeing at once never get the same ID while it is in use, and the slots stay dense.
+     */
+    @Test(timeout = 30000)
+    public void testConcurrentAllocationIsUnique() throws Exception {
+        NetworkIDAllocator ids = new NetworkIDAllocator();
+        int numThreads = 4;
+        int perThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                results.add(executor.submit((Callable<int[]>) () -> {
+                    int[] kept = new int[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        // Churn a little to exercise the free list.
+                        ids.free(ids.allocate());
+                        kept[i] = ids.allocate();
+                    }
+                    return kept;
+                }));
+            }
+
+            Set<Integer> seen = new HashSet<>();
+            Set<Integer> indices = new HashSet<>();
+            for (Future<int[]> f : results) {
+                for (int id : f.get()) {
+                    assertTrue("ID " + id + " was handed out twice.", seen.add(id));
+                    indices.add(NetworkIDAllocator.indexOf(id));
+                }
+            }
+            assertEquals(numThreads * perThread, ids.getNumAllocated());
+            assertEquals(numThreads * perThread, indices.size());
+            // Past the slots that wait to be reused, at most one extra slot per thread can be left free.
+            assertTrue(ids.getCapacity() <= numThreads * perThread + NetworkIDAllocator.MIN_FREE_SLOTS + numThreads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Replicated and local nodes attached over and over take their slot through every generation without their IDs
+     * running into the reserved ones.
+     */
+    @Test
+    public void testLastGenerationStaysClearOfReservedIDs() {
+        Scene s = new Scene();
+        Node replicated = new Node();
+        Node local = Node.createLocalNode();
+        int cycles = (1 << NetworkIDAllocator.GENERATION_BITS) * (NetworkIDAllocator.MIN_FREE_SLOTS + 1) + 1;
+        int highestGeneration = 0;
+        int highestLocalGeneration = 0;
+        for (int i = 0; i < cycles; i++) {
+            s.getRoot().addChild(replicated);
+            s.getRoot().addChild(local);
+            int id = replicated.getNetworkID();
+            int localID = local.getNetworkID();
+            assertTrue(replicated.isReplicated());
+            assertFalse(local.isReplicated());
+            assertNotEquals(Node.UNASSIGNED_NETWORK_ID, id);
+            assertNotEquals(Node.UNASSIGNED_LOCAL_NETWORK_ID, localID);
+            assertNotEquals(Node.ROOT_NODE_NETWORK_ID, localID);
+            highestGeneration = Math.max(highestGeneration, NetworkIDAllocator.generationOf(id));
+            highestLocalGeneration = Math.max(highestLocalGeneration, NetworkIDAllocator.generationOf(-2 - localID));
+            replicated.removeFromParent();
+            local.removeFromParent();
+        }
+        int lastGeneration = (1 << NetworkIDAllocator.GENERATION_BITS) - 1;
+        assertEquals(lastGeneration, highestGeneration);
+        assertEquals(lastGeneration, highestLocalGeneration);
+    }
+
+    @Test
+    public void testSceneRecyclesIDsOfDetachedNodes() {
+        Scene s = new Scene();
+        Node n = new Node(s.getRoot());
+        int oldID = n.getNetworkID();
+        assertTrue(n.isReplicated());
+
+        n.removeFromParent();
+        // The detached node keeps its ID, but the scene no longer knows it.
+        assertEquals(oldID, n.getNetworkID());
+        assertNull(s.findNode(oldID));
+
+        // Once enough other slots are waiting, the node's slot is the first to be reused.
+        for (int i = 0; i < NetworkIDAllocator.MIN_FREE_SLOTS; i++) {
+            new Node(s.getRoot()).removeFromParent();
+        }
+        Node other = new Node(s.getRoot());
+        assertEquals(NetworkIDAllocator.indexOf(oldID), NetworkIDAllocator.indexOf(other.getNetworkID()));
+        assertNotEquals(oldID, other.getNetworkID());
+        assertNull(s.findNode(oldID));
+
+        s.getRoot().addChild(n);
+        assertNotEquals(oldID, n.getNetworkID());
+        assertSame(n, s.findNode(n.getNetworkID()));
+    }
+
+    @Test
+    public void testScenesAllocateIndependently() {
+        Scene a = new Scene();
+        Scene b = new Scene();
+        Node na = new Node(a.getRoot());
+        Node nb = new Node(b.getRoot());
+        assertEquals(na.getNetworkID(), nb.getNetworkID());
+        assertEquals(na.getTransform().getNetworkID(), nb.getTransform().getNetworkID());
+
+        Node local = Node.createLocalNode();
+        assertEquals(Node.UNASSIGNED_LOCAL_NETWORK_ID, local.getNetworkID());
+        a.getRoot().addChild(local);
+        assertFalse(local.isReplicated());
+        assertNotEquals(Node.ROOT_NODE_NETWORK_ID, local.getNetworkID());
+        assertSame(local, a.findNode(local.getNetworkID()));
+    }
+}
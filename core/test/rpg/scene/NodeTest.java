@@ -1,14 +1,14 @@
 package rpg.scene;
 
 import org.junit.Test;
+import rpg.scene.components.Component;
 import rpg.scene.components.Transform;
 
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.IntStream;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 
 public class NodeTest {
 
@@ -42,4 +42,76 @@ public class NodeTest {
         assertNotNull(n.findComponent(Transform.class));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFindComponentTracksChanges() {
+        Scene s = new Scene();
+        Node n = new Node(s.getRoot());
+        assertNull(n.findComponent(C0.class));
+
+        C0 c0 = new C0();
+        n.addComponent(c0);
+        assertSame(c0, n.findComponent(C0.class));
+        // Lookups by a supertype find the first match, as before.
+        assertSame(n.getTransform(), n.findComponent(Component.class));
+
+        Node other = new Node(s.getRoot());
+        other.addComponent(c0);
+        assertNull(n.findComponent(C0.class));
+        assertSame(c0, other.findComponent(C0.class));
+
+        other.removeComponent(c0);
+        assertNull(other.findComponent(C0.class));
+    }
+
+    static class C0 extends Component {}
+    static class C1 extends Component {}
+    static class C2 extends Component {}
+    static class C3 extends Component {}
+
+    interface Marker {}
+    static class C2Marked extends C2 implements Marker {}
+
+    @Test
+    public void testFindComponentMemo() {
+        // Skip the default Transform so the node holds only the components added here.
+        Node n = new Node(0, false);
+        C0 c0 = new C0();
+        C1 c1 = new C1();
+        n.addComponent(c0);
+        n.addComponent(c1);
+
+        // Repeated lookups hit the memo and keep returning the same components.
+        for (int i = 0; i < 3; i++) {
+            assertSame(c0, n.findComponent(C0.class));
+            assertSame(c1, n.findComponent(C1.class));
+            assertNull(n.findComponent(C2.class));
+            assertNull(n.findComponent(Marker.class));
+        }
+
+        // A type that was memoized as missing is found once it is added.
+        C2Marked c2 = new C2Marked();
+        n.addComponent(c2);
+        assertSame(c2, n.findComponent(C2.class));
+        assertSame(c2, n.findComponent(Marker.class));
+        assertSame(c2, n.findComponent(C2Marked.class));
+        assertSame(c0, n.findComponent(C0.class));
+
+        // A removed component is no longer returned, and the others still are.
+        n.removeComponent(c0);
+        assertNull(n.findComponent(C0.class));
+        assertSame(c1, n.findComponent(C1.class));
+        assertSame(c2, n.findComponent(Marker.class));
+
+        n.removeComponent(c2);
+        assertNull(n.findComponent(C2.class));
+        assertNull(n.findComponent(Marker.class));
+
+        // A supertype lookup moves on to the next match when the memoized one goes away.
+        assertSame(c1, n.findComponent(Component.class));
+        C3 c3 = new C3();
+        n.addComponent(c3);
+        n.removeComponent(c1);
+        assertSame(c3, n.findComponent(Component.class));
+    }
+}
@@ -0,0 +1,146 @@
+package rpg.scene;
+
+import org.junit.Test;
+import rpg.scene.components.Component;
+import rpg.scene.systems.AbstractSceneSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SceneCommandBufferTest {
+
+    private static class EventRecorder extends AbstractSceneSystem {
+        final String name;
+        final List<String> log;
+
+        EventRecorder(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public boolean doesProcessNodes() {
+            return false;
+        }
+
+        @Override
+        public void nodeAttached(Node n) {
+            log.add(name + " attached " + n.getNetworkID());
+        }
+
+        @Override
+        public void nodeDetached(Node n) {
+            log.add(name + " detached " + n.getNetworkID());
+        }
+    }
+
+    @Test
+    public void testCommandsApplyImmediatelyOutsideProcessing() {
+        Scene s = new Scene();
+        Node n = new Node();
+        s.getCommandBuffer().addChild(s.getRoot(), n);
+
+        assertSame(s.getRoot(), n.getParent());
+        assertTrue(s.getCommandBuffer().isEmpty());
+
+        s.getCommandBuffer().removeFromParent(n);
+        assertNull(n.getParent());
+    }
+
+    @Test
+    public void testCommandsDeferredUntilSyncPoint() {
+        Scene s = new Scene();
+        Node existing = new Node(s.getRoot());
+        Node added = new Node();
+        List<Node> seenDuringProcessing = new ArrayList<>();
+
+        s.addSystem(new AbstractSceneSystem() {
+            boolean done = false;
+
+            @Override
+            public void beginProcessing() {
+                if (!done) {
+                    getParent().getCommandBuffer().addChild(getParent().getRoot(), added);
+                    getParent().getCommandBuffer().removeFromParent(existing);
+                    // Asking twice for the same removal is harmless.
+                    getParent().getCommandBuffer().removeFromParent(existing);
+                    done = true;
+                }
+            }
+
+            @Override
+            public void processNode(Node n, float deltaTime) {
+                seenDuringProcessing.add(n);
+            }
+        });
+        s.update(1);
+
+        assertTrue("Removal was applied mid-traversal", seenDuringProcessing.contains(existing));
+        assertFalse("Addition was applied mid-traversal", seenDuringProcessing.contains(added));
+        assertNull(existing.getParent());
+        assertSame(s.getRoot(), added.getParent());
+        assertSame(added, s.findNode(added.getNetworkID()));
+        assertNull(s.findNode(existing.getNetworkID()));
+    }
+
+    @Test
+    public void testEventsDeliveredInBulkAfterEachSystem() {
+        Scene s = new Scene();
+        List<String> log = new ArrayList<>();
+        Node a = new Node();
+        Node b = new Node();
+
+        s.addSystem(new AbstractSceneSystem() {
+            @Override
+            public void beginProcessing() {
+                if (a.getParent() == null) {
+                    getParent().getCommandBuffer().addChild(getParent().getRoot(), a);
+                    getParent().getCommandBuffer().addChild(getParent().getRoot(), b);
+                }
+            }
+
+            @Override
+            public boolean doesProcessNodes() {
+                return false;
+            }
+        });
+        s.addSystem(new EventRecorder("first", log));
+        s.addSystem(new EventRecorder("second", log));
+        s.update(1);
+
+        assertEquals(4, log.size());
+        assertEquals("first attached " + a.getNetworkID(), log.get(0));
+        assertEquals("first attached " + b.getNetworkID(), log.get(1));
+        assertEquals("second attached " + a.getNetworkID(), log.get(2));
+        assertEquals("second attached " + b.getNetworkID(), log.get(3));
+    }
+
+    @Test
+    public void testDetachedSubtreeFiresEventsOnAttach() {
+        Scene s = new Scene();
+        List<String> log = new ArrayList<>();
+        s.addSystem(new EventRecorder("sys", log));
+
+        Node parent = new Node();
+        Node child = new Node(parent);
+        Component c = new Component() {
+        };
+        child.addComponent(c);
+        assertNull(child.getScene());
+        assertTrue(log.isEmpty());
+
+        s.getRoot().addChild(parent);
+        assertSame(s, child.getScene());
+        assertEquals(2, log.size());
+        assertSame(c, s.findComponent(c.getNetworkID()));
+        assertSame(child, s.findNode(child.getNetworkID()));
+
+        s.getRoot().removeChild(parent);
+        assertNull(child.getScene());
+        assertEquals(4, log.size());
+        assertNull(s.findComponent(c.getNetworkID()));
+        assertNull(s.findNode(child.getNetworkID()));
+    }
+}
@@ -0,0 +1,311 @@
+package rpg.scene;
+
+import org.junit.Test;
+import rpg.scene.components.Component;
+import rpg.scene.components.Steppable;
+import rpg.scene.systems.AbstractSceneSystem;
+import rpg.scene.systems.EventInterest;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SceneTest {
+
+    private static final int NUM_NODES = 10000;
+
+    @Test
+    public void testFindNodeAndComponent() {
+        Scene s = new Scene();
+        Node n = new Node(s.getRoot());
+        Component c = new Component() {
+        };
+        n.addComponent(c);
+
+        assertSame(n, s.findNode(n.getNetworkID()));
+        assertSame(c, s.findComponent(c.getNetworkID()));
+
+        n.removeComponent(c);
+        assertNull(s.findComponent(c.getNetworkID()));
+
+        s.getRoot().removeChild(n);
+        assertNull(s.findNode(n.getNetworkID()));
+    }
+
+    /**
+     * Every node in a large scene is found by its ID, detached nodes stop being found without disturbing the rest, and
+     * nodes attached again are found by their new IDs.
+     */
+    @Test
+    public void testFindNodeInLargeScene() {
+        Scene s = new Scene();
+        Node[] nodes = new Node[NUM_NODES];
+        for (int i = 0; i < NUM_NODES; i++) {
+            // Skip default components to keep the scene cheap to build.
+            nodes[i] = new Node(i, false);
+            s.getRoot().addChild(nodes[i]);
+        }
+        for (Node n : nodes) {
+            assertSame(n, s.findNode(n.getNetworkID()));
+        }
+
+        Random r = new Random(1234);
+        boolean[] detached = new boolean[NUM_NODES];
+        int[] oldIDs = new int[NUM_NODES];
+        for (int i = 0; i < NUM_NODES; i++) {
+            if (r.nextBoolean()) {
+                detached[i] = true;
+                oldIDs[i] = nodes[i].getNetworkID();
+                s.getRoot().removeChild(nodes[i]);
+            }
+        }
+        for (int i = 0; i < NUM_NODES; i++) {
+            if (detached[i]) {
+                assertNull(s.findNode(oldIDs[i]));
+            } else {
+                assertSame(nodes[i], s.findNode(nodes[i].getNetworkID()));
+            }
+        }
+
+        for (int i = 0; i < NUM_NODES; i++) {
+            if (detached[i]) {
+                s.getRoot().addChild(nodes[i]);
+            }
+        }
+        for (Node n : nodes) {
+            assertSame(n, s.findNode(n.getNetworkID()));
+        }
+    }
+
+    private static class CountingSystem extends AbstractSceneSystem {
+        int visited = 0;
+
+        @Override
+        public void processNode(Node n, float deltaTime) {
+            visited++;
+        }
+    }
+
+    @Test
+    public void testSteadyStateUpdateDoesNotAllocate() {
+        Scene s = new Scene();
+        CountingSystem countingSystem = new CountingSystem();
+        s.addSystem(countingSystem);
+        s.addSystem(new CountingSystem());
+
+        for (int i = 0; i < 100; i++) {
+            Node n = new Node(s.getRoot());
+            for (int j = 0; j < 10; j++) {
+                Node nn = new Node(n);
+                for (int k = 0; k < 10; k++) {
+                    new Node(nn);
+                }
+            }
+        }
+        int numNodes = s.getNumNodes();
+
+        // Warm up: the first traversal builds the child snapshots.
+        for (int i = 0; i < 50; i++) {
+            s.update(1);
+        }
+        countingSystem.visited = 0;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadID);
+        for (int i = 0; i < 100; i++) {
+            s.update(1);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadID) - before;
+
+        assertEquals(numNodes * 100, countingSystem.visited);
+        assertTrue("Scene.update allocated " + allocated + " bytes over 100 frames", allocated < 1024);
+    }
+
+    @Test
+    public void testChildrenChangedDuringTraversal() {
+        Scene s = new Scene();
+        Node a = new Node(s.getRoot());
+        Node b = new Node(s.getRoot());
+        final Node[] added = new Node[1];
+        s.addSystem(new AbstractSceneSystem() {
+            @Override
+            public void processNode(Node n, float deltaTime) {
+                if (n == a) {
+                    // Removing a later sibling and adding a new one must not disturb the traversal.
+                    s.getRoot().removeChild(b);
+                    added[0] = new Node(s.getRoot());
+                }
+                assertNotSame("A removed node was processed", b, n);
+                assertNotSame("A node added during traversal was processed", added[0], n);
+            }
+        });
+        s.update(1);
+
+        assertNotNull(added[0]);
+        assertNull(b.getParent());
+    }
+
+    @Test
+    public void testFindSystemAndHandlesFollowSystemChanges() {
+        Scene s = new Scene();
+        SystemHandle<CountingSystem> handle = s.getSystemHandle(CountingSystem.class);
+        assertSame(handle, s.getSystemHandle(CountingSystem.class));
+        assertNull(s.findSystem(CountingSystem.class));
+        assertNull(handle.get());
+
+        CountingSystem first = new CountingSystem();
+        CountingSystem second = new CountingSystem();
+        s.addSystem(first);
+        s.addSystem(second);
+        assertSame(first, s.findSystem(CountingSystem.class));
+        assertSame(first, s.findSystem(AbstractSceneSystem.class));
+        assertSame(first, handle.get());
+
+        s.removeSystem(first);
+        assertSame(second, s.findSystem(CountingSystem.class));
+        assertSame(second, handle.get());
+
+        s.removeSystem(CountingSystem.class);
+        assertNull(s.findSystem(CountingSystem.class));
+        assertNull(handle.get());
+    }
+
+    @Test
+    public void testHandlesResolveConsistentlyAcrossThreads() throws InterruptedException {
+        Scene s = new Scene();
+        SystemHandle<CountingSystem> handle = s.getSystemHandle(CountingSystem.class);
+        for (int round = 0; round < 200; round++) {
+            CountingSystem system = new CountingSystem();
+            s.addSystem(system);
+            // Every thread resolves the handle for the first time at this version at once, as workers stepping
+            // components in parallel do.
+            List<CountingSystem> seen = Collections.synchronizedList(new ArrayList<>());
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        seen.add(handle.get());
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (CountingSystem found : seen) {
+                assertSame(system, found);
+            }
+            s.removeSystem(system);
+        }
+    }
+
+    private static class SteppableComponent extends Component implements Steppable {
+        @Override
+        public void step(float deltaTime) {
+        }
+    }
+
+    private static class InterestedSystem extends AbstractSceneSystem {
+        final EventInterest interest;
+        final List<String> log = new ArrayList<>();
+        int batches = 0;
+
+        InterestedSystem(EventInterest interest) {
+            this.interest = interest;
+        }
+
+        @Override
+        public EventInterest getEventInterest() {
+            return interest;
+        }
+
+        @Override
+        public void processEvents(SceneEventBatch batch) {
+            batches++;
+            super.processEvents(batch);
+        }
+
+        @Override
+        public void nodeAttached(Node n) {
+            log.add("node attached");
+        }
+
+        @Override
+        public void nodeDetached(Node n) {
+            log.add("node detached");
+        }
+
+        @Override
+        public void componentAttached(Component c) {
+            log.add(c.getClass().getSimpleName() + " attached");
+        }
+
+        @Override
+        public void componentDetached(Component c) {
+            log.add(c.getClass().getSimpleName() + " detached");
+        }
+    }
+
+    @Test
+    public void testEventsOnlyReachInterestedSystems() {
+        Scene s = new Scene();
+        InterestedSystem none = new InterestedSystem(EventInterest.none());
+        InterestedSystem steppables = new InterestedSystem(EventInterest.none().components(Steppable.class));
+        InterestedSystem detaches = new InterestedSystem(EventInterest.none()
+                .kinds(SceneEvent.Kind.NodeDetached, SceneEvent.Kind.ComponentDetached));
+        s.addSystem(none);
+        s.addSystem(steppables);
+        s.addSystem(detaches);
+
+        Node n = new Node(s.getRoot());
+        n.addComponent(new SteppableComponent());
+        s.getRoot().removeChild(n);
+
+        assertTrue(none.log.isEmpty());
+        assertEquals(2, steppables.log.size());
+        assertEquals("SteppableComponent attached", steppables.log.get(0));
+        assertEquals("SteppableComponent detached", steppables.log.get(1));
+        // The node, its Transform and the Steppable.
+        assertEquals(3, detaches.log.size());
+        assertEquals("node detached", detaches.log.get(0));
+    }
+
+    @Test
+    public void testSyncPointDeliversEventsInOneBatch() {
+        Scene s = new Scene();
+        InterestedSystem steppables = new InterestedSystem(EventInterest.none().components(Steppable.class));
+        InterestedSystem all = new InterestedSystem(EventInterest.ALL);
+        s.addSystem(new AbstractSceneSystem() {
+            @Override
+            public void beginProcessing() {
+                for (int i = 0; i < 10; i++) {
+                    Node n = new Node();
+                    n.addComponent(new SteppableComponent());
+                    getParent().getCommandBuffer().addChild(getParent().getRoot(), n);
+                }
+            }
+
+            @Override
+            public boolean doesProcessNodes() {
+                return false;
+            }
+        });
+        s.addSystem(steppables);
+        s.addSystem(all);
+        s.update(1);
+
+        assertEquals(1, steppables.batches);
+        assertEquals(10, steppables.log.size());
+        assertEquals(1, all.batches);
+        // A node, its Transform and its Steppable each.
+        assertEquals(30, all.log.size());
+        assertEquals("node attached", all.log.get(0));
+        assertEquals("Transform attached", all.log.get(1));
+        assertEquals("SteppableComponent attached", all.log.get(2));
+    }
+}
@@ -0,0 +1,200 @@
+package rpg.scene;
+
+import org.junit.Test;
+import rpg.scene.components.Spatial2D;
+import rpg.scene.components.Steppable;
+import rpg.scene.components.Transform;
+import rpg.scene.systems.AbstractSceneSystem;
+import rpg.scene.systems.SceneSystem;
+import rpg.scene.systems.SystemAccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SystemSchedulerTest {
+
+    private static class DeclaredSystem extends AbstractSceneSystem {
+        final String name;
+        final SystemAccess access;
+
+        DeclaredSystem(String name, SystemAccess access) {
+            this.name = name;
+            this.access = access;
+        }
+
+        @Override
+        public SystemAccess getAccess() {
+            return access;
+        }
+
+        @Override
+        public boolean doesProcessNodes() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    @Test
+    public void testPlanGroupsNonConflictingSystems() {
+        SceneSystem a = new DeclaredSystem("a", SystemAccess.none().reading(Transform.class));
+        SceneSystem b = new DeclaredSystem("b", SystemAccess.none().reading(Transform.class, Spatial2D.class));
+        SceneSystem c = new DeclaredSystem("c", SystemAccess.none().writing(Transform.class));
+        SceneSystem d = new DeclaredSystem("d", SystemAccess.none().writing(Steppable.class));
+        SceneSystem e = new DeclaredSystem("e", SystemAccess.EXCLUSIVE);
+        SceneSystem f = new DeclaredSystem("f", SystemAccess.none());
+
+        List<SceneSystem[]> waves = SystemScheduler.plan(new SceneSystem[]{a, b, c, d, e, f});
+
+        assertEquals(4, waves.size());
+        // Readers share a wave; the writer has to wait for them. d conflicts with nothing before it.
+        assertArrayEquals(new SceneSystem[]{a, b, d}, waves.get(0));
+        assertArrayEquals(new SceneSystem[]{c}, waves.get(1));
+        // Exclusive systems are barriers.
+        assertArrayEquals(new SceneSystem[]{e}, waves.get(2));
+        assertArrayEquals(new SceneSystem[]{f}, waves.get(3));
+    }
+
+    @Test
+    public void testWriteOfSupertypeConflicts() {
+        SystemAccess readsTransform = SystemAccess.none().reading(Transform.class);
+        assertTrue(SystemAccess.none().writing(rpg.scene.components.Component.class).conflictsWith(readsTransform));
+        assertFalse(SystemAccess.none().reading(rpg.scene.components.Component.class).conflictsWith(readsTransform));
+    }
+
+    /**
+     * Two non-conflicting systems wait for each other at a barrier, which can only succeed if they really are
+     * processed at the same time.
+     */
+    @Test(timeout = 10000)
+    public void testNonConflictingSystemsRunConcurrently() {
+        Scene s = new Scene();
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 2; i++) {
+            s.addSystem(new DeclaredSystem("reader" + i, SystemAccess.none().reading(Transform.class)) {
+                @Override
+                public void beginProcessing() {
+                    try {
+                        barrier.await(5, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    threads.add(Thread.currentThread().getName());
+                }
+            });
+        }
+        s.update(1);
+
+        assertEquals(2, threads.size());
+        assertNotEquals(threads.get(0), threads.get(1));
+    }
+
+    @Test
+    public void testSystemRemovedDuringUpdateIsSkipped() {
+        Scene s = new Scene();
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        DeclaredSystem[] readers = new DeclaredSystem[3];
+        s.addSystem(new DeclaredSystem("remover", SystemAccess.EXCLUSIVE) {
+            @Override
+            public void beginProcessing() {
+                getParent().removeSystem(readers[1]);
+            }
+        });
+        for (int i = 0; i < readers.length; i++) {
+            String name = "reader" + i;
+            readers[i] = new DeclaredSystem(name, SystemAccess.none().reading(Transform.class)) {
+                @Override
+                public void beginProcessing() {
+                    ran.add(name);
+                }
+            };
+            s.addSystem(readers[i]);
+        }
+        for (int update = 0; update < 3; update++) {
+            ran.clear();
+            s.update(1);
+            assertEquals(2, ran.size());
+            assertTrue(ran.contains("reader0"));
+            assertTrue(ran.contains("reader2"));
+        }
+    }
+
+    @Test
+    public void testSerialModeRunsInRegistrationOrder() {
+        Scene s = new Scene();
+        s.setParallelSystems(false);
+        List<String> order = new ArrayList<>();
+        Thread caller = Thread.currentThread();
+        for (int i = 0; i < 4; i++) {
+            String name = "reader" + i;
+            s.addSystem(new DeclaredSystem(name, SystemAccess.none().reading(Transform.class)) {
+                @Override
+                public void beginProcessing() {
+                    assertSame(caller, Thread.currentThread());
+                    order.add(name);
+                }
+            });
+        }
+        s.update(1);
+
+        assertEquals(4, order.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("reader" + i, order.get(i));
+        }
+    }
+
+    /**
+     * Commands deferred by systems running in the same wave are applied in registration order, however the threads
+     * happened to interleave.
+     */
+    @Test
+    public void testConcurrentCommandsAppliedInRegistrationOrder() {
+        for (int run = 0; run < 20; run++) {
+            Scene s = new Scene();
+            int numSystems = 4;
+            int nodesPerSystem = 50;
+            Node[][] nodes = new Node[numSystems][nodesPerSystem];
+            for (int i = 0; i < numSystems; i++) {
+                for (int j = 0; j < nodesPerSystem; j++) {
+                    nodes[i][j] = new Node();
+                }
+                Node[] mine = nodes[i];
+                s.addSystem(new DeclaredSystem("spawner" + i, SystemAccess.none()) {
+                    @Override
+                    public void beginProcessing() {
+                        for (Node n : mine) {
+                            getParent().getCommandBuffer().addChild(getParent().getRoot(), n);
+                        }
+                    }
+                });
+            }
+
+            List<Node> attachOrder = new ArrayList<>();
+            s.addSystem(new AbstractSceneSystem() {
+                @Override
+                public void nodeAttached(Node n) {
+                    attachOrder.add(n);
+                }
+            });
+
+            s.update(1);
+
+            assertEquals(numSystems * nodesPerSystem, attachOrder.size());
+            int k = 0;
+            for (Node[] group : nodes) {
+                for (Node n : group) {
+                    assertSame(n, attachOrder.get(k++));
+                }
+            }
+        }
+    }
+}
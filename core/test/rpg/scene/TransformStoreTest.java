@@ -0,0 +1,194 @@
+package rpg.scene;
+
+import com.badlogic.gdx.backends.headless.HeadlessNativesLoader;
+import com.badlogic.gdx.math.Vector3;
+import org.junit.Before;
+import org.junit.Test;
+import rpg.scene.components.Transform;
+import rpg.scene.replication.FieldReplicationData;
+import rpg.scene.replication.RepTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TransformStoreTest {
+
+    @Before
+    public void setUp() {
+        HeadlessNativesLoader.load();
+    }
+
+    /**
+     * Builds the same random hierarchy in two scenes and makes the same random changes to both.
+     */
+    private static class Twins {
+        final Scene plain = new Scene();
+        final Scene stored = new Scene();
+        final List<Node> plainNodes = new ArrayList<>();
+        final List<Node> storedNodes = new ArrayList<>();
+        final Random r;
+
+        Twins(long seed, int numNodes) {
+            stored.setTransformStoreEnabled(true);
+            plainNodes.add(plain.getRoot());
+            storedNodes.add(stored.getRoot());
+            r = new Random(seed);
+            for (int i = 0; i < numNodes; i++) {
+                addNode();
+            }
+        }
+
+        void addNode() {
+            int parent = r.nextInt(plainNodes.size());
+            Vector3 p = new Vector3(r.nextFloat() * 4 - 2, r.nextFloat() * 4 - 2, r.nextFloat());
+            float angle = r.nextFloat() * 360;
+            Vector3 scale = new Vector3(0.5f + r.nextFloat(), 0.5f + r.nextFloat(), 1);
+            for (int k = 0; k < 2; k++) {
+                List<Node> nodes = k == 0 ? plainNodes : storedNodes;
+                Node n = new Node(nodes.get(parent));
+                n.getTransform().setPosition(p);
+                n.getTransform().setRotation(Vector3.Z, angle);
+                n.getTransform().setScale(scale);
+                nodes.add(n);
+            }
+        }
+
+        void mutate() {
+            for (int i = 0; i < 5; i++) {
+                int n = 1 + r.nextInt(plainNodes.size() - 1);
+                float dx = r.nextFloat() - 0.5f, dy = r.nextFloat() - 0.5f, angle = r.nextFloat() * 30;
+                for (List<Node> nodes : lists()) {
+                    nodes.get(n).getTransform().translate(dx, dy, 0);
+                    nodes.get(n).getTransform().rotate(Vector3.Z, angle);
+                }
+            }
+
+            int moved = 1 + r.nextInt(plainNodes.size() - 1);
+            int newParent = r.nextInt(plainNodes.size());
+            boolean intoOwnSubtree = false;
+            for (Node cur = plainNodes.get(newParent); cur != null; cur = cur.getParent()) {
+                if (cur == plainNodes.get(moved)) intoOwnSubtree = true;
+            }
+            if (!intoOwnSubtree) {
+                for (List<Node> nodes : lists()) {
+                    nodes.get(newParent).addChild(nodes.get(moved));
+                }
+            }
+
+            // Drop a leaf and add a node, so that slots get recycled.
+            int leaf = 1 + r.nextInt(plainNodes.size() - 1);
+            if (plainNodes.get(leaf).getNumChildren() == 0) {
+                for (List<Node> nodes : lists()) {
+                    nodes.remove(leaf).removeFromParent();
+                }
+            }
+            addNode();
+        }
+
+        List<List<Node>> lists() {
+            List<List<Node>> lists = new ArrayList<>();
+            lists.add(plainNodes);
+            lists.add(storedNodes);
+            return lists;
+        }
+
+        void assertSame() {
+            for (int i = 0; i < plainNodes.size(); i++) {
+                Transform expected = plainNodes.get(i).getTransform();
+                Transform actual = storedNodes.get(i).getTransform();
+                assertNotNull(actual.getStore());
+                assertTrue("Expected " + expected.getWorldPosition() + " but got " + actual.getWorldPosition(),
+                        expected.getWorldPosition().epsilonEquals(actual.getWorldPosition(), 0.001f));
+                assertTrue(expected.getWorldScale().epsilonEquals(actual.getWorldScale(), 0.001f));
+                assertEquals(1, Math.abs(expected.getWorldRotation().dot(actual.getWorldRotation())), 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void testStoreMatchesObjectTransforms() {
+        Twins twins = new Twins(7, 200);
+        for (int round = 0; round < 30; round++) {
+            twins.assertSame();
+            twins.mutate();
+        }
+        twins.assertSame();
+    }
+
+    @Test
+    public void testBulkUpdateCleansEverySlot() {
+        Twins twins = new Twins(11, 300);
+        twins.mutate();
+        TransformStore store = twins.stored.getTransformStore();
+
+        twins.stored.update(0);
+        for (Node n : twins.storedNodes) {
+            assertFalse(store.isDirty(n.getTransform().getStoreSlot()));
+        }
+        assertEquals(0, store.updateWorldTransforms());
+        twins.assertSame();
+    }
+
+    @Test
+    public void testSlotsAreRecycled() {
+        Scene s = new Scene();
+        s.setTransformStoreEnabled(true);
+        TransformStore store = s.getTransformStore();
+        Node a = new Node(s.getRoot());
+        Node b = new Node(a);
+        assertEquals(3, store.getNumInUse());
+        int slot = b.getTransform().getStoreSlot();
+        assertEquals(a.getTransform().getStoreSlot(), store.getParent(slot));
+
+        a.removeFromParent();
+        assertEquals(1, store.getNumInUse());
+        assertNull(b.getTransform().getStore());
+
+        Node c = new Node(s.getRoot());
+        assertTrue(store.isInUse(c.getTransform().getStoreSlot()));
+        assertEquals(3, store.getNumSlots());
+    }
+
+    @Test
+    public void testEnablingAndDisablingKeepsWorldTransforms() {
+        Scene s = new Scene();
+        Node a = new Node(s.getRoot());
+        Node b = new Node(a);
+        a.getTransform().setPosition(2, 0, 0);
+        a.getTransform().setRotation(Vector3.Z, 90);
+        b.getTransform().setPosition(1, 0, 0);
+        Vector3 expected = b.getTransform().getWorldPosition().cpy();
+
+        s.setTransformStoreEnabled(true);
+        assertNotNull(b.getTransform().getStore());
+        assertTrue(expected.epsilonEquals(b.getTransform().getWorldPosition(), 0.0001f));
+
+        a.getTransform().translate(1, 0, 0);
+        expected.add(0, 1, 0);
+        assertTrue(expected.epsilonEquals(b.getTransform().getWorldPosition(), 0.0001f));
+
+        s.setTransformStoreEnabled(false);
+        assertNull(b.getTransform().getStore());
+        a.getTransform().translate(-1, 0, 0);
+        expected.sub(0, 1, 0);
+        assertTrue(expected.epsilonEquals(b.getTransform().getWorldPosition(), 0.0001f));
+    }
+
+    @Test
+    public void testReplicatedFieldsReachTheStore() {
+        Scene s = new Scene();
+        s.setTransformStoreEnabled(true);
+        Node n = new Node(s.getRoot());
+
+        Transform source = new Transform();
+        source.setPosition(3, 4, 0);
+        RepTable t = RepTable.getTableForType(Transform.class);
+        FieldReplicationData frd = t.replicateFull(source);
+        t.applyReplicationData(frd, n.getTransform());
+
+        assertEquals(new Vector3(3, 4, 0), n.getTransform().getWorldPosition());
+    }
+}
@@ -8,10 +8,18 @@ import org.junit.Before;
 import org.junit.Test;
 import rpg.scene.Node;
 import rpg.scene.Scene;
+import rpg.scene.systems.GameLogicSystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import static com.badlogic.gdx.math.Matrix4.M00;
 import static com.badlogic.gdx.math.Matrix4.M03;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TransformTest {
@@ -32,6 +40,31 @@ public class TransformTest {
         assertEquals(mat.getValues()[M00], 2, 0.0001);
     }
 
+    @Test
+    public void testChangesMarkReplicationDirty() {
+        Transform t = new Transform();
+        assertTrue(t.tracksReplicationChanges());
+        assertTrue("New components are captured once", t.isReplicationDirty());
+
+        t.clearReplicationDirty();
+        t.getWorldPosition();
+        t.getPosition();
+        assertFalse(t.isReplicationDirty());
+
+        List<Runnable> changes = new ArrayList<>();
+        changes.add(() -> t.setPosition(1, 2, 3));
+        changes.add(() -> t.translate(1, 0, 0));
+        changes.add(() -> t.setScale(2, 2, 2));
+        changes.add(() -> t.scale(0.5f));
+        changes.add(() -> t.setRotation(Vector3.Z, 90));
+        changes.add(() -> t.rotate(Vector3.Z, 90));
+        for (Runnable change : changes) {
+            t.clearReplicationDirty();
+            change.run();
+            assertTrue(t.isReplicationDirty());
+        }
+    }
+
     @Test
     public void testTranslateTransformApplication() {
         Matrix4 mat = new Matrix4();
@@ -141,4 +174,149 @@ public class TransformTest {
         n1.getTransform().rotate(Vector3.Z, 180);
         assertEquals(-8, n2.getTransform().getWorldPosition().x, 0.00001);
     }
-}
\ No newline at end of file
+
+    /**
+     * The world position as it used to be computed: walking from the node up to the root, each level scales and
+     * rotates everything accumulated below it, including its own translation.
+     */
+    private static Vector3 referenceWorldPosition(Node n) {
+        Vector3 p = new Vector3();
+        for (Node cur = n; cur != null; cur = cur.getParent()) {
+            Transform t = cur.getTransform();
+            p.add(t.getPosition()).scl(t.getScale()).mul(t.getRotation());
+        }
+        return p;
+    }
+
+    @Test
+    public void testCachedWorldTransformsMatchParentWalk() {
+        Scene s = new Scene();
+        Random r = new Random(42);
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(s.getRoot());
+        for (int i = 0; i < 200; i++) {
+            Node parent = nodes.get(r.nextInt(nodes.size()));
+            Node n = new Node(parent);
+            n.getTransform().setPosition(new Vector3(r.nextFloat() * 4 - 2, r.nextFloat() * 4 - 2, 0));
+            n.getTransform().setRotation(new Quaternion(Vector3.Z, r.nextFloat() * 360));
+            n.getTransform().setScale(new Vector3(0.5f + r.nextFloat(), 0.5f + r.nextFloat(), 1));
+            nodes.add(n);
+        }
+
+        for (int round = 0; round < 20; round++) {
+            for (Node n : nodes) {
+                Vector3 expected = referenceWorldPosition(n);
+                Vector3 actual = n.getTransform().getWorldPosition();
+                assertTrue("Expected " + expected + " but got " + actual, expected.epsilonEquals(actual, 0.001f));
+            }
+
+            // Move a few nodes, including ones with cached descendants, and move one subtree to another parent.
+            for (int i = 0; i < 5; i++) {
+                Node n = nodes.get(1 + r.nextInt(nodes.size() - 1));
+                n.getTransform().translate(r.nextFloat() - 0.5f, r.nextFloat() - 0.5f, 0);
+                n.getTransform().rotate(Vector3.Z, r.nextFloat() * 30);
+            }
+            Node moved = nodes.get(1 + r.nextInt(nodes.size() - 1));
+            Node newParent = nodes.get(r.nextInt(nodes.size()));
+            boolean intoOwnSubtree = false;
+            for (Node cur = newParent; cur != null; cur = cur.getParent()) {
+                if (cur == moved) intoOwnSubtree = true;
+            }
+            if (!intoOwnSubtree) {
+                newParent.addChild(moved);
+            }
+        }
+    }
+
+    @Test
+    public void testWorldRotationAndScaleAccumulate() {
+        Scene s = new Scene();
+        Node n1 = new Node(s.getRoot());
+        Node n2 = new Node(n1);
+        n1.getTransform().rotate(Vector3.Z, 90);
+        n1.getTransform().scale(2);
+        n2.getTransform().rotate(Vector3.Z, 90);
+        n2.getTransform().setScale(new Vector3(3, 1, 1));
+
+        Quaternion expected = new Quaternion(Vector3.Z, 180);
+        Quaternion actual = n2.getTransform().getWorldRotation();
+        assertEquals(Math.abs(expected.dot(actual)), 1, 0.0001);
+        assertEquals(6, n2.getTransform().getWorldScale().x, 0.0001);
+        assertEquals(2, n2.getTransform().getWorldScale().y, 0.0001);
+    }
+
+    @Test
+    public void testSettersCopyIntoTransform() {
+        Transform t = new Transform();
+        Vector3 position = t.getPosition();
+        Vector3 v = new Vector3(1, 2, 3);
+        t.setPosition(v);
+        t.setScale(v);
+        v.set(0, 0, 0);
+
+        assertEquals(new Vector3(1, 2, 3), t.getPosition());
+        assertEquals(new Vector3(1, 2, 3), t.getScale());
+        assertSame("setPosition replaced the vector instead of updating it", position, t.getPosition());
+
+        t.setRotation(Vector3.Z, 90);
+        t.rotate(Vector3.Z, 90);
+        assertEquals(Math.abs(new Quaternion(Vector3.Z, 180).dot(t.getRotation())), 1, 0.0001);
+    }
+
+    private static class Bullet extends Component implements Steppable {
+        final Vector3 velocity;
+        final boolean inPlace;
+
+        Bullet(Vector3 velocity, boolean inPlace) {
+            this.velocity = velocity;
+            this.inPlace = inPlace;
+        }
+
+        @Override
+        public void step(float deltaTime) {
+            Transform t = getParent().getTransform();
+            if (inPlace) {
+                t.translate(velocity.x * deltaTime, velocity.y * deltaTime, velocity.z * deltaTime);
+            } else {
+                // How bullets used to move.
+                t.setPosition(t.getPosition().cpy().add(velocity.cpy().scl(deltaTime)));
+            }
+        }
+    }
+
+    private static long bytesAllocatedMovingBullets(boolean inPlace) {
+        Scene s = new Scene();
+        s.addSystem(new GameLogicSystem());
+        Random r = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            Node n = new Node(s.getRoot());
+            n.addComponent(new Bullet(new Vector3(r.nextFloat() - 0.5f, r.nextFloat() - 0.5f, 0), inPlace));
+        }
+        // Warm up, so that lazily built scene state isn't counted.
+        for (int i = 0; i < 10; i++) {
+            s.update(0.01f);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadID);
+        for (int i = 0; i < 100; i++) {
+            s.update(0.01f);
+        }
+        return threads.getThreadAllocatedBytes(threadID) - before;
+    }
+
+    /**
+     * Moving 1,000 bullets for 100 ticks with the in-place API allocates next to nothing, where copying the position
+     * and velocity every step allocated two vectors per bullet per tick.
+     */
+    @Test
+    public void testMovingBulletsDoesNotAllocate() {
+        long copying = bytesAllocatedMovingBullets(false);
+        long inPlace = bytesAllocatedMovingBullets(true);
+
+        assertTrue("Moving bullets in place allocated " + inPlace + " bytes over 100 ticks (copying: " + copying + ")",
+                inPlace < 1024);
+        assertTrue(copying > 1000 * 100 * 2 * 16);
+    }
+}
@@ -0,0 +1,84 @@
+package rpg.scene.kryo;
+
+import com.badlogic.gdx.math.Vector2;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.KryoSerialization;
+import org.junit.Before;
+import org.junit.Test;
+import rpg.scene.replication.FieldReplicationData;
+import rpg.scene.replication.RepTable;
+import rpg.scene.replication.Replicated;
+
+import static org.junit.Assert.*;
+
+public class EncodedMessageTest {
+
+    static class Reppable {
+        @Replicated
+        protected Vector2 position = new Vector2(3, 4);
+
+        @Replicated
+        protected int health = 100;
+    }
+
+    private Kryo kryo;
+    private RepTable table;
+
+    @Before
+    public void setUp() {
+        // Set up like a client's.
+        kryo = new KryoSerialization().getKryo();
+        KryoClassRegisterUtil.registerAll(kryo);
+        RepTable.discardAllRepTables();
+        table = RepTable.getTableForType(Reppable.class);
+    }
+
+    private Object sendAndReceive(Object message) {
+        Output output = new Output(64, -1);
+        kryo.writeClassAndObject(output, message);
+        return kryo.readClassAndObject(new Input(output.toBytes()));
+    }
+
+    @Test
+    public void testReceivedAsTheOriginalMessage() {
+        FieldReplicationData data = table.replicateFull(new Reppable());
+        EncodedMessage encoded = EncodedMessage.encode(new FieldReplicateMessage(7, data));
+
+        Object received = sendAndReceive(encoded);
+        assertTrue(received instanceof FieldReplicateMessage);
+        assertEquals(7, ((FieldReplicateMessage) received).componentID);
+        assertEquals(data, ((FieldReplicateMessage) received).fieldReplicationData);
+
+        // The same message can be sent again.
+        assertEquals(7, ((FieldReplicateMessage) sendAndReceive(encoded)).componentID);
+
+        Output direct = new Output(64, -1);
+        kryo.writeClassAndObject(direct, new FieldReplicateMessage(7, data));
+        assertEquals(direct.total(), encoded.size());
+    }
+
+    @Test
+    public void testCacheSharesEncodings() {
+        Reppable reppable = new Reppable();
+        FieldReplicationData first = table.replicateFull(reppable);
+        reppable.health = 5;
+        FieldReplicationData second = table.replicateFull(reppable);
+        FieldReplicationData delta = first.diff(second);
+
+        FieldReplicateMessageCache cache = new FieldReplicateMessageCache();
+        EncodedMessage full = cache.get(1, second);
+        assertSame(full, cache.get(1, second));
+        assertNotSame("Other data is encoded separately", full, cache.get(1, delta));
+        assertNotSame("So are other components", full, cache.get(2, second));
+        assertEquals(2, ((FieldReplicateMessage) sendAndReceive(cache.get(2, second))).componentID);
+
+        FieldReplicateMessage received = (FieldReplicateMessage) sendAndReceive(cache.get(1, delta));
+        assertEquals(1, received.fieldReplicationData.fieldData.size());
+        assertEquals(5, received.fieldReplicationData.fieldData.get(0));
+
+        cache.clear();
+        assertNotSame(full, cache.get(1, second));
+    }
+}
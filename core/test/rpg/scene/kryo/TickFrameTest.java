@@ -0,0 +1,137 @@
+package rpg.scene.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.KryoSerialization;
+import org.junit.Before;
+import org.junit.Test;
+import rpg.scene.replication.BitSet;
+import rpg.scene.replication.FieldReplicationData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TickFrameTest {
+
+    private Kryo kryo;
+    private List<TickFrame> received;
+    private List<Integer> frameSizes;
+
+    @Before
+    public void setUp() {
+        // Set up like a client's.
+        kryo = new KryoSerialization().getKryo();
+        KryoClassRegisterUtil.registerAll(kryo);
+        received = new ArrayList<>();
+        frameSizes = new ArrayList<>();
+    }
+
+    // Sends like a connection would, writing the frame out before returning.
+    private void send(TickFrame frame) {
+        Output output = new Output(1024, -1);
+        kryo.writeClassAndObject(output, frame);
+        frameSizes.add(output.position());
+        received.add((TickFrame) kryo.readClassAndObject(new Input(output.toBytes())));
+    }
+
+    private static NodeAttach nodeAttach(int id) {
+        NodeAttach attach = new NodeAttach();
+        attach.nodeID = id;
+        attach.parentID = id - 1;
+        attach.depth = id % 5;
+        return attach;
+    }
+
+    private List<Object> allMessages() {
+        List<Object> messages = new ArrayList<>();
+        received.forEach(f -> messages.addAll(f.messages));
+        return messages;
+    }
+
+    @Test
+    public void testEmptyTick() {
+        TickFrameWriter writer = new TickFrameWriter(3, this::send);
+        writer.finish();
+        assertEquals(1, received.size());
+        assertEquals(3, received.get(0).tickID);
+        assertTrue(received.get(0).last);
+        assertTrue(received.get(0).messages.isEmpty());
+    }
+
+    @Test
+    public void testMessagesArriveInOrder() {
+        TickFrameWriter writer = new TickFrameWriter(7, this::send);
+        writer.add(nodeAttach(1));
+        ComponentDetach detach = new ComponentDetach();
+        detach.componentID = 12;
+        writer.add(EncodedMessage.encode(detach));
+        writer.add(nodeAttach(2));
+        writer.finish();
+
+        assertEquals("A small tick is one frame", 1, received.size());
+        List<Object> messages = allMessages();
+        assertEquals(3, messages.size());
+        assertEquals(1, ((NodeAttach) messages.get(0)).nodeID);
+        assertEquals(12, ((ComponentDetach) messages.get(1)).componentID);
+        assertEquals(2, ((NodeAttach) messages.get(2)).nodeID);
+    }
+
+    @Test
+    public void testLargeTicksAreSplitAndCompressed() {
+        int numMessages = 2000;
+        TickFrameWriter writer = new TickFrameWriter(1, false, 1000, this::send);
+        for (int i = 0; i < numMessages; i++) {
+            // Mix the ones already encoded with the ones that aren't, as the server does.
+            if (i % 2 == 0) {
+                writer.add(nodeAttach(i));
+            } else {
+                writer.add(EncodedMessage.encode(nodeAttach(i)));
+            }
+        }
+        writer.finish();
+
+        assertTrue(received.size() > 1);
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(1, received.get(i).tickID);
+            assertEquals(i, received.get(i).index);
+            assertEquals("Only the last frame is marked last", i == received.size() - 1, received.get(i).last);
+            if (i < received.size() - 1) {
+                // The attaches are much alike, so deflating them pays off.
+                assertTrue(received.get(i).compressed);
+                assertTrue(frameSizes.get(i) < received.get(i).uncompressedLength);
+            }
+        }
+        List<Object> messages = allMessages();
+        assertEquals(numMessages, messages.size());
+        for (int i = 0; i < numMessages; i++) {
+            NodeAttach attach = (NodeAttach) messages.get(i);
+            assertEquals(i, attach.nodeID);
+            assertEquals(i - 1, attach.parentID);
+            assertEquals(i % 5, attach.depth);
+        }
+    }
+
+    @Test
+    public void testMessageLargerThanAFrame() {
+        TickFrameWriter writer = new TickFrameWriter(1, false, 16, this::send);
+        writer.add(nodeAttach(1));
+        FieldReplicateMessage big = new FieldReplicateMessage(5, new FieldReplicationData());
+        big.fieldReplicationData.fieldChangeset = new BitSet(20);
+        for (int i = 0; i < 20; i++) {
+            big.fieldReplicationData.fieldChangeset.set(i, true);
+            big.fieldReplicationData.fieldData.add(i);
+        }
+        writer.add(big);
+        writer.add(nodeAttach(2));
+        writer.finish();
+
+        assertEquals(3, received.size());
+        assertEquals(1, ((NodeAttach) received.get(0).messages.get(0)).nodeID);
+        assertEquals(big.fieldReplicationData, ((FieldReplicateMessage) received.get(1).messages.get(0))
+                .fieldReplicationData);
+        assertEquals(2, ((NodeAttach) received.get(2).messages.get(0)).nodeID);
+    }
+}
@@ -0,0 +1,160 @@
+package rpg.scene.replication;
+
+import com.badlogic.gdx.math.Vector2;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FieldReplicationHistoryTest {
+
+    static class Reppable {
+        @Replicated
+        protected Vector2 position = new Vector2();
+
+        @Replicated
+        protected int health = 100;
+    }
+
+    private RepTable table;
+    private Reppable reppable;
+
+    @Before
+    public void setUp() {
+        RepTable.discardAllRepTables();
+        table = RepTable.getTableForType(Reppable.class);
+        reppable = new Reppable();
+    }
+
+    @Test
+    public void testOnlyChangesAreAdded() {
+        FieldReplicationHistory h = new FieldReplicationHistory(4);
+        assertNull(h.getLatest());
+
+        assertTrue(h.add(0, table.replicateFull(reppable)));
+        FieldReplicationData first = h.getLatest();
+        assertFalse("An unchanged state shouldn't be added", h.add(1, table.replicateFull(reppable)));
+        assertSame(first, h.getLatest());
+        assertEquals(0, h.getLatestTick());
+
+        reppable.health = 50;
+        assertTrue(h.add(2, table.replicateFull(reppable)));
+        assertEquals(2, h.size());
+        assertEquals(2, h.getLatestTick());
+    }
+
+    @Test
+    public void testStateAtTick() {
+        FieldReplicationHistory h = new FieldReplicationHistory(3);
+        FieldReplicationData[] states = new FieldReplicationData[6];
+        for (int tick = 0; tick < 6; tick++) {
+            reppable.position.x = tick;
+            // Only every other tick changes anything.
+            reppable.health = tick / 2;
+            states[tick] = table.replicateFull(reppable);
+            h.add(tick * 10, states[tick]);
+        }
+
+        assertSame(states[5], h.getAt(50));
+        assertSame(states[5], h.getAt(1000));
+        assertSame(states[4], h.getAt(49));
+        assertSame(states[3], h.getAt(30));
+        assertNull("Only the last three states are kept", h.getAt(29));
+        assertNull(h.getAt(-1));
+    }
+
+    @Test
+    public void testDeltaFromBaseline() {
+        FieldReplicationHistory h = new FieldReplicationHistory(8);
+        h.add(0, table.replicateFull(reppable));
+        FieldReplicationData baseline = h.getAt(0);
+
+        reppable.position.set(1, 2);
+        h.add(1, table.replicateFull(reppable));
+        reppable.health = 10;
+        h.add(2, table.replicateFull(reppable));
+
+        FieldReplicationData delta = h.deltaFrom(baseline);
+        assertEquals(2, delta.fieldData.size());
+        assertSame("Clients with the same baseline share the delta", delta, h.deltaFrom(baseline));
+
+        FieldReplicationData fromTick1 = h.deltaFrom(h.getAt(1));
+        assertEquals(1, fromTick1.fieldData.size());
+        assertEquals(10, fromTick1.fieldData.get(0));
+        assertSame("Each baseline keeps its delta", delta, h.deltaFrom(baseline));
+        assertSame(fromTick1, h.deltaFrom(h.getAt(1)));
+
+        assertEquals(0, h.deltaFrom(h.getLatest()).fieldData.size());
+
+        // Applying the delta to an object in the baseline's state brings it up to date.
+        Reppable behind = new Reppable();
+        table.applyReplicationData(delta, behind);
+        assertEquals(reppable.position, behind.position);
+        assertEquals(reppable.health, behind.health);
+    }
+
+    /**
+     * A field that changes and changes back before the client acknowledges the change is still sent, as the client
+     * may have applied the state in between.
+     */
+    @Test
+    public void testDeltaIncludesFieldThatReverted() {
+        FieldReplicationHistory h = new FieldReplicationHistory(8);
+        h.add(0, table.replicateFull(reppable));
+        FieldReplicationData baseline = h.getAt(0);
+
+        reppable.health = 90;
+        h.add(1, table.replicateFull(reppable));
+        Reppable client = new Reppable();
+        table.applyReplicationData(h.deltaFrom(baseline), client);
+        assertEquals(90, client.health);
+
+        reppable.health = 100;
+        reppable.position.set(3, 4);
+        h.add(2, table.replicateFull(reppable));
+
+        FieldReplicationData delta = h.deltaFrom(baseline);
+        assertEquals(2, delta.fieldData.size());
+        table.applyReplicationData(delta, client);
+        assertEquals(100, client.health);
+        assertEquals(reppable.position, client.position);
+    }
+
+    @Test
+    public void testDeltaFromForgottenBaselineIsWholeState() {
+        FieldReplicationHistory h = new FieldReplicationHistory(2);
+        h.add(0, table.replicateFull(reppable));
+        FieldReplicationData baseline = h.getAt(0);
+        for (int tick = 1; tick <= 2; tick++) {
+            reppable.health = tick;
+            h.add(tick, table.replicateFull(reppable));
+        }
+        assertSame(h.getLatest(), h.deltaFrom(baseline));
+    }
+
+    /**
+     * A client is only sent changes from the tick it acknowledged if it had been sent the whole state by then.
+     */
+    @Test
+    public void testChangesForAcknowledgedTick() {
+        FieldReplicationHistory h = new FieldReplicationHistory(8);
+        for (int tick = 0; tick <= 4; tick++) {
+            reppable.health = 100 - tick;
+            h.add(tick, table.replicateFull(reppable));
+        }
+
+        assertSame(h.deltaFrom(h.getAt(2)), h.changesFor(1, 2));
+        assertSame(h.deltaFrom(h.getAt(2)), h.changesFor(2, 2));
+        assertEquals(1, h.changesFor(2, 2).fieldData.size());
+        assertSame("Sent whole after the acknowledged tick", h.getLatest(), h.changesFor(3, 2));
+        assertSame("Nothing acknowledged yet", h.getLatest(), h.changesFor(0, -1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTicksMustBeInOrder() {
+        FieldReplicationHistory h = new FieldReplicationHistory(2);
+        h.add(5, table.replicateFull(reppable));
+        reppable.health = 1;
+        h.add(4, table.replicateFull(reppable));
+    }
+}
@@ -1,14 +1,18 @@
 package rpg.scene.replication;
 
+import com.badlogic.gdx.math.Quaternion;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.math.Vector3;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import org.junit.Test;
 import rpg.scene.components.Component;
+import rpg.scene.kryo.KryoClassRegisterUtil;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class RepTableTest {
 
@@ -30,6 +34,27 @@ public class RepTableTest {
         private Vector2 thisShouldExcept = new Vector2(0, 0);
     }
 
+    class Placed {
+        @Replicated(quantized = true)
+        protected Vector3 position = new Vector3();
+
+        @Replicated(quantized = true)
+        protected Quaternion rotation = new Quaternion();
+    }
+
+    class PlacedExactly {
+        @Replicated
+        protected Vector3 position = new Vector3();
+
+        @Replicated
+        protected Quaternion rotation = new Quaternion();
+    }
+
+    class QuantizesAnInt {
+        @Replicated(quantized = true)
+        protected int health = 100;
+    }
+
     class HasAnRPC extends Component {
         @RPC(target = RPC.Target.Client)
         protected void run() {
@@ -86,6 +111,24 @@ public class RepTableTest {
         assertEquals(new Vector2(321, 812), frdDiff.fieldData.get(0));
     }
 
+    @Test
+    public void testDeltaReplicationOfInPlaceChange() {
+        RepTable.discardAllRepTables();
+        RepTable t = RepTable.getTableForType(SimpleReppable.class);
+
+        SimpleReppable simpleReppable = new SimpleReppable();
+        FieldReplicationData frdOld = t.replicateFull(simpleReppable);
+
+        // Mutate the replicated vector itself rather than replacing it.
+        simpleReppable.vec.set(321, 812);
+
+        FieldReplicationData frdNew = t.replicateFull(simpleReppable);
+        FieldReplicationData frdDiff = frdOld.diff(frdNew);
+
+        assertEquals("An in-place change was not picked up", 1, frdDiff.fieldChangeset.cardinality());
+        assertEquals(new Vector2(321, 812), frdDiff.fieldData.get(0));
+    }
+
     @Test
     public void testDeltaReplicationApplication() {
         RepTable.discardAllRepTables();
@@ -171,4 +214,69 @@ public class RepTableTest {
         exp.methodId = 0;
         assertEquals(r, exp);
     }
+
+    private static int serializedSize(Kryo k, FieldReplicationData frd) {
+        Output output = new Output(256, -1);
+        k.writeObject(output, frd);
+        return output.position();
+    }
+
+    @Test
+    public void testQuantizedFieldsRoundTrip() {
+        RepTable.discardAllRepTables();
+        RepTable t = RepTable.getTableForType(Placed.class);
+        Kryo k = new Kryo();
+        KryoClassRegisterUtil.registerAll(k);
+
+        Placed source = new Placed();
+        source.position.set(37.123f, -12.5f, 0);
+        source.rotation.setEulerAngles(33, 0, 0);
+
+        Output output = new Output(256, -1);
+        k.writeObject(output, t.replicateFull(source));
+        Placed dest = new Placed();
+        t.applyReplicationData(k.readObject(new Input(output.toBytes()), FieldReplicationData.class), dest);
+
+        assertTrue(dest.position.epsilonEquals(source.position, 1f / QuantizedVector3.RESOLUTION));
+        Vector3 axis = new Vector3(1, 1, 1);
+        assertTrue(axis.cpy().mul(dest.rotation).epsilonEquals(axis.cpy().mul(source.rotation), 0.01f));
+    }
+
+    @Test
+    public void testIdentityRotationSurvivesQuantization() {
+        assertEquals(new Quaternion(), QuantizedQuaternion.of(new Quaternion()).toQuaternion());
+        Quaternion flipped = new Quaternion(0, 0, 0, -1);
+        assertEquals(new Quaternion(), QuantizedQuaternion.of(flipped).toQuaternion());
+    }
+
+    @Test
+    public void testQuantizedFieldsAreSmaller() {
+        RepTable.discardAllRepTables();
+        RepTable t = RepTable.getTableForType(Placed.class);
+        RepTable exactTable = RepTable.getTableForType(PlacedExactly.class);
+        Kryo k = new Kryo();
+        KryoClassRegisterUtil.registerAll(k);
+
+        Placed p = new Placed();
+        PlacedExactly e = new PlacedExactly();
+        p.position.set(120.25f, 80.75f, 0);
+        e.position.set(p.position);
+        p.rotation.setEulerAngles(90, 0, 0);
+        e.rotation.set(p.rotation);
+        // Position and rotation take less than half the space.
+        // The rotation takes 4 bytes instead of 16, and the position no more than 7 instead of 12.
+        int saved = serializedSize(k, exactTable.replicateFull(e)) - serializedSize(k, t.replicateFull(p));
+        assertTrue(saved >= 17);
+
+        // Moves smaller than the grid aren't changes.
+        FieldReplicationData latest = t.replicateFull(p);
+        p.position.add(0.1f / QuantizedVector3.RESOLUTION, 0, 0);
+        assertEquals(latest, t.replicateFull(p));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testOnlyVectorsAndRotationsAreQuantized() {
+        RepTable.discardAllRepTables();
+        RepTable.getTableForType(QuantizesAnInt.class);
+    }
 }
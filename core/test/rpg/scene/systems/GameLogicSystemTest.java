@@ -1,13 +1,27 @@
 package rpg.scene.systems;
 
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector3;
 import org.junit.Test;
 import rpg.scene.Node;
 import rpg.scene.Scene;
 import rpg.scene.components.Component;
 import rpg.scene.components.Steppable;
+import rpg.scene.replication.Context;
+import rpg.scene.replication.RPC;
+import rpg.scene.replication.RPCMessage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class GameLogicSystemTest {
     private int testValue = 0;
@@ -76,4 +90,226 @@ public class GameLogicSystemTest {
 
         assertEquals("The system did not process correctly.", 1, c1.pos);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testComponentDetachedMidFrameIsNotStepped() {
+        Scene s = new Scene();
+        GameLogicSystem gameLogicSystem = new GameLogicSystem();
+        s.addSystem(gameLogicSystem);
+        Node n = new Node(s.getRoot());
+        GameLogicComponentTestComponent victim = new GameLogicComponentTestComponent();
+        Component killer = new GameLogicComponentTestComponent() {
+            @Override
+            public void step(float deltaTime) {
+                super.step(deltaTime);
+                n.removeComponent(victim);
+            }
+        };
+        // The killer is attached first, so it is stepped before the victim.
+        n.addComponent(killer);
+        n.addComponent(victim);
+
+        s.update(1);
+        s.update(1);
+
+        assertEquals("A detached component was stepped.", 0, victim.pos);
+        assertEquals(2, ((GameLogicComponentTestComponent) killer).pos);
+        assertEquals(1, gameLogicSystem.getNumSteppables());
+    }
+
+    @Test
+    public void testExistingComponentsRegisteredWhenSystemAdded() {
+        Scene s = new Scene();
+        Node n = new Node(s.getRoot());
+        Node nn = new Node(n);
+        GameLogicComponentTestComponent c1 = new GameLogicComponentTestComponent();
+        GameLogicComponentTestComponent c2 = new GameLogicComponentTestComponent();
+        n.addComponent(c1);
+        nn.addComponent(c2);
+
+        GameLogicSystem gameLogicSystem = new GameLogicSystem();
+        s.addSystem(gameLogicSystem);
+        s.update(1);
+
+        assertEquals(2, gameLogicSystem.getNumSteppables());
+        assertEquals(1, c1.pos);
+        assertEquals(1, c2.pos);
+
+        // Detaching a subtree unregisters everything in it.
+        s.getRoot().removeChild(n);
+        s.update(1);
+
+        assertEquals(0, gameLogicSystem.getNumSteppables());
+        assertEquals(1, c1.pos);
+        assertEquals(1, c2.pos);
+    }
+
+    /**
+     * Wanders about, hurts nearby walkers through the command buffer, and now and then spawns another walker. All of
+     * its randomness comes from its own seeded Random, so a run only depends on the order things happen in.
+     */
+    static class Walker extends Component implements Steppable {
+        final String tag;
+        final Random random;
+        final int[] kills;
+        int health = 20;
+        int children = 0;
+
+        Walker(String tag, long seed, int[] kills) {
+            this.tag = tag;
+            this.random = new Random(seed);
+            this.kills = kills;
+        }
+
+        @Override
+        public void step(float deltaTime) {
+            Node self = getParent();
+            self.getTransform().translate((random.nextFloat() - 0.5f) * 0.4f, (random.nextFloat() - 0.5f) * 0.4f, 0);
+
+            Vector3 p = self.getTransform().getWorldPosition();
+            List<Walker> nearby = getQuerySystem().queryNodesInArea(new Rectangle(p.x - 1, p.y - 1, 2, 2)).stream()
+                    .map(n -> n.findComponent(Walker.class))
+                    .filter(w -> w != null && w != this)
+                    .sorted(Comparator.comparing(w -> w.tag))
+                    .collect(Collectors.toList());
+            for (Walker other : nearby) {
+                int damage = 1 + random.nextInt(3);
+                getCommandBuffer().invoke(() -> {
+                    if (other.getParent() == null || other.getParent().getParent() == null) return;
+                    other.health -= damage;
+                    if (other.health <= 0) {
+                        kills[0]++;
+                        other.getParent().removeFromParent();
+                    }
+                });
+            }
+
+            if (random.nextInt(100) == 0) {
+                Node child = new Node();
+                child.getTransform().setPosition(p.cpy());
+                child.addComponent(new Walker(tag + "." + children++, random.nextLong(), kills));
+                getCommandBuffer().addChild(self.getScene().getRoot(), child);
+            }
+        }
+
+        @Override
+        public String toString() {
+            Vector3 p = getParent().getTransform().getWorldPosition();
+            return tag + "@" + p.x + "," + p.y + ":" + health;
+        }
+    }
+
+    private static List<String> runWalkers(boolean parallel, int[] kills) {
+        Scene s = new Scene();
+        s.setParallelSystems(parallel);
+        if (parallel) {
+            s.setSystemPool(new ForkJoinPool(4));
+        }
+        s.addSystem(new Node2DQuerySystem());
+        GameLogicSystem gameLogicSystem = new GameLogicSystem();
+        gameLogicSystem.setParallel(true);
+        gameLogicSystem.setCellSize(4);
+        s.addSystem(gameLogicSystem);
+
+        Random layout = new Random(1234);
+        for (int i = 0; i < 300; i++) {
+            Node n = new Node(s.getRoot());
+            n.getTransform().setPosition(new Vector3(layout.nextFloat() * 40, layout.nextFloat() * 40, 0));
+            n.addComponent(new Walker(Integer.toString(i), layout.nextLong(), kills));
+        }
+
+        for (int frame = 0; frame < 200; frame++) {
+            s.update(1f / 60);
+        }
+
+        List<String> state = new ArrayList<>();
+        for (Node n : s.getRoot().getChildren()) {
+            Walker w = n.findComponent(Walker.class);
+            if (w != null) state.add(w.toString());
+        }
+        state.sort(null);
+        return state;
+    }
+
+    /**
+     * Partitioned stepping gives exactly the same result whether the cells are stepped one after the other or on
+     * several threads.
+     */
+    @Test
+    public void testParallelSteppingMatchesSerial() {
+        int[] serialKills = {0};
+        List<String> serial = runWalkers(false, serialKills);
+        int[] parallelKills = {0};
+        List<String> parallel = runWalkers(true, parallelKills);
+
+        assertTrue("The walkers never fought.", serialKills[0] > 0);
+        assertTrue("The walkers never spawned.", serial.stream().anyMatch(w -> w.contains(".")));
+        assertEquals(serialKills[0], parallelKills[0]);
+        assertEquals(serial, parallel);
+    }
+
+    public static class Pinger extends Component implements Steppable {
+        @RPC(target = RPC.Target.Client)
+        public void ping() {
+        }
+
+        @Override
+        public void step(float deltaTime) {
+            sendRPC("ping");
+        }
+    }
+
+    /**
+     * RPCs sent by components stepped on worker threads are only handed to the networking system on the thread
+     * updating the scene, which doesn't lock its message lists.
+     */
+    @Test
+    public void testParallelRPCsReachNetworkingOnUpdateThread() {
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<>();
+        List<RPCMessage> messages = new ArrayList<>();
+        Scene s = new Scene();
+        s.setSystemPool(new ForkJoinPool(4));
+        s.addSystem(new NetworkingSceneSystem() {
+            @Override
+            public Context getContext() {
+                return Context.Server;
+            }
+
+            @Override
+            public void addRPCMessage(RPCMessage m) {
+                threads.add(Thread.currentThread());
+                messages.add(m);
+            }
+
+            @Override
+            public void addMulticastRPCMessage(RPCMessage m) {
+                addRPCMessage(m);
+            }
+
+            @Override
+            public float getTickDeltaTime() {
+                return 0;
+            }
+        });
+        GameLogicSystem gameLogicSystem = new GameLogicSystem();
+        gameLogicSystem.setParallel(true);
+        gameLogicSystem.setCellSize(4);
+        s.addSystem(gameLogicSystem);
+        int numPingers = 400;
+        for (int i = 0; i < numPingers; i++) {
+            Node n = new Node(s.getRoot());
+            n.getTransform().setPosition(new Vector3(i % 20 * 5, i / 20 * 5, 0));
+            n.addComponent(new Pinger());
+        }
+
+        for (int frame = 0; frame < 5; frame++) {
+            s.update(1);
+        }
+
+        assertEquals(numPingers * 5, messages.size());
+        for (Thread t : threads) {
+            assertSame(caller, t);
+        }
+    }
+}
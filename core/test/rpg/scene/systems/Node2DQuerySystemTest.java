@@ -0,0 +1,310 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.backends.headless.HeadlessNativesLoader;
+import com.badlogic.gdx.math.Rectangle;
+import org.junit.Before;
+import org.junit.Test;
+import rpg.scene.Node;
+import rpg.scene.Scene;
+import rpg.scene.components.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class Node2DQuerySystemTest {
+
+    @Before
+    public void setUp() {
+        HeadlessNativesLoader.load();
+    }
+
+    @Test
+    public void testMovedParentQueuesEachNodeOnce() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem();
+        s.addSystem(q);
+        Node parent = new Node(s.getRoot());
+        List<Node> children = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Node n = new Node(parent);
+            n.getTransform().setPosition(i, 0, 0);
+            children.add(n);
+        }
+        assertEquals(101, q.queryAllNodes().size());
+        assertEquals(0, q.getNumDirtyNodes());
+
+        // Moving the parent over and over only queues it and its children once.
+        for (int i = 0; i < 10; i++) {
+            parent.getTransform().translate(0, 10, 0);
+        }
+        assertEquals(101, q.getNumDirtyNodes());
+        for (Node n : children) {
+            assertTrue(n.isQueuedForQuery());
+        }
+
+        Set<Node> found = q.queryNodesInArea(new Rectangle(-1, 99, 200, 2));
+        assertEquals(101, found.size());
+        assertTrue(found.containsAll(children));
+        assertEquals(0, q.getNumDirtyNodes());
+        assertFalse(children.get(0).isQueuedForQuery());
+        assertTrue(q.queryNodesInArea(new Rectangle(-1, -1, 200, 2)).isEmpty());
+    }
+
+    @Test
+    public void testNodeDetachedAndAttachedAgainStaysIndexed() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem();
+        s.addSystem(q);
+        Node n = new Node(s.getRoot());
+        Node gone = new Node(s.getRoot());
+        n.getTransform().setPosition(5, 5, 0);
+        assertEquals(2, q.queryAllNodes().size());
+
+        n.removeFromParent();
+        gone.removeFromParent();
+        s.getRoot().addChild(n);
+
+        Set<Node> found = q.queryNodesInArea(new Rectangle(4, 4, 2, 2));
+        assertTrue(found.contains(n));
+        assertEquals(1, q.getNumberNodes());
+        assertFalse(q.queryAllNodes().contains(gone));
+    }
+
+    @Test
+    public void testNodeMovedAfterDetachIsNotIndexed() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem();
+        s.addSystem(q);
+        Node n = new Node(s.getRoot());
+        q.queryAllNodes();
+
+        n.getTransform().translate(1, 0, 0);
+        n.removeFromParent();
+        assertFalse(q.queryAllNodes().contains(n));
+        assertFalse(n.isQueuedForQuery());
+    }
+
+    @Test
+    public void testStillNodesMoveToStaticIndexAndBack() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem();
+        q.setStaticAfterFrames(60);
+        s.addSystem(q);
+        Node still = new Node(s.getRoot());
+        Node moving = new Node(s.getRoot());
+        still.getTransform().setPosition(3, 3, 0);
+
+        for (int i = 0; i < 90; i++) {
+            moving.getTransform().translate(0.1f, 0, 0);
+            s.update(0.016f);
+        }
+        assertTrue(q.isInStaticIndex(still));
+        assertFalse(q.isInStaticIndex(moving));
+        assertEquals(1, q.getIndex().size());
+        assertEquals(2, q.getNumberNodes());
+        assertEquals(new Rectangle(3, 3, 0, 0), q.getIndexedBounds(still, new Rectangle()));
+
+        Set<Node> found = q.queryNodesInArea(new Rectangle(0, 0, 20, 20));
+        assertTrue(found.contains(still));
+        assertTrue(found.contains(moving));
+
+        // Moving it again takes it out of the static index at once.
+        still.getTransform().translate(10, 0, 0);
+        found = q.queryNodesInArea(new Rectangle(12, 2, 2, 2));
+        assertEquals(1, found.size());
+        assertTrue(found.contains(still));
+        assertFalse(q.isInStaticIndex(still));
+        assertTrue(q.queryNodesInArea(new Rectangle(2, 2, 2, 2)).isEmpty());
+        assertEquals(2, q.queryAllNodes().size());
+
+        still.removeFromParent();
+        assertEquals(1, q.queryAllNodes().size());
+        assertEquals(1, q.getNumberNodes());
+    }
+
+    @Test
+    public void testStationaryNodesAreStaticAtOnce() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem();
+        q.setStaticAfterFrames(0);
+        s.addSystem(q);
+        Node tilemap = new Node();
+        tilemap.setStationary(true);
+        s.getRoot().addChild(tilemap);
+        Node doodad = new Node(tilemap);
+        doodad.setStationary(true);
+        doodad.getTransform().setPosition(1, 1, 0);
+        tilemap.getTransform().translate(8, 0, 0);
+
+        assertEquals(2, q.queryAllNodes().size());
+        assertTrue(q.isInStaticIndex(tilemap));
+        assertTrue(q.isInStaticIndex(doodad));
+        assertEquals(0, q.getIndex().size());
+        Set<Node> found = q.queryNodesInArea(new Rectangle(8.5f, 0.5f, 1, 1));
+        assertEquals(1, found.size());
+        assertTrue(found.contains(doodad));
+
+        // A stationary node can still be moved; the static index is rebuilt.
+        doodad.getTransform().setPosition(-1, 1, 0);
+        assertTrue(q.queryNodesInArea(new Rectangle(8.5f, 0.5f, 1, 1)).isEmpty());
+        assertTrue(q.queryNodesInArea(new Rectangle(6.5f, 0.5f, 1, 1)).contains(doodad));
+        assertTrue(q.isInStaticIndex(doodad));
+
+        // Nodes that stay still are left alone when promotion is turned off.
+        Node plain = new Node(s.getRoot());
+        for (int i = 0; i < 200; i++) {
+            s.update(0.016f);
+        }
+        assertFalse(q.isInStaticIndex(plain));
+    }
+
+    @Test
+    public void testVisitorAndBufferQueriesMatchSetQuery() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+        q.setStaticAfterFrames(30);
+        s.addSystem(q);
+        Random r = new Random(2);
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Node n = new Node(s.getRoot());
+            n.getTransform().setPosition(r.nextFloat() * 100, r.nextFloat() * 100, 0);
+            nodes.add(n);
+        }
+        // Let some of them go static, so both indexes are searched.
+        for (int i = 0; i < 60; i++) {
+            nodes.get(r.nextInt(nodes.size())).getTransform().translate(1, 0, 0);
+            s.update(0.016f);
+        }
+        assertTrue(q.getIndex().size() > 0);
+        assertTrue(q.getIndex().size() < nodes.size());
+
+        NodeBuffer buffer = new NodeBuffer();
+        for (int i = 0; i < 50; i++) {
+            Rectangle area = new Rectangle(r.nextFloat() * 100, r.nextFloat() * 100, 10, 10);
+            Set<Node> expected = q.queryNodesInArea(area);
+
+            q.queryNodesInArea(area.x, area.y, area.x + area.width, area.y + area.height, buffer);
+            Set<Node> fromBuffer = new HashSet<>();
+            for (Node n : buffer) fromBuffer.add(n);
+            assertEquals(buffer.size, fromBuffer.size());
+            assertEquals(expected, fromBuffer);
+
+            List<Node> visited = new ArrayList<>();
+            q.forEachNodeInArea(area, visited::add);
+            assertEquals(expected, new HashSet<>(visited));
+        }
+    }
+
+    @Test
+    public void testVisitorQueryDoesNotAllocate() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+        s.addSystem(q);
+        Random r = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            Node n = new Node(s.getRoot());
+            n.getTransform().setPosition(r.nextFloat() * 100, r.nextFloat() * 100, 0);
+        }
+        int[] hits = new int[1];
+        NodeVisitor counter = n -> hits[0]++;
+        NodeBuffer buffer = new NodeBuffer();
+        Runnable queries = () -> {
+            for (int i = 0; i < 1000; i++) {
+                float x = (i * 7) % 100, y = (i * 13) % 100;
+                q.forEachNodeInArea(x, y, x + 5, y + 5, counter);
+                q.queryNodesInArea(x, y, x + 5, y + 5, buffer);
+            }
+        };
+        // Warm up, so that the index is built and the buffer has grown.
+        queries.run();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadID);
+        queries.run();
+        long allocated = threads.getThreadAllocatedBytes(threadID) - before;
+        assertTrue("2,000 queries allocated " + allocated + " bytes", allocated < 1024);
+        assertTrue(hits[0] > 0);
+    }
+
+    public static class Player extends Component {
+    }
+
+    public static class Ghost extends Component {
+    }
+
+    @Test
+    public void testLayersFollowComponents() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+        q.addLayer(Player.class, new HashGridSpatialIndex(4));
+        s.addSystem(q);
+        try {
+            q.addLayer(Ghost.class, new HashGridSpatialIndex(4));
+            fail("Added a layer after the system was added");
+        } catch (IllegalStateException expected) {
+        }
+
+        Random r = new Random(8);
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Node n = new Node(s.getRoot());
+            n.getTransform().setPosition(r.nextFloat() * 50, r.nextFloat() * 50, 0);
+            if (i % 3 == 0) n.addComponent(new Player());
+            if (i % 5 == 0) n.addComponent(new Ghost());
+            nodes.add(n);
+        }
+
+        for (int round = 0; round < 10; round++) {
+            // Move some, and turn some into players and back.
+            for (int i = 0; i < 30; i++) {
+                Node n = nodes.get(r.nextInt(nodes.size()));
+                if (r.nextBoolean()) {
+                    n.getTransform().translate(r.nextFloat() * 4 - 2, r.nextFloat() * 4 - 2, 0);
+                } else if (n.findComponent(Player.class) != null) {
+                    n.removeComponent(n.findComponent(Player.class));
+                } else {
+                    n.addComponent(new Player());
+                }
+            }
+            s.update(0.016f);
+
+            for (int i = 0; i < 20; i++) {
+                Rectangle area = new Rectangle(r.nextFloat() * 50, r.nextFloat() * 50, 8, 8);
+                for (Class<? extends Component> type : java.util.Arrays.asList(Player.class, Ghost.class)) {
+                    Set<Node> expected = new HashSet<>();
+                    for (Node n : q.queryNodesInArea(area)) {
+                        if (n.findComponent(type) != null) expected.add(n);
+                    }
+                    List<Node> found = new ArrayList<>();
+                    q.forEachNodeInArea(type, area, found::add);
+                    assertEquals(expected, new HashSet<>(found));
+                    assertEquals(expected.size(), found.size());
+                }
+
+                float x = r.nextFloat() * 50, y = r.nextFloat() * 50;
+                NearestNodes layered = q.findNearestNodes(Player.class, x, y, 10, new NearestNodes(3));
+                NearestNodes filtered = q.findNearestNodes(x, y, 10,
+                        new NearestNodes(3, n -> n.findComponent(Player.class) != null));
+                assertEquals(filtered.size(), layered.size());
+                for (int k = 0; k < layered.size(); k++) {
+                    assertEquals(filtered.getDistanceSquared(k), layered.getDistanceSquared(k), 0.0001f);
+                }
+            }
+        }
+
+        // Leaving the scene leaves the layer.
+        Node player = nodes.get(0);
+        player.removeFromParent();
+        List<Node> found = new ArrayList<>();
+        q.forEachNodeInArea(Player.class, -1000, -1000, 1000, 1000, found::add);
+        assertFalse(found.contains(player));
+    }
+}
@@ -0,0 +1,187 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.backends.headless.HeadlessNativesLoader;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.math.Vector3;
+import org.junit.Before;
+import org.junit.Test;
+import rpg.scene.Node;
+import rpg.scene.Scene;
+import rpg.scene.components.Component;
+import rpg.scene.components.Projectile;
+import rpg.scene.components.RectangleRenderer;
+import rpg.scene.components.UnitComponent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ProjectileCollisionSystemTest {
+
+    @Before
+    public void setUp() {
+        HeadlessNativesLoader.load();
+    }
+
+    private static class Shot extends Component implements Projectile {
+        final int faction;
+        final boolean piercing;
+        final List<UnitComponent> hits = new ArrayList<>();
+
+        Shot(int faction, boolean piercing) {
+            this.faction = faction;
+            this.piercing = piercing;
+        }
+
+        @Override
+        public int getFaction() {
+            return faction;
+        }
+
+        @Override
+        public boolean isSpent() {
+            return !piercing && !hits.isEmpty();
+        }
+
+        @Override
+        public Rectangle getCollisionBounds(Rectangle out) {
+            Vector3 p = getParent().getTransform().getWorldPosition();
+            return out.set(p.x - 0.1f, p.y - 0.1f, 0.2f, 0.2f);
+        }
+
+        @Override
+        public void hit(UnitComponent unit) {
+            hits.add(unit);
+        }
+    }
+
+    private static UnitComponent addUnit(Scene s, Random r, float side) {
+        Node n = new Node(s.getRoot());
+        n.getTransform().setPosition(r.nextFloat() * side, r.nextFloat() * side, 0);
+        RectangleRenderer shape = new RectangleRenderer();
+        shape.setSize(new Vector2(1, 1));
+        n.addComponent(shape);
+        UnitComponent unit = new UnitComponent();
+        unit.setFaction(r.nextBoolean() ? UnitComponent.PLAYER : UnitComponent.ENEMY);
+        n.addComponent(unit);
+        return unit;
+    }
+
+    private static Shot addShot(Scene s, Random r, float side, boolean piercing) {
+        Node n = new Node(s.getRoot());
+        n.getTransform().setPosition(r.nextFloat() * side, r.nextFloat() * side, 0);
+        Shot shot = new Shot(r.nextBoolean() ? UnitComponent.PLAYER : UnitComponent.ENEMY, piercing);
+        n.addComponent(shot);
+        return shot;
+    }
+
+    private static boolean overlaps(Rectangle a, Rectangle b) {
+        return a.x <= b.x + b.width && b.x <= a.x + a.width && a.y <= b.y + b.height && b.y <= a.y + a.height;
+    }
+
+    @Test
+    public void testHitsMatchBruteForce() {
+        Scene s = new Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem();
+        s.addSystem(q);
+        Random r = new Random(9);
+        List<UnitComponent> units = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            units.add(addUnit(s, r, 40));
+        }
+        // Added after the units, so it has to find them in the scene.
+        ProjectileCollisionSystem collisions = new ProjectileCollisionSystem();
+        s.addSystem(collisions);
+        List<Shot> shots = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            shots.add(addShot(s, r, 40, i % 2 == 0));
+        }
+
+        s.update(0.016f);
+
+        int totalHits = 0;
+        Rectangle shotBounds = new Rectangle();
+        Rectangle unitBounds = new Rectangle();
+        for (Shot shot : shots) {
+            shot.getCollisionBounds(shotBounds);
+            Set<UnitComponent> expected = new HashSet<>();
+            for (UnitComponent u : units) {
+                q.boundsForNode(u.getParent(), unitBounds);
+                if (u.getFaction() != shot.getFaction() && overlaps(shotBounds, unitBounds)) {
+                    expected.add(u);
+                }
+            }
+            if (shot.piercing) {
+                assertEquals(expected, new HashSet<>(shot.hits));
+                assertEquals(expected.size(), shot.hits.size());
+            } else {
+                assertEquals(Math.min(1, expected.size()), shot.hits.size());
+                assertTrue(expected.containsAll(shot.hits));
+            }
+            totalHits += shot.hits.size();
+        }
+        assertTrue(totalHits > 0);
+        assertEquals(totalHits, collisions.getNumHits());
+
+        // Nothing moved, so the next tick hits the same again, except for the shots that are already spent.
+        int spentHits = 0;
+        for (Shot shot : shots) {
+            if (!shot.piercing) spentHits += shot.hits.size();
+        }
+        s.update(0.016f);
+        assertEquals(totalHits - spentHits, collisions.getNumHits());
+
+        // Removed shots are forgotten.
+        Shot removed = null;
+        for (Shot shot : shots) {
+            if (shot.piercing && !shot.hits.isEmpty()) removed = shot;
+        }
+        int removedHits = removed.hits.size() / 2;
+        removed.getParent().removeFromParent();
+        s.update(0.016f);
+        assertEquals(totalHits - spentHits - removedHits, collisions.getNumHits());
+        assertEquals(removedHits * 2, removed.hits.size());
+    }
+
+    /**
+     * Checks thousands of projectiles against hundreds or thousands of units, with one query per projectile (the way
+     * bullets used to check for hits) and all at once, and checks that both find the same number of hits.
+     */
+    @Test
+    public void testBatchedHitsMatchPerProjectileQueries() {
+        for (int[] sizes : new int[][]{{1000, 300}, {10000, 300}, {10000, 3000}}) {
+            int numShots = sizes[0], numUnits = sizes[1];
+            Scene s = new Scene();
+            Node2DQuerySystem q = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+            q.addLayer(UnitComponent.class, new HashGridSpatialIndex(4));
+            s.addSystem(q);
+            ProjectileCollisionSystem collisions = new ProjectileCollisionSystem();
+            s.addSystem(collisions);
+            Random r = new Random(10);
+            float side = (float) Math.sqrt(numShots) * 2;
+            for (int i = 0; i < numUnits; i++) {
+                addUnit(s, r, side);
+            }
+            List<Shot> shots = new ArrayList<>();
+            for (int i = 0; i < numShots; i++) {
+                shots.add(addShot(s, r, side, true));
+            }
+
+            Rectangle bounds = new Rectangle();
+            int[] queryHits = new int[1];
+            for (Shot shot : shots) {
+                q.forEachNodeInArea(UnitComponent.class, shot.getCollisionBounds(bounds), n -> {
+                    if (n.findComponent(UnitComponent.class).getFaction() != shot.getFaction()) queryHits[0]++;
+                });
+            }
+            collisions.beginProcessing();
+            assertTrue(queryHits[0] > 0);
+            assertEquals(queryHits[0], collisions.getNumHits());
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package rpg.scene.systems;
+
+import com.badlogic.gdx.backends.headless.HeadlessNativesLoader;
+import com.badlogic.gdx.math.Rectangle;
+import org.junit.Before;
+import org.junit.Test;
+import rpg.scene.Node;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SpatialIndexTest {
+
+    @Before
+    public void setUp() {
+        HeadlessNativesLoader.load();
+    }
+
+    private static Set<Node> search(SpatialIndex index, Rectangle r) {
+        List<Node> found = new ArrayList<>();
+        index.search(r.x, r.y, r.x + r.width, r.y + r.height, found::add);
+        Set<Node> set = new HashSet<>(found);
+        assertEquals("A node was reported more than once", found.size(), set.size());
+        return set;
+    }
+
+    private static Set<Node> bruteForce(List<Node> nodes, List<Rectangle> bounds, Rectangle r) {
+        Set<Node> set = new HashSet<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Rectangle b = bounds.get(i);
+            if (b != null && b.x <= r.x + r.width && r.x <= b.x + b.width
+                    && b.y <= r.y + r.height && r.y <= b.y + b.height) {
+                set.add(nodes.get(i));
+            }
+        }
+        return set;
+    }
+
+    private static Rectangle randomBounds(Random r) {
+        float x = r.nextFloat() * 100 - 50;
+        float y = r.nextFloat() * 100 - 50;
+        switch (r.nextInt(4)) {
+            case 0:
+                return new Rectangle(x, y, 0, 0);
+            case 1:
+                // Big enough to be kept out of the cells.
+                return new Rectangle(x, y, 20 + r.nextFloat() * 40, 20 + r.nextFloat() * 40);
+            default:
+                return new Rectangle(x, y, r.nextFloat() * 3, r.nextFloat() * 3);
+        }
+    }
+
+    @Test
+    public void testHashGridMatchesBruteForce() {
+        Random r = new Random(3);
+        SpatialIndex index = new HashGridSpatialIndex(2);
+        List<Node> nodes = new ArrayList<>();
+        List<Rectangle> bounds = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            nodes.add(new Node());
+            bounds.add(null);
+        }
+
+        for (int round = 0; round < 20; round++) {
+            for (int k = 0; k < 200; k++) {
+                int i = r.nextInt(nodes.size());
+                if (r.nextInt(5) == 0) {
+                    assertEquals(bounds.get(i) != null, index.remove(nodes.get(i)));
+                    bounds.set(i, null);
+                } else {
+                    Rectangle b = randomBounds(r);
+                    index.put(nodes.get(i), b.x, b.y, b.x + b.width, b.y + b.height);
+                    bounds.set(i, b);
+                }
+            }
+
+            int expectedSize = 0;
+            for (Rectangle b : bounds) {
+                if (b != null) expectedSize++;
+            }
+            assertEquals(expectedSize, index.size());
+
+            for (int q = 0; q < 50; q++) {
+                Rectangle area = new Rectangle(r.nextFloat() * 120 - 60, r.nextFloat() * 120 - 60,
+                        r.nextFloat() * (q % 10 == 0 ? 200 : 10), r.nextFloat() * 10);
+                assertEquals(bruteForce(nodes, bounds, area), search(index, area));
+            }
+        }
+
+        Rectangle out = new Rectangle();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (bounds.get(i) == null) {
+                assertNull(index.getBounds(nodes.get(i), out));
+            } else {
+                Rectangle b = bounds.get(i);
+                index.getBounds(nodes.get(i), out);
+                assertEquals(b.x, out.x, 0.0001);
+                assertEquals(b.y, out.y, 0.0001);
+                assertEquals(b.width, out.width, 0.0001);
+                assertEquals(b.height, out.height, 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void testStaticIndexMatchesBruteForce() {
+        Random r = new Random(4);
+        for (int count : new int[]{0, 1, 15, 16, 17, 300, 5000}) {
+            List<Node> nodes = new ArrayList<>();
+            List<Rectangle> bounds = new ArrayList<>();
+            float[] boxes = new float[count * 4];
+            for (int i = 0; i < count; i++) {
+                Rectangle b = randomBounds(r);
+                nodes.add(new Node());
+                bounds.add(b);
+                boxes[i * 4] = b.x;
+                boxes[i * 4 + 1] = b.y;
+                boxes[i * 4 + 2] = b.x + b.width;
+                boxes[i * 4 + 3] = b.y + b.height;
+            }
+            StaticSpatialIndex index = StaticSpatialIndex.build(nodes.toArray(new Node[0]), boxes, count);
+            assertEquals(count, index.size());
+
+            // Remove a few, leaving holes.
+            for (int slot = 0; slot < index.getNumSlots(); slot += 7) {
+                int i = nodes.indexOf(index.get(slot));
+                index.remove(slot);
+                bounds.set(i, null);
+            }
+
+            for (int q = 0; q < 100; q++) {
+                Rectangle area = new Rectangle(r.nextFloat() * 120 - 60, r.nextFloat() * 120 - 60,
+                        r.nextFloat() * (q % 10 == 0 ? 200 : 10), r.nextFloat() * 10);
+                List<Node> found = new ArrayList<>();
+                index.search(area.x, area.y, area.x + area.width, area.y + area.height, found::add);
+                assertEquals(found.size(), new HashSet<>(found).size());
+                assertEquals(bruteForce(nodes, bounds, area), new HashSet<>(found));
+            }
+        }
+    }
+
+    private static float distanceSquared(Rectangle b, float x, float y) {
+        return NodeDistanceVisitor.distanceSquared(x, y, b.x, b.y, b.x + b.width, b.y + b.height);
+    }
+
+    // Checks radius and k-nearest searches of an index holding the given nodes against brute force.
+    private static void checkDistanceSearches(List<Node> nodes, List<Rectangle> bounds, Random r,
+                                              SearchByDistance index) {
+        for (int q = 0; q < 100; q++) {
+            float x = r.nextFloat() * 140 - 70, y = r.nextFloat() * 140 - 70;
+            float radius = r.nextFloat() * (q % 10 == 0 ? 100 : 8);
+
+            Set<Node> expected = new HashSet<>();
+            List<Float> distances = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (bounds.get(i) == null) continue;
+                float d = distanceSquared(bounds.get(i), x, y);
+                distances.add(d);
+                if (d <= radius * radius) expected.add(nodes.get(i));
+            }
+            List<Node> found = new ArrayList<>();
+            index.search(x, y, new NodeDistanceVisitor() {
+                @Override
+                public float getMaxDistanceSquared() {
+                    return radius * radius;
+                }
+
+                @Override
+                public void visit(Node n, float distanceSquared) {
+                    found.add(n);
+                }
+            });
+            assertEquals(found.size(), new HashSet<>(found).size());
+            assertEquals(expected, new HashSet<>(found));
+
+            // Ties make the nodes ambiguous, so compare distances.
+            int k = 1 + r.nextInt(10);
+            float maxDistance = q % 3 == 0 ? Float.POSITIVE_INFINITY : radius;
+            distances.sort(null);
+            NearestNodes nearest = new NearestNodes(k);
+            nearest.reset(maxDistance);
+            index.search(x, y, nearest);
+            int expectedSize = 0;
+            while (expectedSize < Math.min(k, distances.size())
+                    && distances.get(expectedSize) <= maxDistance * maxDistance) {
+                expectedSize++;
+            }
+            assertEquals(expectedSize, nearest.size());
+            for (int i = 0; i < nearest.size(); i++) {
+                assertEquals(distances.get(i), nearest.getDistanceSquared(i), 0.0001f);
+                int j = nodes.indexOf(nearest.get(i));
+                assertEquals(distanceSquared(bounds.get(j), x, y), nearest.getDistanceSquared(i), 0.0001f);
+            }
+        }
+    }
+
+    private interface SearchByDistance {
+        void search(float x, float y, NodeDistanceVisitor visitor);
+    }
+
+    @Test
+    public void testDistanceSearchesMatchBruteForce() {
+        Random r = new Random(6);
+        List<Node> nodes = new ArrayList<>();
+        List<Rectangle> bounds = new ArrayList<>();
+        float[] boxes = new float[2000 * 4];
+        SpatialIndex grid = new HashGridSpatialIndex(2);
+        SpatialIndex rtree = new RTreeSpatialIndex();
+        for (int i = 0; i < 2000; i++) {
+            Rectangle b = randomBounds(r);
+            nodes.add(new Node());
+            bounds.add(b);
+            grid.put(nodes.get(i), b.x, b.y, b.x + b.width, b.y + b.height);
+            rtree.put(nodes.get(i), b.x, b.y, b.x + b.width, b.y + b.height);
+            boxes[i * 4] = b.x;
+            boxes[i * 4 + 1] = b.y;
+            boxes[i * 4 + 2] = b.x + b.width;
+            boxes[i * 4 + 3] = b.y + b.height;
+        }
+        StaticSpatialIndex packed = StaticSpatialIndex.build(nodes.toArray(new Node[0]), boxes, nodes.size());
+
+        checkDistanceSearches(nodes, bounds, r, grid::searchByDistance);
+        checkDistanceSearches(nodes, bounds, r, rtree::searchByDistance);
+        checkDistanceSearches(nodes, bounds, r, packed::searchByDistance);
+
+        // A sparse grid, where the search soon runs out of rings worth walking.
+        SpatialIndex sparse = new HashGridSpatialIndex(2);
+        for (int i = 0; i < 20; i++) {
+            Rectangle b = bounds.get(i);
+            sparse.put(nodes.get(i), b.x, b.y, b.x + b.width, b.y + b.height);
+        }
+        checkDistanceSearches(nodes.subList(0, 20), bounds.subList(0, 20), r, sparse::searchByDistance);
+    }
+
+    @Test
+    public void testFindNearestNodeWithFilter() {
+        rpg.scene.Scene s = new rpg.scene.Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+        s.addSystem(q);
+        Node near = new Node(s.getRoot());
+        Node nearButWrong = new Node(s.getRoot());
+        Node far = new Node(s.getRoot());
+        Node tooFar = new Node(s.getRoot());
+        near.getTransform().setPosition(3, 0, 0);
+        nearButWrong.getTransform().setPosition(1, 0, 0);
+        far.getTransform().setPosition(0, 8, 0);
+        tooFar.getTransform().setPosition(20, 0, 0);
+
+        assertSame(nearButWrong, q.findNearestNode(0, 0, 10, null));
+        assertSame(near, q.findNearestNode(0, 0, 10, n -> n != nearButWrong));
+        assertNull(q.findNearestNode(15, 0, 2, null));
+        assertSame(tooFar, q.findNearestNode(15, 0, Float.POSITIVE_INFINITY, null));
+
+        NearestNodes nearest = q.findNearestNodes(0, 0, 10, new NearestNodes(5));
+        assertEquals(3, nearest.size());
+        assertSame(nearButWrong, nearest.get(0));
+        assertSame(near, nearest.get(1));
+        assertSame(far, nearest.get(2));
+        assertEquals(64, nearest.getDistanceSquared(2), 0.0001f);
+
+        Set<Node> inRange = q.queryNodesDistanceSquared(near, 4);
+        assertEquals(2, inRange.size());
+        assertTrue(inRange.contains(near));
+        assertTrue(inRange.contains(nearButWrong));
+        assertEquals(3, q.queryNodesInRadius(0, 0, 8, new NodeBuffer()).size);
+    }
+
+    @Test
+    public void testQuerySystemWithHashGrid() {
+        rpg.scene.Scene s = new rpg.scene.Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+        s.addSystem(q);
+        Node a = new Node(s.getRoot());
+        Node b = new Node(s.getRoot());
+        a.getTransform().setPosition(1, 1, 0);
+        b.getTransform().setPosition(-30, 7, 0);
+
+        assertEquals(1, q.queryNodesInArea(new Rectangle(0, 0, 2, 2)).size());
+        b.getTransform().translate(30, -6, 0);
+        Set<Node> found = q.queryNodesInArea(new Rectangle(0, 0, 2, 2));
+        assertTrue(found.contains(a));
+        assertTrue(found.contains(b));
+        assertEquals(new Rectangle(0, 1, 0, 0), q.getIndexedBounds(b, new Rectangle()));
+    }
+
+    /**
+     * Moves every entity of a uniformly spread crowd each frame, then runs a small collision query for a tenth of
+     * them, and prints how long a frame takes with each index. The density is the same at every size.
+     */
+    @Test
+    public void benchmarkMovingEntities() {
+        for (int numEntities : new int[]{1000, 10000, 50000}) {
+            long rtree = runFrames(new RTreeSpatialIndex(), numEntities);
+            long grid = runFrames(new HashGridSpatialIndex(4), numEntities);
+            System.out.printf("%d moving entities: R-tree %.2f ms/frame, hash grid %.2f ms/frame%n",
+                    numEntities, rtree / 1e6, grid / 1e6);
+        }
+    }
+
+    /**
+     * Finds the nearest of a few players for a crowd of enemies, the way enemies used to (every node in a square, then
+     * the closest player) and with a filtered nearest-neighbour search, and checks that both find the same player.
+     */
+    @Test
+    public void testNearestPlayerMatchesSquareQuery() {
+        rpg.scene.Scene s = new rpg.scene.Scene();
+        Node2DQuerySystem q = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+        s.addSystem(q);
+        Random r = new Random(7);
+        int numNodes = 20000;
+        float side = (float) Math.sqrt(numNodes) * 3;
+        Set<Node> players = new HashSet<>();
+        List<Node> enemies = new ArrayList<>();
+        for (int i = 0; i < numNodes; i++) {
+            Node n = new Node(s.getRoot());
+            n.getTransform().setPosition(r.nextFloat() * side, r.nextFloat() * side, 0);
+            if (i % 500 == 0) {
+                players.add(n);
+            } else if (i % 5 == 0) {
+                enemies.add(n);
+            }
+        }
+        float vision = 10;
+        NearestNodes nearest = new NearestNodes(1, players::contains);
+
+        int found = 0;
+        for (Node enemy : enemies) {
+            com.badlogic.gdx.math.Vector3 p = enemy.getTransform().getWorldPosition();
+            Rectangle area = new Rectangle(p.x - vision, p.y - vision, vision * 2, vision * 2);
+            Node closest = q.queryNodesInArea(area).stream()
+                    .filter(players::contains)
+                    .filter(n -> p.dst(n.getTransform().getWorldPosition()) <= vision)
+                    .min((a, b) -> Float.compare(p.dst(a.getTransform().getWorldPosition()),
+                            p.dst(b.getTransform().getWorldPosition())))
+                    .orElse(null);
+            assertSame(closest, q.findNearestNodes(p.x, p.y, vision, nearest).first());
+            if (closest != null) found++;
+        }
+        // Make sure the check covered both outcomes.
+        assertTrue(found > 0);
+        assertTrue(found < enemies.size());
+    }
+
+    private static final int FRAMES = 3;
+
+    // Returns the average nanoseconds per frame, after a warm-up frame.
+    private static long runFrames(SpatialIndex index, int numEntities) {
+        Random r = new Random(5);
+        float side = (float) Math.sqrt(numEntities) * 3;
+        Node[] nodes = new Node[numEntities];
+        float[] x = new float[numEntities];
+        float[] y = new float[numEntities];
+        float[] vx = new float[numEntities];
+        float[] vy = new float[numEntities];
+        for (int i = 0; i < numEntities; i++) {
+            nodes[i] = new Node();
+            x[i] = r.nextFloat() * side;
+            y[i] = r.nextFloat() * side;
+            vx[i] = r.nextFloat() - 0.5f;
+            vy[i] = r.nextFloat() - 0.5f;
+            index.put(nodes[i], x[i] - 0.5f, y[i] - 0.5f, x[i] + 0.5f, y[i] + 0.5f);
+        }
+
+        int[] hits = new int[1];
+        long start = 0;
+        for (int frame = 0; frame <= FRAMES; frame++) {
+            if (frame == 1) start = System.nanoTime();
+            for (int i = 0; i < numEntities; i++) {
+                x[i] += vx[i];
+                y[i] += vy[i];
+                index.put(nodes[i], x[i] - 0.5f, y[i] - 0.5f, x[i] + 0.5f, y[i] + 0.5f);
+            }
+            for (int i = 0; i < numEntities; i += 10) {
+                index.search(x[i] - 0.5f, y[i] - 0.5f, x[i] + 0.5f, y[i] + 0.5f, n -> hits[0]++);
+            }
+        }
+        assertTrue(hits[0] >= (numEntities / 10) * (FRAMES + 1));
+        return (System.nanoTime() - start) / FRAMES;
+    }
+}
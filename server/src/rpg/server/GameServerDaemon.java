@@ -14,7 +14,9 @@ import rpg.scene.components.*;
 import rpg.scene.replication.RepTable;
 import rpg.scene.systems.GameLogicSystem;
 import rpg.scene.systems.GdxAssetManagerSystem;
+import rpg.scene.systems.HashGridSpatialIndex;
 import rpg.scene.systems.Node2DQuerySystem;
+import rpg.scene.systems.ProjectileCollisionSystem;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -136,8 +138,14 @@ public class GameServerDaemon implements IDaemon, ApplicationListener {
         gameLogicSystem = new GameLogicSystem();
         s.addSystem(GdxAssetManagerSystem.getSingleton());
         s.addSystem(gameLogicSystem);
-        querySystem = new Node2DQuerySystem();
+        // Units and bullets are all about a unit across, and most of them move every tick.
+        querySystem = new Node2DQuerySystem(new HashGridSpatialIndex(4));
+        // Bullets look for units and enemies and pickups for players, so keep those apart from the doodads.
+        querySystem.addLayer(UnitComponent.class, new HashGridSpatialIndex(4));
+        querySystem.addLayer(SimplePlayerComponent.class, new HashGridSpatialIndex(4));
         s.addSystem(querySystem);
+        // Runs after the game logic has moved everything.
+        s.addSystem(new ProjectileCollisionSystem());
         try {
             kryoServerSceneSystem = new KryoServerSceneSystem();
             s.addSystem(kryoServerSceneSystem);
@@ -181,6 +189,7 @@ public class GameServerDaemon implements IDaemon, ApplicationListener {
                 );
                 n.addComponent(tilemapRendererComponent);
                 n.setStaticReplicant(true);
+                n.setStationary(true);
 
                 tilemapRendererComponent.generateRandomDoodads();
 
@@ -17,8 +17,10 @@ import rpg.scene.systems.NetworkingSceneSystem;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 public class KryoServerSceneSystem extends NetworkingSceneSystem {
 
@@ -45,8 +47,17 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
     private float replicationRate = 10;
     private int currentTick = 0;
 
-    private Map<Integer, FieldReplicateMessage> oldReplicationState = new HashMap<>();
+    // The recent field states of every component, by network ID. Clients get deltas from the state as of the last tick
+    // they acknowledged, so this is as many ticks as a client may fall behind before it is sent whole states again.
+    private static final int FIELD_HISTORY_TICKS = 32;
+    private Map<Integer, FieldReplicationHistory> fieldHistories = new HashMap<>();
 
+    // Messages that go to many players are encoded once a tick, by the first player to need each, and the same bytes
+    // are sent to every player after that.
+    private final FieldReplicateMessageCache encodedFields = new FieldReplicateMessageCache();
+    private final Map<Integer, EncodedMessage> encodedComponentAttaches = new ConcurrentHashMap<>();
+
+    // Only touched on the thread updating the scene; components stepped in parallel defer their RPCs to the sync point.
     private List<RPCMessage> multicastRPCs = new ArrayList<>();
     private List<RPCMessage> clientRPCs = new ArrayList<>();
 
@@ -71,7 +82,13 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
             }
 
             if (p.state == Player.IN_PLAY) {
-                if (o instanceof RPCMessage) {
+                if (o instanceof TickAck) {
+                    // Keep the latest, in case acks arrive out of order.
+                    p.lastAckedTick = Math.max(p.lastAckedTick, ((TickAck) o).tickID);
+                } else if (o instanceof SnapshotAck) {
+                    // These come unreliably, so they may well be out of order.
+                    p.lastAckedSnapshot = Math.max(p.lastAckedSnapshot, ((SnapshotAck) o).tickID);
+                } else if (o instanceof RPCMessage) {
                     // We can handle it immediately since server update is synchronous with app thread.
                     RPCMessage rpcMessage = (RPCMessage) o;
 
@@ -142,7 +159,8 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
     }
 
     public KryoServerSceneSystem() throws IOException {
-        server = new Server();
+        // Big enough for a few of the frames ticks are sent in.
+        server = new Server(8 * TickFrameWriter.MAX_FRAME_BYTES, 2048);
         KryoClassRegisterUtil.registerAll(server.getKryo()); // register all known classes for serialization
         server.addListener(listener);
         server.bind(31425, 31426);
@@ -194,6 +212,8 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
     @Override
     public void componentDetached(Component c) {
         componentMap.remove(c.getNetworkID());
+        // The ID may be given to another component before the next tick.
+        fieldHistories.remove(c.getNetworkID());
         componentsToDetach.add(c);
         componentsToAttach.remove(c);
     }
@@ -246,21 +266,31 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
         timeBuffer += deltaTime;
 
         if (timeBuffer > (1f / replicationRate) && players.size() > 0) {
-            Map<Integer, FieldReplicateMessage> newReplicationState = new TreeMap<>();
-
-            // First, we need to get all the new component replication states.
-            // Evaluate in parallel, then sequentially put into the map.
-            componentMap.values().parallelStream().map(c -> {
-                RepTable t = RepTable.getTableForType(c.getClass());
-                FieldReplicationData frd = t.replicateFull(c);
-                return new FieldReplicateMessage(c.getNetworkID(), frd);
-            }).sequential().forEach(f -> newReplicationState.put(f.componentID, f));
+            // First, capture the fields of every component that may have changed, and add them to the component's
+            // history if they did. Components that track their changes and weren't marked keep their last state,
+            // without being looked at. The captures are evaluated in parallel, then stored sequentially.
+            List<Component> changedComponents = new ArrayList<>();
+            for (Component c : componentMap.values()) {
+                if (!c.tracksReplicationChanges() || c.isReplicationDirty()
+                        || !fieldHistories.containsKey(c.getNetworkID())) {
+                    // Cleared first, so that a change made while capturing is captured next tick.
+                    c.clearReplicationDirty();
+                    changedComponents.add(c);
+                }
+            }
+            List<FieldReplicationData> captures = changedComponents.parallelStream()
+                    .map(c -> RepTable.getTableForType(c.getClass()).replicateFull(c))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < captures.size(); i++) {
+                fieldHistories.computeIfAbsent(changedComponents.get(i).getNetworkID(),
+                        id -> new FieldReplicationHistory(FIELD_HISTORY_TICKS)).add(currentTick, captures.get(i));
+            }
 
             /* During this processing step, the scene is considered "immutable", so we can
              * process the scene in parallel for all connected clients. Below is the general
              * process of handling the replication tick for each player:
              *
-             * 1. Send BeginTick to indicate a block of information for a tick.
+             * 1. Start the tick's frame, which collects everything sent to the player for the tick.
              * 2. Get the new relevant set.
              * 3. Ensure that each node in the relevant set's parent is in the relevant set.
              * 4. Compare the old relevant set and new relevant set to get the delta relevance. This yields us 3 sets:
@@ -269,8 +299,12 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
              *    If it has, then we have to reattach -- and if the new parent is not relevant, then that node can't
              *    be relevant, so we'll go ahead and send a detach event for that node.
              * 5. Replicate components.
-             * 6. EndTick
+             * 6. Send the frame.
              */
+            List<EncodedMessage> encodedMulticastRPCs = multicastRPCs.parallelStream()
+                    .map(EncodedMessage::encode)
+                    .collect(Collectors.toList());
+
             List<Player> playersCopy = new ArrayList<>(players);
             playersCopy.parallelStream().forEach(p -> {
                 if (!players.contains(p) || p.state != Player.IN_PLAY) {
@@ -279,10 +313,15 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
                     return;
                 }
 
-                // Send begin tick.
-                BeginTick bt = new BeginTick();
-                bt.tickID = currentTick;
-                p.kryoConnection.sendTCP(bt);
+                // Components that are gone can't be relevant any more.
+                componentsToDetach.forEach(c -> p.componentsRelevantSince.remove(c.getNetworkID()));
+
+                // Everything for this tick goes out in one frame, sent when it is finished. The fields of components
+                // that change all the time go in a snapshot sent over UDP instead, so that losing one packet of it
+                // doesn't hold up the ticks after it. The next snapshot makes up for it.
+                TickFrameWriter frame = new TickFrameWriter(currentTick, p.kryoConnection::sendTCP);
+                TickFrameWriter snapshot = new TickFrameWriter(currentTick, true,
+                        TickFrameWriter.MAX_SNAPSHOT_FRAME_BYTES, p.kryoConnection::sendUDP);
 
                 // Get the relevant set
                 Set<Node> newRelevantSet = relevantSetDecider.getRelevantSetForNode(getParent(), p.possessedNode);
@@ -329,7 +368,7 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
                     nodeReattach.nodeID = n.getNetworkID();
                     nodeReattach.parentID = n.getParent().getNetworkID();
                     nodeReattach.depth = n.getDepth();
-                    p.kryoConnection.sendTCP(nodeReattach);
+                    frame.add(nodeReattach);
                 });
 
 
@@ -341,14 +380,14 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
                     nodeAttach.nodeID = n.getNetworkID();
                     nodeAttach.parentID = n.getParent().getNetworkID();
                     nodeAttach.depth = n.getDepth();
-                    p.kryoConnection.sendTCP(nodeAttach);
+                    frame.add(nodeAttach);
                 });
 
                 // Now, get all of the irrelevant nodes to detach.
                 newlyIrrelevantNodes.forEach(n -> {
                     NodeDetach nodeDetach = new NodeDetach();
                     nodeDetach.nodeID = n.getNetworkID();
-                    p.kryoConnection.sendTCP(nodeDetach);
+                    frame.add(nodeDetach);
                 });
 
                 /* Components!
@@ -390,24 +429,26 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
                         .forEach(reattachedComponents::add);
 
                 newlyRelevantComponents.forEach(c -> {
-                    ComponentAttach ca = new ComponentAttach();
-                    ca.componentID = c.getNetworkID();
-                    ca.parentNodeID = c.getParent().getNetworkID();
-                    ca.repClassID = RepTable.getClassIDForType(c.getClass());
-                    p.kryoConnection.sendTCP(ca);
+                    frame.add(encodedComponentAttaches.computeIfAbsent(c.getNetworkID(), id -> {
+                        ComponentAttach ca = new ComponentAttach();
+                        ca.componentID = id;
+                        ca.parentNodeID = c.getParent().getNetworkID();
+                        ca.repClassID = RepTable.getClassIDForType(c.getClass());
+                        return EncodedMessage.encode(ca);
+                    }));
                 });
 
                 newlyIrrelevantComponents.forEach(c -> {
                     ComponentDetach cd = new ComponentDetach();
                     cd.componentID = c.getNetworkID();
-                    p.kryoConnection.sendTCP(cd);
+                    frame.add(cd);
                 });
 
                 reattachedComponents.forEach(c -> {
                     ComponentReattach cr = new ComponentReattach();
                     cr.componentID = c.getNetworkID();
                     cr.parentNodeID = c.getParent().getNetworkID();
-                    p.kryoConnection.sendTCP(cr);
+                    frame.add(cr);
                 });
 
                 oldRelevantSets.put(p, newRelevantSet);
@@ -419,52 +460,50 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
 
                 // Newly relevant components get entire field replication state.
                 newlyRelevantComponents.forEach(c -> {
-                    FieldReplicateMessage m = newReplicationState.get(c.getNetworkID());
-                    if (m.fieldReplicationData.fieldData.size() == 0) return;
-                    p.kryoConnection.sendTCP(m);
+                    p.componentsRelevantSince.put(c.getNetworkID(), currentTick);
+                    FieldReplicationData full = fieldHistories.get(c.getNetworkID()).getLatest();
+                    if (full.fieldData.size() == 0) return;
+                    frame.add(encodedFields.get(c.getNetworkID(), full));
                 });
 
-                // Components belonging to nodes in consistent relevancy should get delta field replications
+                // Components belonging to nodes in consistent relevancy get what changed since the last tick the
+                // player acknowledged, or the last snapshot it acknowledged for those sent in snapshots.
                 consistentlyRelevantComponents.forEach(c -> {
-                    FieldReplicateMessage oldFRM = oldReplicationState.get(c.getNetworkID());
-                    if (oldFRM == null) {
-                        // send entire new replication state since we have no old state...
-                        FieldReplicateMessage m = newReplicationState.get(c.getNetworkID());
-                        p.kryoConnection.sendTCP(m);
-                        return;
-                    }
-                    FieldReplicationData oldFRD = oldFRM.fieldReplicationData;
-                    FieldReplicationData newFRD = newReplicationState.get(c.getNetworkID()).fieldReplicationData;
-
-
-                    FieldReplicateMessage m = new FieldReplicateMessage();
-                    m.fieldReplicationData = oldFRD.diff(newFRD);
-                    if (m.fieldReplicationData.fieldData.size() == 0 && !c.isAlwaysFieldReplicated()) {
+                    if (newlyRelevantComponents.contains(c)) return;
+                    FieldReplicationHistory history = fieldHistories.get(c.getNetworkID());
+                    if (history == null) return;
+                    boolean inSnapshot = c instanceof Transform || c.isAlwaysFieldReplicated();
+                    TickFrameWriter out = inSnapshot ? snapshot : frame;
+                    int ackedTick = inSnapshot ? p.lastAckedSnapshot : p.lastAckedTick;
+
+                    Integer relevantSince = p.componentsRelevantSince.get(c.getNetworkID());
+                    FieldReplicationData fields = relevantSince == null
+                            ? history.getLatest() : history.changesFor(relevantSince, ackedTick);
+                    if (fields.fieldData.size() == 0 && !c.isAlwaysFieldReplicated()) {
                         // nothing has changed. send nothing for optimization.
                         return;
                     }
-                    m.componentID = c.getNetworkID();
-                    int sent = p.kryoConnection.sendTCP(m);
+                    out.add(encodedFields.get(c.getNetworkID(), fields));
                 });
 
 
                 // Multicast RPCs (only if component is in relevant set, or the component was recently irrelevant)
-                multicastRPCs.stream().filter(r -> {
-                    Component c = componentMap.get(r.targetNetworkID);
-                    return c != null && (newRelevantSet.contains(c.getParent()) || newlyIrrelevantComponents.contains(c));
-                }).forEach(p.kryoConnection::sendTCP);
+                for (int i = 0; i < multicastRPCs.size(); i++) {
+                    Component c = componentMap.get(multicastRPCs.get(i).targetNetworkID);
+                    if (c != null && (newRelevantSet.contains(c.getParent()) || newlyIrrelevantComponents.contains(c))) {
+                        frame.add(encodedMulticastRPCs.get(i));
+                    }
+                }
 
                 // Client RPCS
                 // These should only be sent to the possessing client.
                 clientRPCs.stream().filter(r -> {
                     Component c = componentMap.get(r.targetNetworkID);
                     return c != null && c.getParent() == p.possessedNode && (newRelevantSet.contains(c.getParent()) || newlyRelevantComponents.contains(c));
-                }).forEach(p.kryoConnection::sendTCP);
-
+                }).forEach(frame::add);
 
-                EndTick endTick = new EndTick();
-                endTick.tickID = currentTick;
-                p.kryoConnection.sendTCP(endTick);
+                frame.finish();
+                snapshot.finish();
             });
 
 
@@ -483,7 +522,8 @@ public class KryoServerSceneSystem extends NetworkingSceneSystem {
             clientRPCs.clear();
             multicastRPCs.clear();
 
-            oldReplicationState = newReplicationState;
+            encodedFields.clear();
+            encodedComponentAttaches.clear();
         }
     }
 
@@ -3,15 +3,28 @@ package rpg.server;
 import com.esotericsoftware.kryonet.Connection;
 import rpg.scene.Node;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class Player {
     public Node possessedNode;
     public Connection kryoConnection;
 
     public int state = AUTHENTICATING;
 
+    // The last tick the client said it applied, which its field deltas are taken from.
+    public int lastAckedTick = NO_TICK;
+    // The last tick the client said it has the whole snapshot of, which the fields in later snapshots are taken from.
+    public int lastAckedSnapshot = NO_TICK;
+    // The tick each relevant component was first sent in, by network ID. A component's fields are sent whole until
+    // the client acknowledges that tick.
+    public final Map<Integer, Integer> componentsRelevantSince = new HashMap<>();
+
     public static final int AUTHENTICATING = 0;
     public static final int IN_PLAY = 1;
 
+    public static final int NO_TICK = -1;
+
     public Player() {
 
     }